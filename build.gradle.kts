@@ -10,6 +10,8 @@ plugins {
     // QuPath Gradle extension convention plugin
     id("qupath-conventions")
     jacoco
+    // Microbenchmarks of BraiAn's algorithms, in src/jmh
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 qupathExtension {
@@ -32,6 +34,20 @@ dependencies {
     testImplementation(libs.junit)
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
     testImplementation("org.mockito:mockito-core:5.+")
+
+    // For benchmarking
+    jmhImplementation(libs.bundles.qupath)
+    jmhImplementation(libs.bundles.logging)
+}
+
+jmh {
+    jmhVersion = "1.37"
+    // benchmarks re-use the synthetic objects generators of the tests
+    includeTests = true
+    fork = 1
+    warmupIterations = 2
+    iterations = 5
+    resultFormat = "JSON"
 }
 
 tasks.test {
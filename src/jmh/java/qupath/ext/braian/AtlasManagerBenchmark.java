@@ -0,0 +1,59 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the search of the brain regions excluded from the analysis.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AtlasManagerBenchmark {
+    /**
+     * The number of levels of the atlas below each hemisphere's root. With 4 sub-regions each, 5 levels are
+     * 1365 regions per hemisphere, close to the number of regions of the Allen Mouse Brain atlas
+     */
+    @Param({"3", "5"})
+    public int atlasDepth;
+
+    @Param({"1", "10", "50"})
+    public int nExclusions;
+
+    @Param({"100000"})
+    public int detectionsPerChannel;
+
+    private AtlasManager atlas;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PathObjectHierarchy hierarchy = new SyntheticBrain()
+                .setDepth(this.atlasDepth)
+                .setExclusions(this.nExclusions)
+                .setDetectionsPerChannel(this.detectionsPerChannel)
+                .generate()
+                .hierarchy();
+        this.atlas = new AtlasManager(SyntheticBrain.ATLAS_NAME, hierarchy);
+    }
+
+    @Benchmark
+    public Set<PathObject> getExcludedBrainRegions() {
+        return this.atlas.getExcludedBrainRegions();
+    }
+}
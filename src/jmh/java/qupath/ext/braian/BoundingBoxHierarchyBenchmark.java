@@ -0,0 +1,82 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the construction of a {@link BoundingBoxHierarchy} and the queries used to overlap detections and
+ * to assign them to brain regions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BoundingBoxHierarchyBenchmark {
+    private static final double WIDTH = 20_000;
+    private static final double HEIGHT = 15_000;
+    private static final double CELL_SIZE = 10;
+
+    @Param({"10000", "100000", "1000000"})
+    public int nObjects;
+
+    @Param({"UNIFORM", "CLUSTERED", "GRID"})
+    public SyntheticObjects.Pattern pattern;
+
+    private List<PathDetectionObject> objects;
+    private List<PathDetectionObject> queries;
+    private BoundingBoxHierarchy bbh;
+    private BoundingBoxHierarchy queriesBBH;
+    private ROI region;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.objects = SyntheticObjects.detections(this.nObjects, WIDTH, HEIGHT, CELL_SIZE, this.pattern, null, 42);
+        // a second channel, shifted by less than a cell, so that most queries find an overlapping object
+        this.queries = SyntheticObjects.detections(this.nObjects, WIDTH, HEIGHT, CELL_SIZE, this.pattern, null, 42)
+                .stream()
+                .map(d -> (PathDetectionObject) PathObjects.createDetectionObject(
+                        d.getROI().translate(CELL_SIZE / 3, CELL_SIZE / 3)))
+                .toList();
+        this.bbh = new BoundingBoxHierarchy(this.objects);
+        this.queriesBBH = new BoundingBoxHierarchy(this.queries);
+        this.region = SyntheticObjects.rectangle(WIDTH / 4, HEIGHT / 4, WIDTH / 2, HEIGHT / 2);
+    }
+
+    @Benchmark
+    public BoundingBoxHierarchy build() {
+        return new BoundingBoxHierarchy(this.objects);
+    }
+
+    @Benchmark
+    public void overlappingObject(Blackhole blackhole) {
+        for (PathDetectionObject query : this.queries)
+            blackhole.consume(this.bbh.getOverlappingObject(query));
+    }
+
+    @Benchmark
+    public int[] overlappingIndices() {
+        return this.bbh.getOverlappingIndices(this.queriesBBH);
+    }
+
+    @Benchmark
+    public int[] indicesInside() {
+        return this.bbh.getIndicesInside(this.region);
+    }
+}
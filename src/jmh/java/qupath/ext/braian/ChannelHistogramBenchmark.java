@@ -0,0 +1,66 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the search of the peaks of a {@link ChannelHistogram}, used to automatically choose the threshold
+ * of a channel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChannelHistogramBenchmark {
+    private static final long N_PIXELS = 50_000_000;
+
+    @Param({"8", "16"})
+    public int bitDepth;
+
+    private ChannelHistogram histogram;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.histogram = new ChannelHistogram("DAPI", this.bitDepth, syntheticHistogram(this.bitDepth, 42));
+    }
+
+    /**
+     * Generates the histogram of a fluorescence channel: a large background peak plus a few smaller signal peaks,
+     * with some noise.
+     */
+    private static long[] syntheticHistogram(int bitDepth, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int nValues = 1 << bitDepth;
+        double[] means = {.05 * nValues, .3 * nValues, .55 * nValues};
+        double[] sigmas = {.02 * nValues, .05 * nValues, .08 * nValues};
+        double[] weights = {.8, .15, .05};
+        long[] histogram = new long[nValues];
+        for (int v = 0; v < nValues; v++) {
+            double density = 0;
+            for (int p = 0; p < means.length; p++) {
+                double z = (v - means[p]) / sigmas[p];
+                density += weights[p] * Math.exp(-z * z / 2) / (sigmas[p] * Math.sqrt(2 * Math.PI));
+            }
+            histogram[v] = Math.round(density * N_PIXELS * (0.9 + 0.2 * random.nextDouble()));
+        }
+        return histogram;
+    }
+
+    @Benchmark
+    public int[] findHistogramPeaks() {
+        return this.histogram.findHistogramPeaks();
+    }
+}
@@ -0,0 +1,80 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmarks the co-localization of the detections of multiple channels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OverlappingDetectionsBenchmark {
+    private static final List<String> CHANNELS = List.of("cFos", "Arc", "PV", "NeuN");
+
+    @Param({"100000", "1000000"})
+    public int detectionsPerChannel;
+
+    @Param({"2", "3", "4"})
+    public int nChannels;
+
+    @Param({"0.0", "0.8"})
+    public double clustering;
+
+    @Param({"0.1", "0.5"})
+    public double colocalization;
+
+    private PathObjectHierarchy hierarchy;
+    private ChannelDetections control;
+    private List<AbstractDetections> others;
+    private List<String> classNames;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> channelNames = CHANNELS.subList(0, this.nChannels);
+        this.hierarchy = new SyntheticBrain()
+                .setSize(40_000, 30_000)
+                .setChannels(channelNames)
+                .setDetectionsPerChannel(this.detectionsPerChannel)
+                .setClustering(this.clustering)
+                .setColocalization(this.colocalization)
+                .generate()
+                .hierarchy();
+        List<ChannelDetections> channels = channelNames.stream()
+                .map(name -> new ChannelDetections(name, this.hierarchy))
+                .toList();
+        this.control = channels.getFirst();
+        this.others = new ArrayList<>(channels.subList(1, channels.size()));
+        this.classNames = IntStream.range(0, 10).mapToObj(i -> "channel" + i).toList();
+    }
+
+    /**
+     * Each invocation deletes the overlaps computed by the previous one.
+     */
+    @Benchmark
+    public OverlappingDetections overlap() {
+        return new OverlappingDetections(this.control, this.others, true, this.hierarchy);
+    }
+
+    @Benchmark
+    public List<String> createAllOverlappingClassNames() {
+        return OverlappingDetections.createAllOverlappingClassNames(this.classNames);
+    }
+}
@@ -27,7 +27,13 @@ import java.util.stream.Stream;
  * By default, {@link AbstractDetections} allows to classify its detections by applying {@link PartialClassifier}s.
  */
 public abstract class AbstractDetections {
-    private static final int BBH_MAX_DEPTH = 6;
+    private static final int BBH_MAX_DEPTH = 12;
+    /**
+     * The key of the containers' metadata that stores the fingerprint of the configuration used to compute
+     * their detections
+     * @see #setFingerprint(String)
+     */
+    public static final String FINGERPRINT_KEY = "BraiAn fingerprint";
 
     /**
      * returns the detections inside the given annotation
@@ -115,7 +121,10 @@ public abstract class AbstractDetections {
         this.removeEmptyContainers(allContainers);
         this.containers = allContainers;
         List<PathDetectionObject> cells = this.getContainersDetections(false); // throw NoCellContainersFoundException
-        this.bbh = new BoundingBoxHierarchy(cells, BBH_MAX_DEPTH);
+        try (var measurement = PerformanceProfile.of(this.hierarchy).measure("bounding box hierarchy", this.id)) {
+            this.bbh = new BoundingBoxHierarchy(cells, BBH_MAX_DEPTH);
+            measurement.count(cells.size());
+        }
     }
 
     private void updateContainer(PathAnnotationObject oldContainer, List<PathAnnotationObject> newContainers) {
@@ -192,6 +201,27 @@ public abstract class AbstractDetections {
         return this.containers;
     }
 
+    /**
+     * Stores a fingerprint of the configuration used to compute the detections on all their containers,
+     * so that they can be reused as long as the configuration does not change.
+     * @param fingerprint the fingerprint of the configuration
+     * @see qupath.ext.braian.config.ChannelDetectionsConfig#getFingerprint(ImageChannelTools, Collection, Project)
+     */
+    public void setFingerprint(String fingerprint) {
+        for (PathAnnotationObject container : this.containers)
+            container.getMetadata().put(FINGERPRINT_KEY, fingerprint);
+    }
+
+    /**
+     * @param fingerprint the fingerprint of a configuration
+     * @return true if there is at least one container and all of them were computed with the given fingerprint
+     * @see #setFingerprint(String)
+     */
+    public boolean hasFingerprint(String fingerprint) {
+        return !this.containers.isEmpty() && this.containers.stream()
+                .allMatch(container -> fingerprint.equals(container.getMetadata().get(FINGERPRINT_KEY)));
+    }
+
     protected PathObjectHierarchy getHierarchy() {
         return hierarchy;
     }
@@ -219,6 +249,28 @@ public abstract class AbstractDetections {
         return this.bbh.getOverlappingObjectIfPresent(o);
     }
 
+    /**
+     * Bulk version of {@link #getOverlappingObjectIfPresent(PathObject)}, that searches an overlapping detection
+     * for each of the detections in <code>queries</code> at once.
+     * @param queries the detections to search an overlapping detection for
+     * @return for each detection of <code>queries</code>, in the order of its {@link #toStream()}, the position in
+     * {@link #toStream()} of the overlapping detection, or -1 if none overlaps
+     * @see BoundingBoxHierarchy#getOverlappingIndices(BoundingBoxHierarchy)
+     */
+    public int[] getOverlappingIndices(AbstractDetections queries) {
+        return this.bbh.getOverlappingIndices(queries.bbh);
+    }
+
+    /**
+     * Searches all the detections whose centroid is inside the given shape.
+     * @param roi the shape to search the detections in
+     * @return the positions in {@link #toStream()} of the detections inside <code>roi</code>, in increasing order
+     * @see BoundingBoxHierarchy#getIndicesInside(ROI)
+     */
+    public int[] getIndicesInside(ROI roi) {
+        return this.bbh.getIndicesInside(roi);
+    }
+
     /**
      * @return the name used by the containers of detections of the instance kind
      */
@@ -305,6 +357,7 @@ public abstract class AbstractDetections {
             if (oldContainer.isPresent()) {
                 PathAnnotationObject container = oldContainer.get();
                 this.hierarchy.removeObjects(container.getChildObjects(), false);
+                container.getMetadata().remove(FINGERPRINT_KEY); // its detections are about to be recomputed
                 return container;
             }
         }
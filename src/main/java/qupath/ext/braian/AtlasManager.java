@@ -6,10 +6,8 @@ package qupath.ext.braian;
 
 import qupath.ext.braian.utils.BraiAn;
 import qupath.lib.common.GeneralTools;
-import qupath.lib.gui.measure.ObservableMeasurementTableData;
 import qupath.lib.images.servers.PixelCalibration;
 import qupath.lib.images.ImageData;
-import qupath.lib.images.servers.ImageServer;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectTools;
@@ -17,16 +15,10 @@ import qupath.lib.objects.PathObjects;
 import qupath.lib.objects.classes.PathClass;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.projects.ProjectImageEntry;
-import qupath.lib.regions.RegionRequest;
 
-import ij.ImagePlus;
-import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
 import ij.process.AutoThresholder;
-import ij.gui.Roi;
-import qupath.imagej.tools.IJTools;
 
-import ij.measure.ResultsTable;
 import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -251,7 +243,8 @@ public class AtlasManager {
      * Namely, Image name, brain region name, hemisphere, area in µm², number of
      * detections for each of the given types.
      * The table is saved as a CSV (comma-separated values) file if 'file' ends with
-     * ".csv"
+     * ".csv", and in BraiAn's binary columnar format if it ends with
+     * {@link RegionResultsWriter#BINARY_EXTENSION}
      * 
      * @param detections the list of detection of which to gather the data for each
      *                   region
@@ -265,15 +258,26 @@ public class AtlasManager {
      *                                   and it cannot find all the brain region
      *                                   organised according to the atlas's
      *                                   hierarchy
+     * @see #getResults(List, ImageData, ProjectImageEntry)
      */
-    // Olivier Burri <https://github.com/lacan> wrote mostly of this function and
-    // published under Apache-2.0 license for qupath-extension-biop
     public boolean saveResults(List<AbstractDetections> detections,
             File file,
             ImageData<BufferedImage> imageData,
             ProjectImageEntry<BufferedImage> entry) {
-        if (this.atlasObject.getChildObjects().isEmpty())
-            throw new DisruptedAtlasHierarchy(this.atlasObject);
+        return this.saveResults(this.getResults(detections, imageData, entry), file);
+    }
+
+    /**
+     * Saves the given results to a TSV file, or to a CSV file if 'file' ends with ".csv", or in
+     * BraiAn's binary columnar format if it ends with {@link RegionResultsWriter#BINARY_EXTENSION}
+     *
+     * @param results the results of each brain region, as computed by
+     *                {@link #getResults(List, ImageData, ProjectImageEntry)}
+     * @param file    the file where it should write to. Note that if the file
+     *                exists, it will be overwritten
+     * @return true if the results were saved
+     */
+    public boolean saveResults(RegionResultsWriter results, File file) {
         if (file.exists())
             if (!file.delete()) {
                 getLogger().error("Could not delete previous results file {}, the file could be locked.",
@@ -289,54 +293,91 @@ public class AtlasManager {
                 return false;
             }
         }
+        try {
+            if (file.getName().endsWith(RegionResultsWriter.BINARY_EXTENSION))
+                results.writeBinary(file.toPath());
+            else
+                results.write(file.toPath());
+        } catch (IOException e) {
+            getLogger().error("Could not save results '{}': {}", file.getName(), e.getMessage());
+            return false;
+        }
+        getLogger().info("Results '{}' Saved under '{}', contains {} rows", file.getName(),
+                file.getParentFile().getAbsolutePath(), results.getRowCount());
+        return true;
+    }
 
-        // We use a ResultsTable to store the data
-        ResultsTable results = new ResultsTable();
+    /**
+     * Computes, for each brain region of the atlas, the data saved by
+     * {@link #saveResults(List, File, ImageData, ProjectImageEntry)}.
+     *
+     * @param detections the list of detection of which to gather the data for each
+     *                   region
+     * @param imageData  the image whose hierarchy contains the atlas
+     * @param entry      the project entry of the image, if any. Its metadata are added
+     *                   as columns
+     * @return the table with one row for each brain region
+     * @throws ExclusionMistakeException if the atlas hierarchy contains regions
+     *                                   classified as
+     *                                   {@link #EXCLUDE_CLASSIFICATION}.
+     * @throws DisruptedAtlasHierarchy   if the current atlas hierarchy was
+     *                                   disrupted,
+     *                                   and it cannot find all the brain region
+     *                                   organised according to the atlas's
+     *                                   hierarchy
+     */
+    // Olivier Burri <https://github.com/lacan> wrote mostly of this function and
+    // published under Apache-2.0 license for qupath-extension-biop
+    public RegionResultsWriter getResults(List<AbstractDetections> detections,
+            ImageData<BufferedImage> imageData,
+            ProjectImageEntry<BufferedImage> entry) {
+        if (this.atlasObject.getChildObjects().isEmpty())
+            throw new DisruptedAtlasHierarchy(this.atlasObject);
 
-        ObservableMeasurementTableData ob = new ObservableMeasurementTableData();
         List<PathObject> brainRegions = this.flatten(detections);
         if (brainRegions.stream().anyMatch(p -> p.getPathClass() == EXCLUDE_CLASSIFICATION))
             throw new ExclusionMistakeException();
-        // This line creates all the measurements
         if (imageData == null) {
             throw new IllegalArgumentException("ImageData is required to export atlas results");
         }
-        ob.setImageData(imageData, brainRegions);
+        // Name, Classification, Area, Num Detections and then one column for each classification of the detections
+        List<String> columns = AtlasManager.getDetectionsMeasurements(detections, imageData);
+        List<PathClass> classes = detections.stream()
+                .flatMap(d -> d.getDetectionsPathClasses().stream())
+                .toList();
+        RegionCounts counts = new RegionCounts(brainRegions, classes, this.hierarchy.getDetectionObjects());
 
         String rawImageName = entry != null ? entry.getImageName() : imageData.getServerMetadata().getName();
-        double numericValue;
-
-        // Add value for each selected object
-        for (PathObject brainRegion : brainRegions) {
-            results.incrementCounter();
-            results.addValue("Image Name", rawImageName);
-
-            // Check if image has associated metadata and add it as columns
-            if (entry != null && !entry.getMetadata().isEmpty()) {
-                Map<String, String> metadata = entry.getMetadata();
-                for (String key : metadata.keySet()) {
-                    results.addValue("Metadata_" + key, metadata.get(key));
-                }
+        RegionResultsWriter results = new RegionResultsWriter(brainRegions.size());
+        results.addConstantColumn("Image Name", rawImageName);
+
+        // Check if image has associated metadata and add it as columns
+        if (entry != null && !entry.getMetadata().isEmpty()) {
+            Map<String, String> metadata = entry.getMetadata();
+            for (String key : metadata.keySet()) {
+                results.addConstantColumn("Metadata_" + key, metadata.get(key));
             }
+        }
 
-            // Then we can add the results the user requested
-            // Because the Mu is sometimes poorly formatted, we remove them in favor of a
-            // 'u'
-            for (String col : AtlasManager.getDetectionsMeasurements(detections, imageData)) {
-                if (ob.isNumericMeasurement(col)) {
-                    numericValue = ob.getNumericValue(brainRegion, col);
-                    if (col.startsWith("Num ") && Double.isNaN(numericValue))
-                        numericValue = 0.;
-                    results.addValue(col.replace(um, "um"), numericValue);
-                }
-                if (ob.isStringMeasurement(col))
-                    results.addValue(col.replace(um, "um"), ob.getStringValue(brainRegion, col));
-            }
+        PixelCalibration cal = imageData.getServerMetadata().getPixelCalibration();
+        String[] names = new String[brainRegions.size()];
+        String[] classifications = new String[brainRegions.size()];
+        double[] areas = new double[brainRegions.size()];
+        for (int i = 0; i < brainRegions.size(); i++) {
+            PathObject region = brainRegions.get(i);
+            names[i] = region.getDisplayedName();
+            classifications[i] = region.getPathClass() == null ? null : region.getPathClass().toString();
+            areas[i] = region.getROI().getScaledArea(cal.getPixelWidthMicrons(), cal.getPixelHeightMicrons());
         }
-        boolean isSaved = results.save(file.getAbsolutePath());
-        getLogger().info("Results '{}' Saved under '{}', contains {} rows", file.getName(),
-                file.getParentFile().getAbsolutePath(), results.size());
-        return isSaved;
+        // Because the Mu is sometimes poorly formatted, we remove them in favor of a
+        // 'u'
+        results.addStringColumn(columns.get(0), names)
+                .addStringColumn(columns.get(1), classifications)
+                .addDoubleColumn(columns.get(2).replace(um, "um"), areas)
+                .addIntColumn(columns.get(3), counts.getTotals());
+        for (int c = 0; c < classes.size(); c++)
+            results.addIntColumn(columns.get(4 + c), counts.getCounts(c));
+        return results;
     }
 
     /**
@@ -574,10 +615,13 @@ public class AtlasManager {
         Map<String, Integer> otsuThresholds = new HashMap<>();
         for (String channelName : channelNames) {
             try {
+                // all channels' histograms are read in one pass and cached for the image
                 ImageChannelTools channel = new ImageChannelTools(channelName, imageData);
-                ImageProcessor ip = channel.getImageProcessor(AUTO_THRESHOLD_RESOLUTION_LEVEL);
+                int[] histogram = Arrays.stream(channel.getHistogram(AUTO_THRESHOLD_RESOLUTION_LEVEL).getValues())
+                        .mapToInt(Math::toIntExact)
+                        .toArray();
                 AutoThresholder thresholder = new AutoThresholder();
-                int threshold = thresholder.getThreshold(AutoThresholder.Method.Otsu, ip.getHistogram());
+                int threshold = thresholder.getThreshold(AutoThresholder.Method.Otsu, histogram);
                 otsuThresholds.put(channelName, threshold);
                 getLogger().info("Computed Otsu threshold for channel '{}': {}", channelName, threshold);
             } catch (Exception e) {
@@ -602,6 +646,18 @@ public class AtlasManager {
         // Avoid creating duplicate exclusions for regions already excluded
         Set<PathObject> alreadyExcludedData = getExcludedBrainRegions();
 
+        // Mean intensities of all regions and channels, read with a single pass over the image
+        RegionsStatistics regionsStatistics;
+        try {
+            regionsStatistics = RegionsStatistics.compute(imageData.getServer(), regions, AUTO_THRESHOLD_RESOLUTION_LEVEL);
+        } catch (IOException e) {
+            getLogger().error("Failed to compute the mean intensities of the brain regions: {}", e.getMessage());
+            return List.of();
+        }
+        Map<String, Integer> channelIndices = new HashMap<>();
+        for (String channelName : otsuThresholds.keySet())
+            channelIndices.put(channelName, new ImageChannelTools(channelName, imageData).getnChannel());
+
         // Map to store relevant intensity for each region
         Map<PathObject, Double> regionIntensities = new HashMap<>();
         List<Double> allIntensitiesForDistribution = new ArrayList<>();
@@ -615,21 +671,15 @@ public class AtlasManager {
                 if (!otsuThresholds.containsKey(channelName))
                     continue;
 
-                try {
-                    double mean = getRegionMean(imageData, (PathAnnotationObject) region, channelName,
-                            AUTO_THRESHOLD_RESOLUTION_LEVEL);
-                    double normalized = mean / otsuThresholds.get(channelName);
+                double mean = regionsStatistics.getMean(region, channelIndices.get(channelName));
+                double normalized = mean / otsuThresholds.get(channelName);
 
-                    if (useMaxAcrossChannels) {
-                        if (normalized > bestIntensity)
-                            bestIntensity = normalized;
-                    } else {
+                if (useMaxAcrossChannels) {
+                    if (normalized > bestIntensity)
                         bestIntensity = normalized;
-                        break; // Only use first channel (Nuclei)
-                    }
-                } catch (Exception e) {
-                    getLogger().warn("Failed to compute mean for region '{}' channel '{}': {}",
-                            region.getName(), channelName, e.getMessage());
+                } else {
+                    bestIntensity = normalized;
+                    break; // Only use first channel (Nuclei)
                 }
             }
 
@@ -708,34 +758,6 @@ public class AtlasManager {
                 .toList();
     }
 
-    private static double getRegionMean(
-            ImageData<BufferedImage> imageData,
-            PathAnnotationObject region,
-            String channelName,
-            int resolutionLevel) throws IOException {
-        Objects.requireNonNull(imageData, "imageData");
-        Objects.requireNonNull(region, "region");
-        Objects.requireNonNull(channelName, "channelName");
-
-        ImageServer<BufferedImage> server = imageData.getServer();
-        ImageChannelTools channel = new ImageChannelTools(channelName, imageData);
-        double downsample = server.getDownsampleForResolution(Math.min(server.nResolutions() - 1, resolutionLevel));
-        RegionRequest request = RegionRequest.createInstance(server.getPath(), downsample, region.getROI());
-
-        var pathImage = IJTools.convertToImagePlus(server, request);
-        ImagePlus imp = pathImage.getImage();
-
-        int ijChannel = channel.getnChannel() + 1; // ImageJ channels are 1-based
-        imp.setC(ijChannel);
-
-        ImageProcessor ip = imp.getChannelProcessor().duplicate();
-        Roi ijRoi = IJTools.convertToIJRoi(region.getROI(), request);
-        if (ijRoi != null) {
-            ip.setRoi(ijRoi);
-        }
-        return ip.getStats().mean;
-    }
-
     private void fixMistakenlyExcludedRegion(PathObject mistakenlyExcludedRegion, boolean isSplit) {
         String regionName;
         if ((regionName = mistakenlyExcludedRegion.getName()) == null)
@@ -0,0 +1,86 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A little-endian, buffered output on a channel, used by BraiAn's binary formats.
+ *
+ * @see RegionResultsWriter#writeBinary(java.nio.file.Path)
+ * @see DetectionsWriter
+ */
+class BinaryOutput {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    /**
+     * @param channel the channel where to write
+     * @param bufferSize the number of bytes kept in memory before being written to the channel
+     */
+    BinaryOutput(FileChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void ensure(int nBytes) throws IOException {
+        if (this.buffer.remaining() < nBytes)
+            this.flush();
+    }
+
+    void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining())
+            this.channel.write(this.buffer);
+        this.buffer.clear();
+    }
+
+    void putByte(byte value) throws IOException {
+        this.ensure(Byte.BYTES);
+        this.buffer.put(value);
+    }
+
+    void putInt(int value) throws IOException {
+        this.ensure(Integer.BYTES);
+        this.buffer.putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+        this.ensure(Long.BYTES);
+        this.buffer.putLong(value);
+    }
+
+    void putFloat(float value) throws IOException {
+        this.ensure(Float.BYTES);
+        this.buffer.putFloat(value);
+    }
+
+    void putDouble(double value) throws IOException {
+        this.ensure(Double.BYTES);
+        this.buffer.putDouble(value);
+    }
+
+    void putBytes(byte[] bytes) throws IOException {
+        if (bytes.length > this.buffer.capacity()) {
+            this.flush();
+            ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+            while (wrapped.hasRemaining())
+                this.channel.write(wrapped);
+            return;
+        }
+        this.ensure(bytes.length);
+        this.buffer.put(bytes);
+    }
+
+    void putString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        this.putInt(bytes.length);
+        this.putBytes(bytes);
+    }
+}
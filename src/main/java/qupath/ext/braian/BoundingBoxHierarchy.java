@@ -8,180 +8,426 @@ import org.locationtech.jts.geom.Geometry;
 import qupath.lib.objects.PathObject;
 import qupath.lib.roi.interfaces.ROI;
 
-import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.util.*;
-import java.util.List;
-import java.util.function.Predicate;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.stream.Stream;
 
-interface BoundingBox {
-    Rectangle2D getBox();
-    int getDepth();
-    Stream<PathObject> toStream();
-    Optional<PathObject> getOverlappingObjectIfPresent(PathObject object);
-    boolean contains(PathObject object);
-}
+/**
+ * The class <code>BoundingBoxHierarchy</code> is data structure that helps in searching for specific
+ * {@link PathObject} based on their shape and in logarithmic time to the total number
+ * of object stored. The cost is paid at construction time, but it should be worth it if the look-up
+ * operation is performed at least two times.
+ * <p>
+ * <code>BoundingBoxHierarchy</code> was build targeting images with lots (1000+) of
+ * {@link qupath.lib.objects.PathDetectionObject}, but works with all {@link PathObject}.
+ * <p>
+ * Internally, it is an <a href="https://en.wikipedia.org/wiki/R-tree">R-tree</a> bulk-loaded with the
+ * Sort-Tile-Recursive (STR) algorithm. Both the objects' and the nodes' bounding boxes are stored in flat
+ * <code>double</code> arrays, and each node references its children with integer offsets. This keeps the
+ * construction in <code>O(n log n)</code> and avoids allocating one object per node.
+ * <p>
+ * For more information check <a href="https://en.wikipedia.org/wiki/Bounding_volume_hierarchy">Bounding volume hierarchy</a>.
+ */
+public class BoundingBoxHierarchy {
+    /**
+     * Maximum number of children of each internal node.
+     * It matches the branching factor of a quadtree, so that a regular grid of <code>4^d</code> objects
+     * results in a hierarchy of depth <code>d</code>.
+     */
+    private static final int NODE_CAPACITY = 4;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    /**
+     * Default number of elements below which the construction does not fork any more tasks.
+     * @see #BoundingBoxHierarchy(Collection, int, int)
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 15;
 
-class BVHNode implements BoundingBox {
-    private final PathObject po;
-    private final double centroidX;
-    private final double centroidY;
-    private final Rectangle2D.Double bbox;
+    // the objects stored in depth-first order, in the same order of their boxes and centroids
+    private final PathObject[] objects;
+    // position of each object in the collection given at construction
+    private final int[] sourceIndices;
+    // minX, minY, maxX, maxY of each object
+    private final double[] boxes;
+    // centroidX, centroidY of each object
+    private final double[] centroids;
+    // minX, minY, maxX, maxY of each node
+    private final double[] nodeBoxes;
+    // nodes in [0, nLeaves) are leaves, and their children are indices of objects.
+    // The other nodes' children are indices of other nodes. The root is always the last node.
+    private final int[] childrenStart;
+    private final int[] childrenEnd;
+    // parent of each node, so that the hierarchy can be visited without a stack. The root has no parent (-1)
+    private final int[] parents;
+    private final int nLeaves;
+    private final int depth;
 
     /**
-     * Wraps a {@link PathObject} into a leaf node.
-     *
-     * @param po the object to wrap
+     * Builds a <a href="https://en.wikipedia.org/wiki/Bounding_volume_hierarchy">BVH</a> of maximum 6 levels
+     * of hierarchy.
+     * @param objects the given objects to insert into the hierarchy
      */
-    public BVHNode(PathObject po) {
-        this.po = po;
-        ROI roi = po.getROI();
-        centroidX = roi.getCentroidX();
-        centroidY = roi.getCentroidY();
-        this.bbox = new Rectangle2D.Double(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight());
+    public BoundingBoxHierarchy(Collection<? extends PathObject> objects) {
+        this(objects, 6);
     }
 
     /**
-     * @return a stream containing only the wrapped {@link PathObject}
+     * Builds a <a href="https://en.wikipedia.org/wiki/Bounding_volume_hierarchy">BVH</a> by bulk-loading
+     * the given objects with the Sort-Tile-Recursive algorithm.
+     * @param objects the given objects to insert into the hierarchy
+     * @param maxDepth the maximum depth that that hierarchy can have.
+     *                 If the objects would not fit in a hierarchy of maxDepth levels, the lowest level
+     *                 stops splitting and lists all the remaining objects
+     * @see #BoundingBoxHierarchy(Collection, int, int)
      */
-    @Override
-    public Stream<PathObject> toStream() {
-        return Stream.of(this.po);
+    public BoundingBoxHierarchy(Collection<? extends PathObject> objects, int maxDepth) {
+        this(objects, maxDepth, DEFAULT_PARALLEL_THRESHOLD);
     }
 
     /**
-     * Checks whether the centroid of this node is inside the specified object.
-     *
-     * @param object the object to test
-     * @return an {@link Optional} containing the wrapped object if overlapping
+     * Builds a <a href="https://en.wikipedia.org/wiki/Bounding_volume_hierarchy">BVH</a> by bulk-loading
+     * the given objects with the Sort-Tile-Recursive algorithm.
+     * <p>
+     * The sorting of the tiles with more than <code>parallelThreshold</code> elements is split into
+     * independent tasks, run on the {@link java.util.concurrent.ForkJoinPool#commonPool() common pool}.
+     * The resulting hierarchy is identical to the one built on a single thread.
+     * @param objects the given objects to insert into the hierarchy
+     * @param maxDepth the maximum depth that that hierarchy can have.
+     *                 If the objects would not fit in a hierarchy of maxDepth levels, the lowest level
+     *                 stops splitting and lists all the remaining objects
+     * @param parallelThreshold the minimum number of elements for which the construction forks a new task.
+     *                          Use {@link Integer#MAX_VALUE} to build the hierarchy on the calling thread only
      */
-    @Override
-    public Optional<PathObject> getOverlappingObjectIfPresent(PathObject object) {
-        // if ROI.contains() results in being buggy, in the future we could rely on:
-        // ROI.getGeometry().covers(c) || ROI.getGeometry().intersects(c)
-        ROI roiObject = object.getROI();
-        double x = roiObject.getBoundsX();
-        double y = roiObject.getBoundsY();
-        if (roiObject.isPoint() || roiObject.isEmpty())
-            if (x == centroidX && y == centroidY)
-                return Optional.of(this.po);
-            else
-                return Optional.empty();
-        double w = roiObject.getBoundsWidth();
-        double h = roiObject.getBoundsHeight();
-        if(!this.bbox.intersects(x, y, w, h) && !this.bbox.isEmpty())
-            return Optional.empty();
-        if(roiObject.contains(centroidX, centroidY))
-            return Optional.of(this.po);
+    public BoundingBoxHierarchy(Collection<? extends PathObject> objects, int maxDepth, int parallelThreshold) {
+        if (maxDepth < 1)
+            throw new IllegalArgumentException("maxDepth must be >1. Instead got maxDepth="+maxDepth);
+        if (parallelThreshold < 1)
+            throw new IllegalArgumentException("parallelThreshold must be >0. Instead got parallelThreshold="+parallelThreshold);
+        int n = objects.size();
+        this.objects = new PathObject[n];
+        this.sourceIndices = new int[n];
+        this.boxes = new double[4*n];
+        this.centroids = new double[2*n];
+        if (n == 0) {
+            this.nodeBoxes = new double[0];
+            this.childrenStart = new int[0];
+            this.childrenEnd = new int[0];
+            this.parents = new int[0];
+            this.nLeaves = 0;
+            this.depth = -1;
+            return;
+        }
+        // read each ROI only once, in the given order
+        PathObject[] inputObjects = new PathObject[n];
+        double[] inputBoxes = new double[4*n];
+        double[] centroidsX = new double[n];
+        double[] centroidsY = new double[n];
+        int i = 0;
+        for (PathObject object: objects) {
+            ROI roi = object.getROI();
+            if (roi.isPoint() && roi.getNumPoints() > 1)
+                throw new IllegalArgumentException("BoundingBoxHierarchy cannot handle PointsROI objects with multiple points");
+            inputObjects[i] = object;
+            inputBoxes[4*i] = roi.getBoundsX();
+            inputBoxes[4*i+1] = roi.getBoundsY();
+            inputBoxes[4*i+2] = roi.getBoundsX() + roi.getBoundsWidth();
+            inputBoxes[4*i+3] = roi.getBoundsY() + roi.getBoundsHeight();
+            centroidsX[i] = roi.getCentroidX();
+            centroidsY[i] = roi.getCentroidY();
+            i++;
+        }
+
+        // leaves are filled with more objects only if the hierarchy would otherwise be deeper than maxDepth
+        int leafCapacity = (int) Math.max(NODE_CAPACITY, ceilDiv(n, pow(NODE_CAPACITY, maxDepth-1)));
+        int[] order = sortTileRecursive(centroidsX, centroidsY, n, leafCapacity, parallelThreshold);
+
+        // count the nodes of each level, so that all nodes can be stored in the same arrays
+        this.nLeaves = (int) ceilDiv(n, leafCapacity);
+        int nNodes = this.nLeaves;
+        int nLevels = 1;
+        for (int levelSize = this.nLeaves; levelSize > 1; nLevels++) {
+            levelSize = (int) ceilDiv(levelSize, NODE_CAPACITY);
+            nNodes += levelSize;
+        }
+        this.depth = nLevels;
+        this.nodeBoxes = new double[4*nNodes];
+        this.childrenStart = new int[nNodes];
+        this.childrenEnd = new int[nNodes];
+
+        // bottom-up construction: each level is built from tiles of the (sorted) level below
+        double[] levelBoxes = new double[4*this.nLeaves];
+        int[] levelStart = new int[this.nLeaves];
+        int[] levelEnd = new int[this.nLeaves];
+        for (int leaf = 0; leaf < this.nLeaves; leaf++) {
+            levelStart[leaf] = leaf*leafCapacity;
+            levelEnd[leaf] = Math.min(n, (leaf+1)*leafCapacity);
+            unionOfBoxes(inputBoxes, order, levelStart[leaf], levelEnd[leaf], levelBoxes, leaf);
+        }
+        int levelOffset = 0;
+        int levelSize = this.nLeaves;
+        while (true) {
+            int[] levelOrder = levelSize == 1 ? new int[]{0} : sortTileRecursive(boxCenters(levelBoxes, levelSize, 0), boxCenters(levelBoxes, levelSize, 1), levelSize, NODE_CAPACITY, parallelThreshold);
+            for (int j = 0; j < levelSize; j++) {
+                int node = levelOffset+j;
+                System.arraycopy(levelBoxes, 4*levelOrder[j], this.nodeBoxes, 4*node, 4);
+                this.childrenStart[node] = levelStart[levelOrder[j]];
+                this.childrenEnd[node] = levelEnd[levelOrder[j]];
+            }
+            if (levelSize == 1)
+                break;
+            int parentsSize = (int) ceilDiv(levelSize, NODE_CAPACITY);
+            levelBoxes = new double[4*parentsSize];
+            levelStart = new int[parentsSize];
+            levelEnd = new int[parentsSize];
+            for (int parent = 0; parent < parentsSize; parent++) {
+                levelStart[parent] = levelOffset + parent*NODE_CAPACITY;
+                levelEnd[parent] = levelOffset + Math.min(levelSize, (parent+1)*NODE_CAPACITY);
+                unionOfBoxes(this.nodeBoxes, null, levelStart[parent], levelEnd[parent], levelBoxes, parent);
+            }
+            levelOffset += levelSize;
+            levelSize = parentsSize;
+        }
+        this.parents = new int[nNodes];
+        this.parents[nNodes-1] = -1;
+        for (int node = this.nLeaves; node < nNodes; node++)
+            for (int child = this.childrenStart[node]; child < this.childrenEnd[node]; child++)
+                this.parents[child] = node;
+
+        // store the objects in depth-first order, so that any visit of the hierarchy
+        // meets the objects with increasing indices
+        int next = 0;
+        for (int node = this.getRoot(); node >= 0; ) {
+            if (!this.isLeaf(node)) {
+                node = this.childrenStart[node];
+                continue;
+            }
+            int start = next;
+            for (int j = this.childrenStart[node]; j < this.childrenEnd[node]; j++, next++) {
+                int o = order[j];
+                this.objects[next] = inputObjects[o];
+                this.sourceIndices[next] = o;
+                System.arraycopy(inputBoxes, 4*o, this.boxes, 4*next, 4);
+                this.centroids[2*next] = centroidsX[o];
+                this.centroids[2*next+1] = centroidsY[o];
+            }
+            this.childrenStart[node] = start;
+            this.childrenEnd[node] = next;
+            node = this.nextNode(node);
+        }
+    }
+
+    private static long pow(int base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent && result < Integer.MAX_VALUE; i++)
+            result *= base;
+        return result;
+    }
 
-        return Optional.empty();
+    private static long ceilDiv(long x, long y) {
+        return (x + y - 1) / y;
     }
 
     /**
-     * @param other the object to check
-     * @return true if {@code other} is the wrapped object
+     * Computes the union of <code>boxes[from, to)</code> or, if <code>indices</code> is not null,
+     * of the boxes referenced by <code>indices[from, to)</code>
      */
-    @Override
-    public boolean contains(PathObject other) {
-        return this.po == other;
+    private static void unionOfBoxes(double[] boxes, int[] indices, int from, int to, double[] dest, int destIndex) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int j = from; j < to; j++) {
+            int i = indices == null ? j : indices[j];
+            minX = Math.min(minX, boxes[4*i]);
+            minY = Math.min(minY, boxes[4*i+1]);
+            maxX = Math.max(maxX, boxes[4*i+2]);
+            maxY = Math.max(maxY, boxes[4*i+3]);
+        }
+        dest[4*destIndex] = minX;
+        dest[4*destIndex+1] = minY;
+        dest[4*destIndex+2] = maxX;
+        dest[4*destIndex+3] = maxY;
+    }
+
+    private static double[] boxCenters(double[] boxes, int n, int axis) {
+        double[] centers = new double[n];
+        for (int i = 0; i < n; i++)
+            centers[i] = (boxes[4*i+axis] + boxes[4*i+2+axis]) / 2;
+        return centers;
     }
 
     /**
-     * @return the bounding box of the wrapped object
+     * Computes the Sort-Tile-Recursive order of n points, so that each consecutive run of
+     * <code>capacity</code> points forms a compact tile.
+     * @return the permutation of the indices of the points
      */
-    @Override
-    public Rectangle2D getBox() {
-        return this.bbox;
+    private static int[] sortTileRecursive(double[] xs, double[] ys, int n, int capacity, int parallelThreshold) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        long nTiles = ceilDiv(n, capacity);
+        long nSlices = (long) Math.ceil(Math.sqrt(nTiles));
+        long sliceSize = nSlices * capacity;
+        new SortTask(order, 0, n, xs, parallelThreshold).invoke();
+        // each vertical slice holds exactly sliceSize points (apart from the last one),
+        // so that no tile spans across two slices
+        List<SortTask> slices = new ArrayList<>();
+        for (long from = 0; from < n; from += sliceSize)
+            slices.add(new SortTask(order, (int) from, (int) Math.min(n, from + sliceSize), ys, parallelThreshold));
+        if (n < parallelThreshold)
+            slices.forEach(SortTask::compute);
+        else
+            ForkJoinTask.invokeAll(slices);
+        return order;
     }
 
     /**
-     * @return the depth of this node (always 0 for leaves)
+     * Sorts the indices in <code>a[from, to)</code> by their key. Both partitions of ranges
+     * bigger than the threshold are sorted in parallel.
+     * Since the partitioning does not depend on the order in which the tasks are run,
+     * the result is the same as {@link #sort(int[], int, int, double[])}.
      */
-    @Override
-    public int getDepth() {
-        return 0;
+    private static class SortTask extends RecursiveAction {
+        private final int[] a;
+        private final int from;
+        private final int to;
+        private final double[] keys;
+        private final int threshold;
+
+        SortTask(int[] a, int from, int to, double[] keys, int threshold) {
+            this.a = a;
+            this.from = from;
+            this.to = to;
+            this.keys = keys;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from < this.threshold || this.to - this.from <= INSERTION_SORT_THRESHOLD) {
+                sort(this.a, this.from, this.to, this.keys);
+                return;
+            }
+            long partition = partition(this.a, this.from, this.to, this.keys);
+            int lt = (int) (partition >>> 32);
+            int gt = (int) partition;
+            invokeAll(new SortTask(this.a, this.from, lt, this.keys, this.threshold),
+                    new SortTask(this.a, gt + 1, this.to, this.keys, this.threshold));
+        }
     }
-}
 
-/**
- * The class <code>BoundingBoxHierarchy</code> is data structure that helps in searching for specific
- * {@link PathObject} based on their shape and in logarithmic time to the total number
- * of object stored. The cost is paid at construction time, but it should be worth it if the look-up
- * operation is performed at least two times.
- * <p>
- * <code>BoundingBoxHierarchy</code> was build targeting images with lots (1000+) of
- * {@link qupath.lib.objects.PathDetectionObject}, but works with all {@link PathObject}.
- * <p>
- * For more information check <a href="https://en.wikipedia.org/wiki/Bounding_volume_hierarchy">Bounding volume hierarchy</a>.
- */
-public class BoundingBoxHierarchy implements BoundingBox {
-    private final Rectangle2D.Double bbox;
-    private final Collection<BoundingBox> children;
+    /**
+     * Sorts the indices in <code>a[from, to)</code> by their key, with a three-way quicksort
+     * that is robust to the many equal keys found in grid-like data.
+     */
+    private static void sort(int[] a, int from, int to, double[] keys) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            long partition = partition(a, from, to, keys);
+            int lt = (int) (partition >>> 32);
+            int gt = (int) partition;
+            // recurse on the smaller partition to bound the stack depth
+            if (lt - from < to - gt - 1) {
+                sort(a, from, lt, keys);
+                from = gt + 1;
+            } else {
+                sort(a, gt + 1, to, keys);
+                to = lt;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            int tmp = a[i];
+            double k = keys[tmp];
+            int j = i - 1;
+            while (j >= from && keys[a[j]] > k) {
+                a[j+1] = a[j];
+                j--;
+            }
+            a[j+1] = tmp;
+        }
+    }
 
     /**
-     * Builds a top-down <a href="https://en.wikipedia.org/wiki/Bounding_volume_hierarchy">BVH</a> of maximum 6 levels
-     * of hierarchy.
-     * @param objects the given objects to insert into the hierarchy
+     * Three-way partitions <code>a[from, to)</code> around the median of three keys.
+     * @return the bounds <code>lt</code> and <code>gt</code> of the elements equal to the pivot,
+     * packed in the higher and lower 32 bits
      */
-    public BoundingBoxHierarchy(Collection<? extends PathObject> objects) {
-        this(objects, 6);
+    private static long partition(int[] a, int from, int to, double[] keys) {
+        int mid = (from + to) >>> 1;
+        double pivot = median(keys[a[from]], keys[a[mid]], keys[a[to-1]]);
+        int lt = from, i = from, gt = to - 1;
+        while (i <= gt) {
+            double k = keys[a[i]];
+            if (k < pivot)
+                swap(a, lt++, i++);
+            else if (k > pivot)
+                swap(a, i, gt--);
+            else
+                i++;
+        }
+        return ((long) lt << 32) | (gt & 0xFFFFFFFFL);
+    }
+
+    private static double median(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+    }
+
+    private int getRoot() {
+        return this.childrenStart.length - 1;
+    }
+
+    private boolean isLeaf(int node) {
+        return node < this.nLeaves;
     }
 
     /**
-     * Builds a top-down <a href="https://en.wikipedia.org/wiki/Bounding_volume_hierarchy">BVH</a>
-     * @param objects the given objects to insert into the hierarchy
-     * @param maxDepth the maximum depth that that hierarchy can have.
-     *                 Below maxDepth, the recursive structure stops and lists all the remaining objects
+     * Moves to the next node to visit in a depth-first traversal, skipping the descendants of <code>node</code>.
+     * @return the next node to visit, or -1 if the traversal is over
      */
-    public BoundingBoxHierarchy(Collection<? extends PathObject> objects, int maxDepth) {
-        // top-down construction
-        if (maxDepth < 1)
-            throw new IllegalArgumentException("maxDepth must be >1. Instead got maxDepth="+maxDepth);
-        if (objects.isEmpty()) {
-            this.bbox = new Rectangle2D.Double();
-            this.children = Arrays.asList();
-            return;
+    private int nextNode(int node) {
+        int root = this.getRoot();
+        while (node != root) {
+            int parent = this.parents[node];
+            if (node+1 < this.childrenEnd[parent])
+                return node+1;
+            node = parent;
         }
-        if (objects.stream().anyMatch(o -> {ROI roi = o.getROI(); return roi.isPoint() && roi.getNumPoints() > 1;}))
-            throw new IllegalArgumentException("BoundingBoxHierarchy cannot handle PointsROI objects with multiple points");
-        double minX = objects.stream().map(object -> object.getROI().getBoundsX()).min(Double::compare).get();
-        double minY = objects.stream().map(object -> object.getROI().getBoundsY()).min(Double::compare).get();
-        double maxX = objects.stream().map(object -> object.getROI().getBoundsX() + object.getROI().getBoundsWidth()).max(Double::compare).get();
-        double maxY = objects.stream().map(object -> object.getROI().getBoundsY() + object.getROI().getBoundsHeight()).max(Double::compare).get();
-        this.bbox = new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
-        if (maxDepth == 1 || this.bbox.isEmpty())
-            this.children = objects.stream().map(object -> (BoundingBox) new BVHNode(object)).toList();
-        else
-            this.children = splitSpace() // split space in equally sized squares
-                    .map(subArea -> findObjectsInside(objects, subArea)) // uses java.awt.Shape definition of insideness.
-                    // This ensures that an object in objects is not inside multiple areas
-                    .filter(Predicate.not(Collection::isEmpty))
-                    .map(insideSubArea -> createChildBoundingBox(insideSubArea, maxDepth))
-                    .toList();
+        return -1;
     }
 
-    private Stream<Rectangle2D> splitSpace() {
-        // divides the space in 4 squares
-        double length = Math.max(this.bbox.getWidth(), this.bbox.getHeight()) / 2;
-        double minX = this.bbox.getX();
-        double minY = this.bbox.getY();
-        double[][] asd = {{minX, minY}, {minX + length, minY}, {minX, minY + length}, {minX + length, minY + length}};
-        return Arrays.stream(asd).map(pos -> new Rectangle2D.Double(pos[0], pos[1], length, length));
+    /**
+     * @return the number of objects stored in the hierarchy
+     */
+    public int size() {
+        return this.objects.length;
     }
 
-    private List<? extends PathObject> findObjectsInside(Collection<? extends PathObject> objects, Shape area) {
-        return objects.stream()
-                .filter(o -> area.contains(o.getROI().getCentroidX(), o.getROI().getCentroidY()))
-                .toList();
+    /**
+     * @param index the index of an object in the hierarchy, as returned by {@link #getOverlappingIndex(ROI)}
+     * @return the object at the given index
+     */
+    public PathObject getObject(int index) {
+        return this.objects[index];
     }
 
-    private BoundingBox createChildBoundingBox(List<? extends PathObject> objectsInside, int nLevels) {
-        assert !objectsInside.isEmpty();
-        if (objectsInside.size() == 1)
-            return new BVHNode(objectsInside.get(0));
-        else
-            return new BoundingBoxHierarchy(objectsInside, nLevels - 1);
+    /**
+     * @param index the index of an object in the hierarchy
+     * @return the X coordinate of the object's centroid
+     */
+    public double getCentroidX(int index) {
+        return this.centroids[2*index];
+    }
+
+    /**
+     * @param index the index of an object in the hierarchy
+     * @return the Y coordinate of the object's centroid
+     */
+    public double getCentroidY(int index) {
+        return this.centroids[2*index+1];
     }
 
     /**
@@ -208,20 +454,28 @@ public class BoundingBoxHierarchy implements BoundingBox {
      * @param object the object to search
      * @return true if {@code object} is present in the hierarchy
      */
-    @Override
     public boolean contains(PathObject object) {
         if(this.isEmpty()) // if the BBH is empty
             return false;
         ROI objectRoi = object.getROI();
-        if (!objectRoi.isPoint() && !objectRoi.isEmpty()) {
-            double poX = objectRoi.getBoundsX();
-            double poY = objectRoi.getBoundsY();
-            double poW = objectRoi.getBoundsWidth();
-            double poH = objectRoi.getBoundsHeight();
-            if (!this.bbox.intersects(poX, poY, poW, poH) && !this.bbox.isEmpty())
-                return false;
+        double minX = objectRoi.getBoundsX();
+        double minY = objectRoi.getBoundsY();
+        double maxX = minX + objectRoi.getBoundsWidth();
+        double maxY = minY + objectRoi.getBoundsHeight();
+        int node = this.getRoot();
+        while (node >= 0) {
+            if (!intersects(this.nodeBoxes, node, minX, minY, maxX, maxY)) {
+                node = this.nextNode(node);
+            } else if (this.isLeaf(node)) {
+                for (int i = this.childrenStart[node]; i < this.childrenEnd[node]; i++)
+                    if (this.objects[i] == object)
+                        return true;
+                node = this.nextNode(node);
+            } else {
+                node = this.childrenStart[node];
+            }
         }
-        return this.children.stream().anyMatch(bvh -> bvh.contains(object));
+        return false;
     }
 
     /**
@@ -238,80 +492,354 @@ public class BoundingBoxHierarchy implements BoundingBox {
      * @see qupath.lib.roi.interfaces.ROI#getCentroidX() ROI.getCentroidX()
      * @see qupath.lib.roi.interfaces.ROI#getCentroidY() ROI.getCentroidY()
      * @see BoundingBoxHierarchy#getOverlappingObject(PathObject)
+     * @see BoundingBoxHierarchy#getOverlappingIndex(ROI)
      */
-    @Override
     public Optional<PathObject> getOverlappingObjectIfPresent(PathObject object) {
+        int overlap = this.getOverlappingIndex(object.getROI());
+        return overlap < 0 ? Optional.empty() : Optional.of(this.objects[overlap]);
+    }
+
+    /**
+     * Same as {@link #getOverlappingObjectIfPresent(PathObject)}, but it returns the index of the object in the
+     * hierarchy instead of wrapping it into an {@link Optional}.
+     * @param roi the shape to search the overlap for
+     * @return the index of the closest object in the hierarchy, or -1 if there is no overlap
+     * @see #getObject(int)
+     */
+    public int getOverlappingIndex(ROI roi) {
         if(this.isEmpty()) // if the BBH is empty
-            return Optional.empty();
-        ROI objectRoi = object.getROI();
-        if (!objectRoi.isPoint() && !objectRoi.isEmpty()) {
-            double poX = objectRoi.getBoundsX();
-            double poY = objectRoi.getBoundsY();
-            double poW = objectRoi.getBoundsWidth();
-            double poH = objectRoi.getBoundsHeight();
-            if (!this.bbox.intersects(poX, poY, poW, poH) && !this.bbox.isEmpty())
-                return Optional.empty();
+            return -1;
+        double x = roi.getBoundsX();
+        double y = roi.getBoundsY();
+        return this.getOverlappingIndex(roi.getCentroidX(), roi.getCentroidY(),
+                x, y, roi.getBoundsWidth(), roi.getBoundsHeight(),
+                roi.isPoint() || roi.isEmpty() ? null : roi);
+    }
+
+    /**
+     * Searches, without allocating, the object whose centroid is inside the given shape and is the closest to
+     * <code>(x, y)</code>. It is meant for the callers that query the hierarchy many times, and that can
+     * compute the shape's centroid and bounds once.
+     * <p>
+     * If <code>roi</code> is null, the shape is considered to be a point in <code>(boundsX, boundsY)</code>: it
+     * overlaps only with the objects whose centroid is exactly in that point.
+     * @param x the X coordinate of the shape's centroid
+     * @param y the Y coordinate of the shape's centroid
+     * @param boundsX the X coordinate of the shape's bounding box
+     * @param boundsY the Y coordinate of the shape's bounding box
+     * @param boundsWidth the width of the shape's bounding box
+     * @param boundsHeight the height of the shape's bounding box
+     * @param roi the shape used to test whether a centroid is inside it. May be null
+     * @return the index of the closest object in the hierarchy, or -1 if there is no overlap
+     * @see #getOverlappingIndex(ROI)
+     * @see #getObject(int)
+     */
+    public int getOverlappingIndex(double x, double y,
+                                   double boundsX, double boundsY, double boundsWidth, double boundsHeight,
+                                   ROI roi) {
+        if(this.isEmpty()) // if the BBH is empty
+            return -1;
+        double maxX = boundsX + boundsWidth;
+        double maxY = boundsY + boundsHeight;
+        int closest = -1;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        int node = this.getRoot();
+        while (node >= 0) {
+            if (!intersects(this.nodeBoxes, node, boundsX, boundsY, maxX, maxY)) {
+                node = this.nextNode(node);
+                continue;
+            }
+            if (!this.isLeaf(node)) {
+                node = this.childrenStart[node];
+                continue;
+            }
+            for (int i = this.childrenStart[node]; i < this.childrenEnd[node]; i++) {
+                double cx = this.centroids[2*i];
+                double cy = this.centroids[2*i+1];
+                boolean overlaps;
+                if (roi == null)
+                    // a point or an empty ROI can't contain anything: it overlaps if it shares the position
+                    overlaps = cx == boundsX && cy == boundsY;
+                else
+                    // if ROI.contains() results in being buggy, in the future we could rely on:
+                    // ROI.getGeometry().covers(c) || ROI.getGeometry().intersects(c)
+                    overlaps = cx >= boundsX && cx <= maxX && cy >= boundsY && cy <= maxY && roi.contains(cx, cy);
+                if (!overlaps)
+                    continue;
+                double distance = squaredDistance(x, y, cx, cy);
+                if (distance < closestDistance) {
+                    closest = i;
+                    closestDistance = distance;
+                }
+            }
+            node = this.nextNode(node);
         }
-        List<PathObject> overlaps = this.children.stream()
-                .map(bvh -> bvh.getOverlappingObjectIfPresent(object))
-                .flatMap(Optional::stream)
-                .toList();
-        if (overlaps.size() < 2)
-            return overlaps.stream().findFirst();
-        // there are more than one object overlapping
-        return Optional.of(getClosestOverlap(overlaps, object));
+        return closest;
     }
 
     /**
-     * @return true if there are no {@link PathObject} inside
+     * Bulk version of {@link #getOverlappingIndex(ROI)}.
+     * The queries are indexed into their own {@link BoundingBoxHierarchy}, which is then walked together
+     * with the current one (i.e. a <i>dual-tree</i> join). This way, spatially close queries share the
+     * visit of the same nodes, instead of descending the hierarchy from the root one at a time.
+     * @param queries the objects to search the overlaps for
+     * @return for each query, in the iteration order of <code>queries</code>, the index of the closest
+     * overlapping object in the hierarchy, or -1 if there is no overlap
+     * @see #getOverlappingIndices(BoundingBoxHierarchy)
      */
-    public boolean isEmpty() {
-        // if the bbox is empty, it could still mean that there is one object with PointsROI or something similar
-        return this.children.isEmpty();
+    public int[] getOverlappingIndices(Collection<? extends PathObject> queries) {
+        BoundingBoxHierarchy queriesHierarchy = new BoundingBoxHierarchy(queries, Integer.MAX_VALUE);
+        int[] overlaps = this.getOverlappingIndices(queriesHierarchy);
+        int[] sorted = new int[overlaps.length];
+        for (int q = 0; q < overlaps.length; q++)
+            sorted[queriesHierarchy.sourceIndices[q]] = overlaps[q];
+        return sorted;
+    }
+
+    /**
+     * Bulk version of {@link #getOverlappingIndex(ROI)}, where the queries are the objects of another hierarchy.
+     * The two hierarchies are walked together, pruning all the pairs of nodes whose boxes don't intersect.
+     * <p>
+     * For each query, the result is the same as calling {@link #getOverlappingIndex(ROI)} on its ROI.
+     * @param queries the hierarchy of the objects to search the overlaps for
+     * @return for each object of <code>queries</code>, in the order of its indices, the index of the closest
+     * overlapping object in the hierarchy, or -1 if there is no overlap
+     * @see BoundingBoxHierarchy#getObject(int)
+     */
+    public int[] getOverlappingIndices(BoundingBoxHierarchy queries) {
+        return this.getOverlappingIndices(queries, DEFAULT_PARALLEL_THRESHOLD);
     }
 
-    private PathObject getClosestOverlap(List<PathObject> overlaps, PathObject object) {
-        assert overlaps.size() >= 2;
-        List<Double> distances =  overlaps.stream()
-                .map(overlap -> {
-                    double x1 = object.getROI().getCentroidX();
-                    double y1 = object.getROI().getCentroidY();
-                    double x2 = overlap.getROI().getCentroidX();
-                    double y2 = overlap.getROI().getCentroidY();
-                    return Math.hypot(x1-x2, y1-y2);
-                })
-                .toList();
-        int argMin = distances.indexOf(distances.stream().min(Double::compare).get()); // can't fail on get() as the stream is at least 2-elements long
-        return overlaps.get(argMin);
+    /**
+     * Bulk version of {@link #getOverlappingIndex(ROI)}, where the queries are the objects of another hierarchy.
+     * The two hierarchies are walked together, pruning all the pairs of nodes whose boxes don't intersect.
+     * <p>
+     * The subtrees of <code>queries</code> with more than <code>parallelThreshold</code> objects are joined
+     * in parallel on the {@link java.util.concurrent.ForkJoinPool#commonPool() common pool}. Each query is
+     * resolved by a single task, and the result does not depend on the order in which the tasks are run.
+     * @param queries the hierarchy of the objects to search the overlaps for
+     * @param parallelThreshold the minimum number of queries for which the join forks a new task.
+     *                          Use {@link Integer#MAX_VALUE} to join the hierarchies on the calling thread only
+     * @return for each object of <code>queries</code>, in the order of its indices, the index of the closest
+     * overlapping object in the hierarchy, or -1 if there is no overlap
+     * @see BoundingBoxHierarchy#getObject(int)
+     */
+    public int[] getOverlappingIndices(BoundingBoxHierarchy queries, int parallelThreshold) {
+        if (parallelThreshold < 1)
+            throw new IllegalArgumentException("parallelThreshold must be >0. Instead got parallelThreshold="+parallelThreshold);
+        int nQueries = queries.size();
+        int[] overlaps = new int[nQueries];
+        Arrays.fill(overlaps, -1);
+        if (this.isEmpty() || nQueries == 0)
+            return overlaps;
+        // null stands for a point query
+        ROI[] rois = new ROI[nQueries];
+        for (int q = 0; q < nQueries; q++) {
+            ROI roi = queries.objects[q].getROI();
+            rois[q] = roi.isPoint() || roi.isEmpty() ? null : roi;
+        }
+        double[] distances = new double[nQueries];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        new JoinTask(queries, queries.getRoot(), rois, overlaps, distances, parallelThreshold).invoke();
+        return overlaps;
+    }
+
+    /**
+     * Joins a subtree of the queries with the whole hierarchy, forking a task for each of its children
+     * if the subtree holds more than <code>threshold</code> queries.
+     */
+    private class JoinTask extends RecursiveAction {
+        private final BoundingBoxHierarchy queries;
+        private final int queryNode;
+        private final ROI[] rois;
+        private final int[] closest;
+        private final double[] closestDistances;
+        private final int threshold;
+
+        JoinTask(BoundingBoxHierarchy queries, int queryNode, ROI[] rois,
+                 int[] closest, double[] closestDistances, int threshold) {
+            this.queries = queries;
+            this.queryNode = queryNode;
+            this.rois = rois;
+            this.closest = closest;
+            this.closestDistances = closestDistances;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.queries.isLeaf(this.queryNode) || this.queries.countObjects(this.queryNode) < this.threshold) {
+                BoundingBoxHierarchy.this.join(getRoot(), this.queries, this.queryNode, this.rois, this.closest, this.closestDistances);
+                return;
+            }
+            List<JoinTask> children = new ArrayList<>();
+            for (int child = this.queries.childrenStart[this.queryNode]; child < this.queries.childrenEnd[this.queryNode]; child++)
+                children.add(new JoinTask(this.queries, child, this.rois, this.closest, this.closestDistances, this.threshold));
+            invokeAll(children);
+        }
+    }
+
+    /**
+     * @return the number of objects in the subtree of <code>node</code>
+     */
+    private int countObjects(int node) {
+        // objects are in depth-first order: the ones of a subtree are contiguous
+        int first = node;
+        while (!this.isLeaf(first))
+            first = this.childrenStart[first];
+        int last = node;
+        while (!this.isLeaf(last))
+            last = this.childrenEnd[last]-1;
+        return this.childrenEnd[last] - this.childrenStart[first];
+    }
+
+    /**
+     * Retrieves all the objects in the hierarchy whose centroid is inside the given shape.
+     * It follows the same definition of <i>insideness</i> of {@link #getOverlappingIndex(ROI)}.
+     * @param roi the shape to search the objects in
+     * @return the indices of the objects whose centroid is inside <code>roi</code>, in increasing order
+     * @see #getObject(int)
+     */
+    public int[] getIndicesInside(ROI roi) {
+        if (this.isEmpty())
+            return new int[0];
+        boolean isPoint = roi.isPoint() || roi.isEmpty();
+        double minX = roi.getBoundsX();
+        double minY = roi.getBoundsY();
+        double maxX = minX + roi.getBoundsWidth();
+        double maxY = minY + roi.getBoundsHeight();
+        int[] inside = new int[16];
+        int nInside = 0;
+        int node = this.getRoot();
+        while (node >= 0) {
+            if (!intersects(this.nodeBoxes, node, minX, minY, maxX, maxY)) {
+                node = this.nextNode(node);
+                continue;
+            }
+            if (!this.isLeaf(node)) {
+                node = this.childrenStart[node];
+                continue;
+            }
+            for (int i = this.childrenStart[node]; i < this.childrenEnd[node]; i++) {
+                double cx = this.centroids[2*i];
+                double cy = this.centroids[2*i+1];
+                boolean isInside;
+                if (isPoint)
+                    isInside = cx == minX && cy == minY;
+                else
+                    isInside = cx >= minX && cx <= maxX && cy >= minY && cy <= maxY && roi.contains(cx, cy);
+                if (!isInside)
+                    continue;
+                if (nInside == inside.length)
+                    inside = Arrays.copyOf(inside, 2*nInside);
+                inside[nInside++] = i;
+            }
+            node = this.nextNode(node);
+        }
+        // the visit is depth-first, so the indices are already sorted
+        return Arrays.copyOf(inside, nInside);
+    }
+
+    private void join(int node, BoundingBoxHierarchy queries, int queryNode,
+                      ROI[] rois, int[] closest, double[] closestDistances) {
+        if (!intersects(this.nodeBoxes, node,
+                queries.nodeBoxes[4*queryNode], queries.nodeBoxes[4*queryNode+1],
+                queries.nodeBoxes[4*queryNode+2], queries.nodeBoxes[4*queryNode+3]))
+            return;
+        boolean isLeaf = this.isLeaf(node);
+        boolean isQueryLeaf = queries.isLeaf(queryNode);
+        if (isLeaf && isQueryLeaf) {
+            for (int q = queries.childrenStart[queryNode]; q < queries.childrenEnd[queryNode]; q++)
+                this.joinLeaf(node, queries, q, rois[q], closest, closestDistances);
+        } else if (isLeaf || (!isQueryLeaf && area(queries.nodeBoxes, queryNode) > area(this.nodeBoxes, node))) {
+            // descend the query hierarchy
+            for (int child = queries.childrenStart[queryNode]; child < queries.childrenEnd[queryNode]; child++)
+                this.join(node, queries, child, rois, closest, closestDistances);
+        } else {
+            for (int child = this.childrenStart[node]; child < this.childrenEnd[node]; child++)
+                this.join(child, queries, queryNode, rois, closest, closestDistances);
+        }
+    }
+
+    private void joinLeaf(int leaf, BoundingBoxHierarchy queries, int q, ROI roi, int[] closest, double[] closestDistances) {
+        double minX = queries.boxes[4*q];
+        double minY = queries.boxes[4*q+1];
+        double maxX = queries.boxes[4*q+2];
+        double maxY = queries.boxes[4*q+3];
+        if (!intersects(this.nodeBoxes, leaf, minX, minY, maxX, maxY))
+            return;
+        double x = queries.centroids[2*q];
+        double y = queries.centroids[2*q+1];
+        for (int i = this.childrenStart[leaf]; i < this.childrenEnd[leaf]; i++) {
+            double cx = this.centroids[2*i];
+            double cy = this.centroids[2*i+1];
+            boolean overlaps;
+            if (roi == null)
+                overlaps = cx == minX && cy == minY;
+            else
+                overlaps = cx >= minX && cx <= maxX && cy >= minY && cy <= maxY && roi.contains(cx, cy);
+            if (!overlaps)
+                continue;
+            double distance = squaredDistance(x, y, cx, cy);
+            // objects are in depth-first order: on equal distance, the lower index is the one a single query finds first
+            if (distance < closestDistances[q] || (distance == closestDistances[q] && i < closest[q])) {
+                closest[q] = i;
+                closestDistances[q] = distance;
+            }
+        }
+    }
+
+    private static double area(double[] boxes, int i) {
+        return (boxes[4*i+2] - boxes[4*i]) * (boxes[4*i+3] - boxes[4*i+1]);
+    }
+
+    private static double squaredDistance(double x1, double y1, double x2, double y2) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        return dx*dx + dy*dy;
+    }
+
+    /**
+     * Closed-interval intersection test, so that boxes with no width or no height (e.g. points or lines)
+     * are never pruned when they touch the searched area.
+     */
+    private static boolean intersects(double[] boxes, int i, double minX, double minY, double maxX, double maxY) {
+        return boxes[4*i] <= maxX && boxes[4*i+2] >= minX && boxes[4*i+1] <= maxY && boxes[4*i+3] >= minY;
+    }
+
+    /**
+     * @return true if there are no {@link PathObject} inside
+     */
+    public boolean isEmpty() {
+        return this.objects.length == 0;
     }
 
     /**
      * Visits each element of the hierarchy and outputs all the objects contained as {@link java.util.stream.Stream}.
      * @return the stream of all saved objects
      */
-    @Override
     public Stream<PathObject> toStream() {
-        return this.children.stream().flatMap(BoundingBox::toStream);
+        return Arrays.stream(this.objects);
     }
 
     /**
      * Returns a rectangle in which all objects' ROI are inside
      * @return the bounding box of all objects
      */
-    @Override
     public Rectangle2D getBox() {
-        return this.bbox;
+        if (this.isEmpty())
+            return new Rectangle2D.Double();
+        int root = this.getRoot();
+        double minX = this.nodeBoxes[4*root];
+        double minY = this.nodeBoxes[4*root+1];
+        return new Rectangle2D.Double(minX, minY, this.nodeBoxes[4*root+2] - minX, this.nodeBoxes[4*root+3] - minY);
     }
 
     /**
      * Compute the BoundingBoxHierarchy's maximum depth
      * @return the maximum depth of the hierarchy. Returns -1 if the BoundingBoxHierarchy is empty.
      */
-    @Override
     public int getDepth() {
-        return this.children.stream()
-                .map(BoundingBox::getDepth)
-                .max(Integer::compare)
-                .orElseGet(() -> -2)+1;
+        return this.depth;
     }
 }
@@ -0,0 +1,221 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import qupath.lib.plugins.PathTask;
+import qupath.lib.plugins.TaskRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link TaskRunner} for QuPath's plugins that runs their tasks (e.g. the tiles of
+ * {@link qupath.imagej.detect.cells.WatershedCellDetection}) on a pool of threads shared by all of BraiAn.
+ * <p>
+ * Differently from {@link qupath.lib.plugins.CommandLineTaskRunner}, which starts a new pool as large as the number
+ * of processors for each plugin run, the total number of threads running tiles stays within
+ * {@link #getParallelism()}, no matter how many channels and images are detected at the same time.
+ * <p>
+ * Each instance is meant to run a single plugin, and it records how long each of its tasks took.
+ *
+ * @see #setParallelism(int)
+ * @see #getTaskDurations()
+ */
+public class BraiAnTaskRunner implements TaskRunner {
+    private static final ThreadPoolExecutor TILE_WORKERS = newTileWorkers(Runtime.getRuntime().availableProcessors());
+
+    private static ThreadPoolExecutor newTileWorkers(int nThreads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(nThreads, nThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "braian-tile-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        workers.allowCoreThreadTimeOut(true);
+        return workers;
+    }
+
+    /**
+     * @return the maximum number of tasks that all instances of {@link BraiAnTaskRunner} run at the same time
+     */
+    public static int getParallelism() {
+        return TILE_WORKERS.getMaximumPoolSize();
+    }
+
+    /**
+     * Changes the maximum number of tasks that all instances of {@link BraiAnTaskRunner} run at the same time.
+     * The tasks already running are not affected.
+     * @param nThreads the new number of threads. If 0, it uses as many threads as the available processors
+     * @throws IllegalArgumentException if {@code nThreads} is negative
+     */
+    public static synchronized void setParallelism(int nThreads) {
+        if (nThreads < 0)
+            throw new IllegalArgumentException("nThreads must be >=0. Instead got nThreads=" + nThreads);
+        if (nThreads == 0)
+            nThreads = Runtime.getRuntime().availableProcessors();
+        // the core size can never be larger than the maximum size
+        if (nThreads > TILE_WORKERS.getMaximumPoolSize()) {
+            TILE_WORKERS.setMaximumPoolSize(nThreads);
+            TILE_WORKERS.setCorePoolSize(nThreads);
+        } else {
+            TILE_WORKERS.setCorePoolSize(nThreads);
+            TILE_WORKERS.setMaximumPoolSize(nThreads);
+        }
+    }
+
+    private final List<Duration> durations = Collections.synchronizedList(new ArrayList<>());
+    private final boolean measureResources;
+    private final Object completionLock;
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates a task runner that only measures the duration of its tasks.
+     */
+    public BraiAnTaskRunner() {
+        this(false);
+    }
+
+    /**
+     * Creates a task runner.
+     * @param measureResources if true, it measures the CPU time and the memory allocated by its tasks as well
+     * @see #getTotalTaskCpuNanos()
+     * @see #getTotalTaskAllocatedBytes()
+     */
+    public BraiAnTaskRunner(boolean measureResources) {
+        this(measureResources, new Object());
+    }
+
+    /**
+     * Creates a task runner that completes the {@link PathTask}s while holding a lock, so that the changes they
+     * apply to shared objects (e.g. the hierarchy of an image) are serialised with those of other task runners
+     * using the same lock.
+     * @param measureResources if true, it measures the CPU time and the memory allocated by its tasks as well
+     * @param completionLock the object to synchronise on while completing each task
+     * @see PathTask#taskComplete(boolean)
+     */
+    public BraiAnTaskRunner(boolean measureResources, Object completionLock) {
+        this.measureResources = measureResources;
+        this.completionLock = completionLock;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Runs the tasks on BraiAn's shared threads, and waits for them to complete.
+     * Once a task is done, if it is a {@link PathTask}, its {@link PathTask#taskComplete(boolean)} is called by the
+     * calling thread, in the same order as {@code tasks} and while holding the completion lock of this runner.
+     * <p>
+     * If the calling thread is interrupted, the tasks not yet started are skipped and those already running are
+     * waited for. All of them are then completed as cancelled, and the interrupt status is restored.
+     * @param message ignored, as the progress is not shown
+     * @param tasks the tasks to run
+     */
+    @Override
+    public void runTasks(String message, Collection<? extends Runnable> tasks) {
+        List<Runnable> submitted = List.copyOf(tasks);
+        List<Future<?>> futures = new ArrayList<>(submitted.size());
+        for (Runnable task : submitted)
+            futures.add(TILE_WORKERS.submit(() -> this.runTimed(task)));
+        boolean interrupted = false;
+        for (int i = 0; i < submitted.size(); i++) {
+            boolean failed = false;
+            // the tasks are not cancelled through their future, as it would not wait for those running
+            while (true) {
+                try {
+                    futures.get(i).get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    this.cancelled = true;
+                } catch (ExecutionException e) {
+                    BraiAnExtension.logger.error("Task failed", e.getCause());
+                    failed = true;
+                    break;
+                }
+            }
+            if (submitted.get(i) instanceof PathTask task)
+                this.complete(task, failed || this.cancelled);
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void complete(PathTask task, boolean wasCancelled) {
+        try {
+            synchronized (this.completionLock) {
+                task.taskComplete(wasCancelled);
+            }
+        } catch (RuntimeException e) {
+            BraiAnExtension.logger.error("Task failed to complete", e);
+        }
+    }
+
+    private void runTimed(Runnable task) {
+        if (this.cancelled)
+            return;
+        long start = System.nanoTime();
+        long startCpu = this.measureResources ? PerformanceProfile.getThreadCpuNanos() : 0;
+        long startAllocated = this.measureResources ? PerformanceProfile.getThreadAllocatedBytes() : 0;
+        try {
+            task.run();
+        } finally {
+            this.durations.add(Duration.ofNanos(System.nanoTime() - start));
+            if (this.measureResources) {
+                this.cpuNanos.addAndGet(PerformanceProfile.getThreadCpuNanos() - startCpu);
+                this.allocatedBytes.addAndGet(PerformanceProfile.getThreadAllocatedBytes() - startAllocated);
+            }
+        }
+    }
+
+    /**
+     * @return how long each task run by this instance took, in order of completion
+     */
+    public List<Duration> getTaskDurations() {
+        synchronized (this.durations) {
+            return List.copyOf(this.durations);
+        }
+    }
+
+    /**
+     * @return the sum of the durations of all the tasks run by this instance
+     * @see #getTaskDurations()
+     */
+    public Duration getTotalTaskDuration() {
+        return this.getTaskDurations().stream().reduce(Duration.ZERO, Duration::plus);
+    }
+
+    /**
+     * @return the CPU time used by all the tasks run by this instance, in nanoseconds.
+     * 0 if it was not created to measure resources
+     */
+    public long getTotalTaskCpuNanos() {
+        return this.cpuNanos.get();
+    }
+
+    /**
+     * @return the bytes allocated by all the tasks run by this instance.
+     * 0 if it was not created to measure resources
+     */
+    public long getTotalTaskAllocatedBytes() {
+        return this.allocatedBytes.get();
+    }
+}
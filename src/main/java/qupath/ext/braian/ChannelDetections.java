@@ -5,6 +5,7 @@
 package qupath.ext.braian;
 
 import qupath.ext.braian.config.WatershedCellDetectionConfig;
+import qupath.imagej.detect.cells.WatershedCellDetection;
 import qupath.lib.io.GsonTools;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.images.ImageData;
@@ -14,14 +15,18 @@ import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjects;
 import qupath.lib.objects.classes.PathClass;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
-import qupath.lib.plugins.CommandLineTaskRunner;
 import qupath.lib.plugins.PathPlugin;
+import qupath.lib.plugins.TaskRunner;
 import qupath.lib.projects.Project;
 import qupath.lib.regions.ImagePlane;
 import qupath.lib.roi.ROIs;
 
-import java.lang.reflect.Constructor;
+import java.awt.image.BufferedImage;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * This class allows to manage detections computed with
@@ -53,7 +58,7 @@ public class ChannelDetections extends AbstractDetections {
                 .filter(a -> FULL_IMAGE_DETECTIONS_NAME.equals(a.getName())).toList();
         switch (fullImageAnnotations.size()) {
             case 0:
-                PathAnnotationObject fullImageAnnotation = createFullImageAnnotation(imageData, hierarchy, true);
+                PathAnnotationObject fullImageAnnotation = createFullImageAnnotation(imageData, hierarchy);
                 fullImageAnnotation.setName(FULL_IMAGE_DETECTIONS_NAME);
                 return fullImageAnnotation;
             case 1:
@@ -150,23 +155,9 @@ public class ChannelDetections extends AbstractDetections {
             Project<?> project,
             QuPathGUI qupath) throws NoCellContainersFoundException {
         this(channel, hierarchy, project, qupath);
-
-        if (annotations == null) {
-            PathAnnotationObject fullImage = ChannelDetections.getFullImageDetectionAnnotation(imageData, hierarchy);
-            annotations = List.of(fullImage);
-        } else if (annotations.isEmpty()) {
-            throw new IllegalArgumentException(
-                    "You must give at least one annotation on which to compute the detections");
-        }
-        Map<String, ?> params = config.build(channel);
-        // TODO: check if the given annotations overlap. If they do, throw an error as
-        // that would duplicate detections
-        List<PathAnnotationObject> containers = annotations.stream().map(annotation -> {
-            annotation.setLocked(true);
-            PathAnnotationObject container = this.createContainer(annotation, true);
-            return ChannelDetections.compute(container, params, imageData);
-        }).toList();
-
+        Map<String, ?> params = buildParameters(config, channel, hierarchy);
+        List<PathAnnotationObject> containers = this.createContainers(annotations, imageData);
+        containers.forEach(container -> ChannelDetections.compute(container, params, imageData));
         this.fireUpdate();
     }
 
@@ -200,17 +191,129 @@ public class ChannelDetections extends AbstractDetections {
                 qupath);
     }
 
+    /**
+     * Computes the detections of several channels using
+     * {@link qupath.imagej.detect.cells.WatershedCellDetection} algorithm inside
+     * the given annotations, concurrently.
+     * <p>
+     * The containers of all channels are added to the hierarchy by the calling thread,
+     * then each channel and each container is detected as a separate task of {@code executor}.
+     * The tiles of all containers are detected in parallel, while the detections and the workflow steps are added
+     * to the image one container at a time, holding the lock of {@code hierarchy}.
+     * Once all the detections of a channel are computed, the calling thread updates them under the same lock.
+     * If the detection of a channel fails, it is logged and the channel is left out of the result.
+     *
+     * @param channels    the channels to which the detections are linked to
+     * @param configs     parameters to give to the
+     *                    {@link qupath.imagej.detect.cells.WatershedCellDetection}, one for each channel
+     * @param annotations the annotations inside of which to compute the detections.
+     *                    If null, it will compute them on the whole image
+     * @param hierarchy   where to compute the detections
+     * @param executor    where to run the detection of each channel and container
+     * @return the detections of each channel that did not fail, in the same order as {@code channels}
+     * @see #getFullImageDetectionAnnotation(ImageData, PathObjectHierarchy)
+     */
+    public static List<ChannelDetections> compute(List<ImageChannelTools> channels,
+            List<WatershedCellDetectionConfig> configs,
+            Collection<PathAnnotationObject> annotations,
+            PathObjectHierarchy hierarchy,
+            ImageData<?> imageData,
+            Project<?> project,
+            QuPathGUI qupath,
+            Executor executor) {
+        if (channels.size() != configs.size())
+            throw new IllegalArgumentException("Each channel must have its configuration. Instead got "
+                    + channels.size() + " channels and " + configs.size() + " configurations");
+        if (annotations == null)
+            annotations = List.of(ChannelDetections.getFullImageDetectionAnnotation(imageData, hierarchy));
+        List<ChannelDetections> allDetections = new ArrayList<>();
+        List<CompletableFuture<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < channels.size(); i++) {
+            ImageChannelTools channel = channels.get(i);
+            WatershedCellDetectionConfig config = configs.get(i);
+            ChannelDetections detections;
+            List<PathAnnotationObject> containers;
+            try {
+                detections = new ChannelDetections(channel, hierarchy, project, qupath);
+                containers = detections.createContainers(annotations, imageData);
+            } catch (IllegalArgumentException | NoCellContainersFoundException e) {
+                BraiAnExtension.logger.warn("Skipping detections of {}: {}", channel.getName(), e.getMessage());
+                continue;
+            }
+            allDetections.add(detections);
+            tasks.add(CompletableFuture.supplyAsync(() -> buildParameters(config, channel, hierarchy), executor)
+                    .thenCompose(params -> CompletableFuture.allOf(containers.stream()
+                            .map(container -> CompletableFuture.runAsync(
+                                    () -> ChannelDetections.compute(container, params, imageData), executor))
+                            .toArray(CompletableFuture[]::new))));
+        }
+        // the other channels may still be adding their detections to the hierarchy
+        List<ChannelDetections> computed = new ArrayList<>();
+        for (int i = 0; i < allDetections.size(); i++) {
+            ChannelDetections detections = allDetections.get(i);
+            try {
+                tasks.get(i).join();
+                synchronized (hierarchy) {
+                    detections.fireUpdate();
+                }
+                computed.add(detections);
+            } catch (CompletionException e) {
+                BraiAnExtension.logger.warn("Skipping detections of {}: {}", detections.getId(),
+                        e.getCause().getMessage());
+            } catch (NoCellContainersFoundException e) {
+                BraiAnExtension.logger.warn("No detections found for {}", detections.getId());
+            }
+        }
+        return computed;
+    }
+
+    private List<PathAnnotationObject> createContainers(Collection<PathAnnotationObject> annotations,
+            ImageData<?> imageData) {
+        if (annotations == null) {
+            annotations = List.of(ChannelDetections.getFullImageDetectionAnnotation(imageData, this.getHierarchy()));
+        } else if (annotations.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "You must give at least one annotation on which to compute the detections");
+        }
+        // TODO: check if the given annotations overlap. If they do, throw an error as
+        // that would duplicate detections
+        return annotations.stream().map(annotation -> {
+            annotation.setLocked(true);
+            return this.createContainer(annotation, true);
+        }).toList();
+    }
+
+    private static Map<String, ?> buildParameters(WatershedCellDetectionConfig config,
+            ImageChannelTools channel,
+            PathObjectHierarchy hierarchy) {
+        try (var ignored = PerformanceProfile.of(hierarchy).measure("histogram and threshold", channel.getName())) {
+            return config.build(channel);
+        }
+    }
+
     private static PathAnnotationObject compute(PathAnnotationObject container,
             Map<String, ?> params,
             ImageData<?> imageData) {
         if (imageData == null) {
             throw new IllegalArgumentException("ImageData is required to run cell detection");
         }
-        imageData.getHierarchy().getSelectionModel().setSelectedObject(container);
-        try {
-            runPlugin("qupath.imagej.detect.cells.WatershedCellDetection", imageData, params);
+        PerformanceProfile profile = PerformanceProfile.of(imageData.getHierarchy());
+        try (PerformanceProfile.Measurement measurement = profile.measure("watershed",
+                container.getPathClass().toString())) {
+            // the container is given to the plugin explicitly, so that several containers can be detected at once.
+            // Their tiles are detected in parallel, while the changes to the hierarchy are applied one at a time
+            BraiAnTaskRunner taskRunner = new BraiAnTaskRunner(measurement.isEnabled(), imageData.getHierarchy());
+            runPlugin(new TargetedWatershedCellDetection(List.of(container)), taskRunner, imageData, params);
+            List<Duration> tiles = taskRunner.getTaskDurations();
+            if (!tiles.isEmpty()) {
+                BraiAnExtension.logger.info("{}: detected {} tiles in {} ms overall (slowest tile: {} ms)",
+                        container, tiles.size(), taskRunner.getTotalTaskDuration().toMillis(),
+                        Collections.max(tiles).toMillis());
+            }
             ChannelDetections.getChildrenDetections(container)
                     .forEach(detection -> detection.setPathClass(container.getPathClass()));
+            measurement.addResources(taskRunner.getTotalTaskCpuNanos(), taskRunner.getTotalTaskAllocatedBytes());
+            measurement.count(container.nChildObjects());
             return container;
         } catch (InterruptedException e) {
             BraiAnExtension.logger.warn(
@@ -220,42 +323,57 @@ public class ChannelDetections extends AbstractDetections {
     }
 
     private static PathAnnotationObject createFullImageAnnotation(ImageData<?> imageData,
-            PathObjectHierarchy hierarchy,
-            boolean setSelected) {
+            PathObjectHierarchy hierarchy) {
         ImageServer<?> server = imageData.getServer();
         PathObject pathObject = PathObjects.createAnnotationObject(
                 ROIs.createRectangleROI(0, 0, server.getWidth(), server.getHeight(), ImagePlane.getPlane(0, 0)));
         hierarchy.addObject(pathObject);
-        if (setSelected) {
-            hierarchy.getSelectionModel().setSelectedObject(pathObject);
-        }
         return (PathAnnotationObject) pathObject;
     }
 
-    private static boolean runPlugin(final String className,
+    @SuppressWarnings("unchecked")
+    private static boolean runPlugin(final PathPlugin<BufferedImage> plugin,
+            final TaskRunner taskRunner,
             final ImageData<?> imageData,
             final Map<String, ?> args) throws InterruptedException {
-        var json = args == null ? "" : GsonTools.getInstance().toJson(args);
-        return runPlugin(className, imageData, json);
-    }
-
-    private static boolean runPlugin(final String className,
-            final ImageData<?> imageData,
-            final String args) throws InterruptedException {
         if (imageData == null)
             return false;
-
+        var json = args == null ? "" : GsonTools.getInstance().toJson(args);
         try {
-            Class<?> cPlugin = ChannelDetections.class.getClassLoader().loadClass(className);
-            Constructor<?> cons = cPlugin.getConstructor();
-            final PathPlugin plugin = (PathPlugin) cons.newInstance();
-            return plugin.runPlugin(new CommandLineTaskRunner(), imageData, args);
+            return plugin.runPlugin(taskRunner, (ImageData<BufferedImage>) imageData, json);
         } catch (Exception e) {
-            BraiAnExtension.logger.error("Unable to run plugin {}", className, e);
+            BraiAnExtension.logger.error("Unable to run plugin {}", plugin.getName(), e);
             return false;
         }
     }
 
+    /**
+     * {@link WatershedCellDetection} applied to a given list of objects, instead of the objects
+     * selected in the hierarchy.
+     * <p>
+     * Several instances can run on the same image: the workflow step of each run is added while holding the lock of
+     * the image hierarchy, the same held by {@link BraiAnTaskRunner} while adding the detections.
+     */
+    private static class TargetedWatershedCellDetection extends WatershedCellDetection {
+        private final Collection<? extends PathObject> targets;
+
+        private TargetedWatershedCellDetection(Collection<? extends PathObject> targets) {
+            this.targets = targets;
+        }
+
+        @Override
+        protected Collection<? extends PathObject> getParentObjects(ImageData<BufferedImage> imageData) {
+            return this.targets;
+        }
+
+        @Override
+        protected void addWorkflowStep(ImageData<BufferedImage> imageData, String arg) {
+            synchronized (imageData.getHierarchy()) {
+                super.addWorkflowStep(imageData, arg);
+            }
+        }
+    }
+
     /**
      * @return the name used for the container annotation storing cell detections
      */
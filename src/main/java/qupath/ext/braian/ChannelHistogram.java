@@ -8,8 +8,6 @@ import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
 
 import java.util.*;
-import java.util.stream.DoubleStream;
-import java.util.stream.IntStream;
 
 import static qupath.ext.braian.BraiAnExtension.logger;
 
@@ -27,7 +25,7 @@ public class ChannelHistogram {
             return 8;
     }
 
-    private static long[] getLongHistogram(ImageStatistics stats) {
+    static long[] getLongHistogram(ImageStatistics stats) {
         if(stats.histogram16 != null)
             return Arrays.stream(stats.histogram16).asLongStream().toArray();
         else
@@ -38,7 +36,7 @@ public class ChannelHistogram {
     private final int bitDepth;
     private final long[] values;
 
-    private ChannelHistogram(String channelName, int bitDepth, long[] histogram) {
+    ChannelHistogram(String channelName, int bitDepth, long[] histogram) {
         this.channelName = channelName;
         this.bitDepth = bitDepth;
         if(bitDepth == 16)
@@ -84,6 +82,13 @@ public class ChannelHistogram {
         return this.channelName;
     }
 
+    /**
+     * @return a copy of the number of pixels for each color value
+     */
+    public long[] getValues() {
+        return this.values.clone();
+    }
+
     /**
      * @return true if the current histogram is built from a 8-bit image
      */
@@ -150,18 +155,60 @@ public class ChannelHistogram {
      * @see #zeroPhaseFilter(double[], double[])
      */
     public int[] findHistogramPeaks(int windowSize, double prominence) {
-        if (windowSize%2 == 0)
+        if (windowSize%2 == 0) {
             logger.warn("For better results, choose a window of odd size!");
-        // movingAvg is a moving average linear digital filter
-        double[] movingAvg = new double[windowSize];
-        Arrays.fill(movingAvg, (double) 1/windowSize);
-        double[] hist = Arrays.stream(this.values).asDoubleStream().toArray();
-        double[] smoothed = zeroPhaseFilter(movingAvg, hist);
+            // movingAvg is a moving average linear digital filter
+            double[] movingAvg = new double[windowSize];
+            Arrays.fill(movingAvg, (double) 1/windowSize);
+            double[] hist = Arrays.stream(this.values).asDoubleStream().toArray();
+            double[] smoothed = zeroPhaseFilter(movingAvg, hist);
+            return findPeaks(smoothed, prominence);
+        }
+        double[] smoothed = zeroPhaseMovingAverage(this.values, windowSize);
         return findPeaks(smoothed, prominence);
         // double histogramMax = Arrays.stream(smoothed).max().getAsDouble();
         // return findPeaks(smoothed, prominence * histogramMax);
     }
 
+    /**
+     * Applies {@link #zeroPhaseFilter(double[], double[])} with a moving average of size <code>windowSize</code>.
+     * Both passes are computed as running sums of the histogram counts, hence they are exact and take
+     * linear time regardless of the size of the window.
+     * @param xs the histogram counts to be filtered
+     * @param windowSize the size of the moving average. It must be odd
+     * @return the filtered output with the same shape as xs
+     */
+    static double[] zeroPhaseMovingAverage(long[] xs, int windowSize) {
+        if (windowSize%2 == 0)
+            throw new IllegalArgumentException("windowSize must be odd. Instead got windowSize="+windowSize);
+        int half = windowSize/2;
+        // with odd windows, the backward pass is the same as the forward one
+        long[] sums = boxSums(boxSums(xs, half), half);
+        double norm = (double) windowSize*windowSize;
+        double[] smoothed = new double[xs.length];
+        for (int i = 0; i < xs.length; i++)
+            smoothed[i] = sums[i]/norm;
+        return smoothed;
+    }
+
+    /**
+     * @return for each position i, the sum of xs in [i-half, i+half], padding xs with zeros
+     */
+    private static long[] boxSums(long[] xs, int half) {
+        long[] sums = new long[xs.length];
+        long sum = 0;
+        for (int i = 0; i < Math.min(half, xs.length); i++)
+            sum += xs[i];
+        for (int i = 0; i < xs.length; i++) {
+            if (i+half < xs.length)
+                sum += xs[i+half];
+            if (i-half > 0)
+                sum -= xs[i-half-1];
+            sums[i] = sum;
+        }
+        return sums;
+    }
+
     /**
      * Applies Applies a linear digital filter twice, once forward and once backwards.
      * The combined filter has zero phase and a filter order twice that of the original.
@@ -190,19 +237,17 @@ public class ChannelHistogram {
      */
     private static double[] convolute(double[] kernel, double[] signal) {
         int padSize = Math.floorDiv(kernel.length, 2);
+        double[] paddedInputData = new double[signal.length + 2*padSize];
+        System.arraycopy(signal, 0, paddedInputData, padSize, signal.length);
 
-        double[] paddedInputData = DoubleStream.concat(
-                DoubleStream.generate(() -> 0).limit(padSize),          // DoubleStream.range(0,padSize).mapToObj(i -> signal[padSize-i]),
-                DoubleStream.concat(
-                        Arrays.stream(signal),
-                        DoubleStream.generate(() -> 0).limit(padSize))  // DoubleStream.range(0,padSize).mapToObj(i -> signal[inputSize-padSize-i]))
-        ).toArray();
-
-        return IntStream.range(kernel.length-1, paddedInputData.length)
-                .mapToDouble(i -> IntStream.range(0, kernel.length)
-                        .mapToDouble(j -> paddedInputData[i-j] * kernel[j])
-                        .sum())
-                .toArray();
+        double[] convoluted = new double[paddedInputData.length - kernel.length + 1];
+        for (int i = 0; i < convoluted.length; i++) {
+            double sum = 0;
+            for (int j = 0; j < kernel.length; j++)
+                sum += paddedInputData[i+kernel.length-1-j] * kernel[j];
+            convoluted[i] = sum;
+        }
+        return convoluted;
     }
 
     static void reverse(double[] a) {
@@ -222,13 +267,18 @@ public class ChannelHistogram {
      */
     public static int[] findPeaks(double[] x, double prominence) {
         int[] peaks = localMaxima(x);
+        if (peaks.length == 0)
+            return peaks;
+        double[] leftBases = leftBases(x);
+        double[] rightBases = rightBases(x);
         return Arrays.stream(peaks)
-                .filter(peak -> peakProminence(x, peak) >= prominence)
+                .filter(peak -> x[peak] - Math.max(leftBases[peak], rightBases[peak]) >= prominence)
                 .toArray();
     }
 
     private static int[] localMaxima(double[] x) {
-        List<Integer> midpoints = new ArrayList<>();
+        int[] midpoints = new int[Math.max(0, x.length/2)];
+        int nMidpoints = 0;
         int i = 1;                      // Pointer to current sample, first one can't be maxima
         int iMax = x.length - 1;        // Last sample can't be maxima
         while (i < iMax) {
@@ -242,28 +292,55 @@ public class ChannelHistogram {
 
                 // Maxima is found if next unequal sample is smaller than x[i]
                 if (x[iAhead] < x[i]) {
-                    midpoints.add((i + iAhead - 1) / 2); // intdiv
+                    midpoints[nMidpoints++] = (i + iAhead - 1) / 2; // intdiv
                     // Skip samples that can 't be maximum
                     i = iAhead;
                 }
             }
             i += 1;
         }
-        return midpoints.stream().mapToInt(n->n).toArray();
+        return Arrays.copyOf(midpoints, nMidpoints);
     }
 
-    private static double peakProminence(double[] x, int peak) {
-        // Find the left base in interval [iMin, peak]
-        double leftMin = IntStream.range(0, peak)
-                .mapToObj(i -> x[peak-i]) // reverse stream
-                .takeWhile(elem -> elem <= x[peak])
-                .min(Double::compare)
-                .get();
-        double rightMin = Arrays.stream(x, peak, x.length)
-                .takeWhile(elem -> elem <= x[peak])
-                .min()
-                .getAsDouble();
-
-        return x[peak] - Math.max(leftMin, rightMin);
+    /**
+     * Computes, for every sample, the minimum of x between the sample and the closest higher sample on its left.
+     * It uses a monotonic stack, so all the bases are found in a single pass.
+     * @return the left bases. The first sample is never part of a base
+     */
+    private static double[] leftBases(double[] x) {
+        double[] bases = new double[x.length];
+        int[] stack = new int[x.length];         // indices of strictly decreasing samples
+        double[] stackMins = new double[x.length];  // minimum between an index and the one below it in the stack
+        int top = -1;
+        for (int i = 1; i < x.length; i++) {
+            double min = x[i];
+            while (top >= 0 && x[stack[top]] <= x[i])
+                min = Math.min(min, stackMins[top--]);
+            stack[++top] = i;
+            stackMins[top] = min;
+            bases[i] = min;
+        }
+        return bases;
+    }
+
+    /**
+     * Computes, for every sample, the minimum of x between the sample and the closest higher sample on its right.
+     * It uses a monotonic stack, so all the bases are found in a single pass.
+     * @return the right bases
+     */
+    private static double[] rightBases(double[] x) {
+        double[] bases = new double[x.length];
+        int[] stack = new int[x.length];
+        double[] stackMins = new double[x.length];
+        int top = -1;
+        for (int i = x.length-1; i >= 0; i--) {
+            double min = x[i];
+            while (top >= 0 && x[stack[top]] <= x[i])
+                min = Math.min(min, stackMins[top--]);
+            stack[++top] = i;
+            stackMins[top] = min;
+            bases[i] = min;
+        }
+        return bases;
     }
 }
@@ -0,0 +1,53 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+/**
+ * Basic intensity statistics of a whole image channel, at a given resolution.
+ *
+ * @param pixelCount the number of pixels of the channel
+ * @param mean       the mean intensity
+ * @param stdDev     the sample standard deviation of the intensities, as computed by ImageJ
+ * @param min        the minimum intensity
+ * @param max        the maximum intensity
+ * @see ImageHistograms
+ */
+public record ChannelStatistics(
+        long pixelCount,
+        double mean,
+        double stdDev,
+        double min,
+        double max) {
+
+    /**
+     * Computes the statistics of a histogram of integer intensities
+     * @param counts the number of pixels for each intensity value
+     * @return the statistics of the pixels counted in the histogram
+     */
+    static ChannelStatistics fromHistogram(long[] counts) {
+        long n = 0;
+        double sum = 0;
+        int min = -1, max = -1;
+        for (int value = 0; value < counts.length; value++) {
+            if (counts[value] == 0)
+                continue;
+            if (min < 0)
+                min = value;
+            max = value;
+            n += counts[value];
+            sum += (double) value * counts[value];
+        }
+        if (n == 0)
+            return new ChannelStatistics(0, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        double mean = sum / n;
+        double sumSquares = 0;
+        for (int value = min; value <= max; value++) {
+            double delta = value - mean;
+            sumSquares += delta * delta * counts[value];
+        }
+        double stdDev = n > 1 ? Math.sqrt(sumSquares / (n - 1)) : 0;
+        return new ChannelStatistics(n, mean, stdDev, min, max);
+    }
+}
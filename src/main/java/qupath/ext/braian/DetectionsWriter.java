@@ -0,0 +1,185 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import qupath.lib.images.servers.PixelCalibration;
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the single detections of an image to a file, one fixed-width record per detection, together with the
+ * brain region containing each of them.
+ * <p>
+ * The detections are read once, straight from {@link AbstractDetections#toStream()}, and written through a buffer
+ * of fixed size: the memory used does not depend on the number of detections. All values are little-endian, and
+ * strings are UTF-8 bytes preceded by their length as an int32:
+ * <pre>
+ * "BRAIANDT"                   8 bytes, magic
+ * int32 version                {@value #VERSION}
+ * int64 nDetections
+ * float64 pixelWidth           µm
+ * float64 pixelHeight          µm
+ * int32 nRegions
+ * for each region:
+ *   string name
+ *   string classification      empty if missing
+ * int32 nClasses
+ * string[nClasses]
+ * int32 nMeasurements
+ * string[nMeasurements]
+ * int32 recordSize             bytes, 20 + 4*nMeasurements
+ * for each detection:
+ *   float32 centroidX          pixels
+ *   float32 centroidY          pixels
+ *   float32 area               µm²
+ *   int32 class                index of the classification, -1 if none of the classes
+ *   int32 region               index of the deepest region containing the centroid, -1 if outside the atlas
+ *   float32[nMeasurements]     NaN if missing
+ * </pre>
+ * When the regions are those of the results of the same image, the index of a region is its row in
+ * {@link AtlasManager#getResults(List, qupath.lib.images.ImageData, qupath.lib.projects.ProjectImageEntry)}.
+ * <p>
+ * When {@link OverlappingDetections} are written as well, each of their detections has its own record with the
+ * class of the overlap (e.g. {@code cFos~Arc}). As they are copies of the detections of the control channel, their
+ * records repeat the centroid and area of the control detection, and have no measurements.
+ *
+ * @see RegionLocator
+ */
+public class DetectionsWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int FIXED_RECORD_SIZE = 3*Float.BYTES + 2*Integer.BYTES;
+
+    /**
+     * The extension of the files written by {@link #write(List, Path)}
+     */
+    public static final String EXTENSION = ".brd";
+    static final byte[] MAGIC = "BRAIANDT".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    // the position of nDetections, written once all the detections were streamed
+    private static final int COUNT_POSITION = 8 + Integer.BYTES;
+
+    /**
+     * Builds the names of the measurements of the mean intensity of each channel, as computed by
+     * {@link qupath.imagej.detect.cells.WatershedCellDetection} on each compartment of a detection.
+     * @param channels the names of the image channels
+     * @param cellExpansion whether the nuclei were expanded into cells, thus having the measurements of their
+     *                      cytoplasm and of the whole cell as well
+     * @return the names of the measurements, grouped by compartment and in the same order as {@code channels}
+     */
+    public static List<String> getMeanMeasurements(List<String> channels, boolean cellExpansion) {
+        List<String> compartments = cellExpansion ? List.of("Nucleus", "Cytoplasm", "Cell") : List.of("Nucleus");
+        List<String> measurements = new ArrayList<>();
+        for (String compartment : compartments)
+            for (String channel : channels)
+                measurements.add(compartment+": "+channel+" mean");
+        return List.copyOf(measurements);
+    }
+
+    private final RegionLocator locator;
+    private final List<PathClass> classes;
+    private final List<String> measurements;
+    private final PixelCalibration calibration;
+
+    /**
+     * @param locator the brain regions to attribute the detections to
+     * @param classes the classifications of the detections
+     * @param measurements the names of the measurements of each detection to write
+     * @param calibration the pixel size of the image, used for the area of the detections
+     */
+    public DetectionsWriter(RegionLocator locator, List<PathClass> classes, List<String> measurements,
+                            PixelCalibration calibration) {
+        this.locator = locator;
+        this.classes = List.copyOf(classes);
+        this.measurements = List.copyOf(measurements);
+        this.calibration = calibration;
+    }
+
+    /**
+     * @return the size, in bytes, of the record of each detection
+     */
+    public int getRecordSize() {
+        return FIXED_RECORD_SIZE + Float.BYTES*this.measurements.size();
+    }
+
+    /**
+     * Writes all the detections of the given groups, in the order of their {@link AbstractDetections#toStream()}.
+     * @param detections the groups of detections to write. A detection should not be in more than one group
+     * @param file the file where to write the detections. If it exists, it is overwritten
+     * @return the number of written detections
+     * @throws IOException if an I/O error occurs while writing the file
+     */
+    public long write(List<? extends AbstractDetections> detections, Path file) throws IOException {
+        Map<PathClass, Integer> classIndices = new IdentityHashMap<>();
+        for (int c = 0; c < this.classes.size(); c++)
+            classIndices.putIfAbsent(this.classes.get(c), c);
+        double pixelWidth = this.calibration.getPixelWidthMicrons();
+        double pixelHeight = this.calibration.getPixelHeightMicrons();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            BinaryOutput out = new BinaryOutput(channel, BUFFER_SIZE);
+            out.putBytes(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(0);
+            out.putDouble(pixelWidth);
+            out.putDouble(pixelHeight);
+            out.putInt(this.locator.size());
+            for (int r = 0; r < this.locator.size(); r++) {
+                PathObject region = this.locator.getRegion(r);
+                out.putString(region.getDisplayedName() == null ? "" : region.getDisplayedName());
+                out.putString(region.getPathClass() == null ? "" : region.getPathClass().toString());
+            }
+            out.putInt(this.classes.size());
+            for (PathClass pathClass : this.classes)
+                out.putString(pathClass.toString());
+            out.putInt(this.measurements.size());
+            for (String measurement : this.measurements)
+                out.putString(measurement);
+            out.putInt(this.getRecordSize());
+
+            long nDetections = 0;
+            for (AbstractDetections group : detections) {
+                Iterator<PathDetectionObject> iterator = group.toStream().iterator();
+                while (iterator.hasNext()) {
+                    PathDetectionObject detection = iterator.next();
+                    ROI roi = detection.getROI();
+                    double x = roi.getCentroidX();
+                    double y = roi.getCentroidY();
+                    Integer c = classIndices.get(detection.getPathClass());
+                    out.putFloat((float) x);
+                    out.putFloat((float) y);
+                    out.putFloat((float) roi.getScaledArea(pixelWidth, pixelHeight));
+                    out.putInt(c == null ? -1 : c);
+                    out.putInt(this.locator.locate(x, y));
+                    MeasurementList measurementList = detection.getMeasurementList();
+                    for (String measurement : this.measurements)
+                        out.putFloat((float) measurementList.get(measurement));
+                    nDetections++;
+                }
+            }
+            out.flush();
+            ByteBuffer count = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(nDetections);
+            count.flip();
+            while (count.hasRemaining())
+                channel.write(count, COUNT_POSITION + count.position());
+            return nDetections;
+        }
+    }
+}
@@ -94,15 +94,37 @@ public class ImageChannelTools {
 
     /**
      * Computes the {@link ChannelHistogram} of the current channel at the given resolution.
+     * <p>
+     * The histograms of all the channels are computed at once and, if this instance was created from
+     * an {@link ImageData}, they are cached until the image is closed.
      * @param resolutionLevel Resolution level, If it's bigger than {@link ImageServer#nResolutions()}-1,
      *                        than it uses the igven n-th resolution.
      * @return the histogram of the given channel
      * @throws IOException when it fails to read the image file to build the histogram
-     * @see #getChannelStats(int)
+     * @see ImageHistograms#getInstance(ImageData, int)
      * @see ImageServer#getDownsampleForResolution(int)
      */
     public ChannelHistogram getHistogram(int resolutionLevel) throws IOException {
-        return new ChannelHistogram(this.name, this.getImageProcessor(resolutionLevel));
+        return this.getImageHistograms(resolutionLevel).getHistogram(this.nChannel, this.name);
+    }
+
+    /**
+     * Computes the {@link ChannelStatistics} of the current channel at the given resolution.
+     * @param resolutionLevel Resolution level, If it's bigger than {@link ImageServer#nResolutions()}-1,
+     *                        than it uses the given n-th resolution.
+     * @return the statistics of the given channel
+     * @throws IOException when it fails to read the image file to compute the statistics
+     * @see #getHistogram(int)
+     * @see ImageServer#getDownsampleForResolution(int)
+     */
+    public ChannelStatistics getStatistics(int resolutionLevel) throws IOException {
+        return this.getImageHistograms(resolutionLevel).getStatistics(this.nChannel);
+    }
+
+    private ImageHistograms getImageHistograms(int resolutionLevel) throws IOException {
+        if (this.imageData != null)
+            return ImageHistograms.getInstance(this.imageData, resolutionLevel);
+        return ImageHistograms.compute(this.getServer(), resolutionLevel);
     }
 
     /**
@@ -0,0 +1,241 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import ij.process.ImageStatistics;
+import qupath.imagej.tools.IJTools;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Histograms and basic statistics of all the channels of an image, at a given resolution.
+ * <p>
+ * The image is read once for all channels: if it is not RGB and has 8-bit or 16-bit unsigned pixels,
+ * its tiles are read one by one and their samples counted straight into the histograms, without
+ * building the whole image plane. Otherwise, the plane is converted once to an {@link ImagePlus}.
+ * <p>
+ * The instances retrieved with {@link #getInstance(ImageData, int)} are cached for as long as the
+ * {@link ImageData} is in use, so that the image pyramid is decoded once per image, and not once per
+ * channel per feature.
+ *
+ * @see ChannelHistogram
+ * @see ChannelStatistics
+ */
+public class ImageHistograms {
+    // the number of histograms in which the tiles are counted concurrently
+    private static final int MAX_PARTIAL_HISTOGRAMS = 4;
+    private static final Map<ImageData<BufferedImage>, Cache> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static class Cache {
+        private final ImageServer<BufferedImage> server;
+        private final Map<Integer, ImageHistograms> levels = new HashMap<>();
+
+        private Cache(ImageServer<BufferedImage> server) {
+            this.server = server;
+        }
+    }
+
+    /**
+     * Retrieves the histograms of all the channels of the image at the given resolution.
+     * They are computed only the first time they are requested for a given image and resolution.
+     * @param imageData the image to compute the histograms of
+     * @param resolutionLevel Resolution level, If it's bigger than {@link ImageServer#nResolutions()}-1,
+     *                        than it uses the given n-th resolution.
+     * @return the histograms and statistics of every channel of the image
+     * @throws IOException when it fails to read the image file
+     */
+    public static ImageHistograms getInstance(ImageData<BufferedImage> imageData, int resolutionLevel) throws IOException {
+        ImageServer<BufferedImage> server = imageData.getServer();
+        int level = Math.min(server.nResolutions()-1, resolutionLevel);
+        Cache cache = CACHE.compute(imageData, (data, cached) ->
+                cached != null && cached.server == server ? cached : new Cache(server));
+        // different images are computed concurrently, while the same image is computed once
+        synchronized (cache) {
+            ImageHistograms histograms = cache.levels.get(level);
+            if (histograms == null) {
+                histograms = compute(server, level);
+                cache.levels.put(level, histograms);
+            }
+            return histograms;
+        }
+    }
+
+    /**
+     * Computes the histograms of all the channels of the image at the given resolution, without caching them.
+     * @param server the server of the image to compute the histograms of
+     * @param resolutionLevel Resolution level, If it's bigger than {@link ImageServer#nResolutions()}-1,
+     *                        than it uses the given n-th resolution.
+     * @return the histograms and statistics of every channel of the image
+     * @throws IOException when it fails to read the image file
+     * @see #getInstance(ImageData, int)
+     */
+    public static ImageHistograms compute(ImageServer<BufferedImage> server, int resolutionLevel) throws IOException {
+        int level = Math.min(server.nResolutions()-1, resolutionLevel);
+        if (isTileable(server))
+            return computeFromTiles(server, level);
+        return computeFromImagePlus(server, level);
+    }
+
+    /**
+     * @return true if the histograms can be computed by reading the server's tiles
+     * straight into the counts of each pixel value
+     */
+    private static boolean isTileable(ImageServer<BufferedImage> server) {
+        return !server.isRGB() &&
+                (server.getPixelType() == PixelType.UINT8 || server.getPixelType() == PixelType.UINT16);
+    }
+
+    private static ImageHistograms computeFromTiles(ImageServer<BufferedImage> server, int level) throws IOException {
+        int nChannels = server.nChannels();
+        int bitDepth = server.getPixelType().getBitsPerPixel();
+        List<TileRequest> tiles = server.getTileRequestManager().getTileRequestsForLevel(level).stream()
+                .filter(tile -> tile.getZ() == 0 && tile.getT() == 0)
+                .toList();
+        // the tiles are decoded in parallel, but their samples are counted into a fixed number of partial
+        // histograms, as a 16-bit histogram of each channel for each split of the tiles could take hundreds of MB
+        int nPartials = Math.max(1, Math.min(tiles.size(), MAX_PARTIAL_HISTOGRAMS));
+        long[][][] partials = new long[nPartials][nChannels][1 << bitDepth];
+        try {
+            IntStream.range(0, tiles.size()).parallel().forEach(i -> {
+                Raster raster = readTile(server, tiles.get(i));
+                long[][] partialCounts = partials[i % nPartials];
+                synchronized (partialCounts) {
+                    accumulate(raster, partialCounts);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        long[][] counts = partials[0];
+        for (int p = 1; p < nPartials; p++)
+            merge(counts, partials[p]);
+        ChannelHistogram[] histograms = new ChannelHistogram[nChannels];
+        ChannelStatistics[] statistics = new ChannelStatistics[nChannels];
+        for (int c = 0; c < nChannels; c++) {
+            histograms[c] = new ChannelHistogram(getChannelName(server, c), bitDepth, counts[c]);
+            statistics[c] = ChannelStatistics.fromHistogram(counts[c]);
+        }
+        return new ImageHistograms(server, histograms, statistics);
+    }
+
+    private static Raster readTile(ImageServer<BufferedImage> server, TileRequest tile) {
+        try {
+            return server.readRegion(tile.getRegionRequest()).getRaster();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void accumulate(Raster raster, long[][] counts) {
+        int width = raster.getWidth();
+        int[] row = new int[width];
+        for (int c = 0; c < counts.length; c++) {
+            long[] channelCounts = counts[c];
+            for (int y = 0; y < raster.getHeight(); y++) {
+                raster.getSamples(raster.getMinX(), raster.getMinY()+y, width, 1, c, row);
+                for (int value : row)
+                    channelCounts[value]++;
+            }
+        }
+    }
+
+    private static void merge(long[][] counts, long[][] others) {
+        for (int c = 0; c < counts.length; c++)
+            for (int value = 0; value < counts[c].length; value++)
+                counts[c][value] += others[c][value];
+    }
+
+    // package-private, so that the tiles can be tested against ImageJ's statistics
+    static ImageHistograms computeFromImagePlus(ImageServer<BufferedImage> server, int level) throws IOException {
+        double downsample = server.getDownsampleForResolution(level);
+        RegionRequest request = RegionRequest.createInstance(server, downsample);
+        ImagePlus image = IJTools.convertToImagePlus(server, request).getImage();
+        int nChannels = server.nChannels();
+        ChannelHistogram[] histograms = new ChannelHistogram[nChannels];
+        ChannelStatistics[] statistics = new ChannelStatistics[nChannels];
+        for (int c = 0; c < nChannels; c++) {
+            image.setC(c+1); // ij.ImagePlus uses 1-based channels
+            ImageProcessor ip = image.getChannelProcessor().duplicate();
+            ip.resetRoi();
+            ImageStatistics stats = ip.getStats();
+            histograms[c] = new ChannelHistogram(getChannelName(server, c), ip.getBitDepth(), ChannelHistogram.getLongHistogram(stats));
+            statistics[c] = new ChannelStatistics(stats.longPixelCount, stats.mean, stats.stdDev, stats.min, stats.max);
+        }
+        return new ImageHistograms(server, histograms, statistics);
+    }
+
+    private static String getChannelName(ImageServer<BufferedImage> server, int nChannel) {
+        return server.getMetadata().getChannels().get(nChannel).getName();
+    }
+
+    private final ImageServer<BufferedImage> server;
+    private final ChannelHistogram[] histograms;
+    private final ChannelStatistics[] statistics;
+
+    private ImageHistograms(ImageServer<BufferedImage> server, ChannelHistogram[] histograms, ChannelStatistics[] statistics) {
+        this.server = server;
+        this.histograms = histograms;
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return the number of channels of the image
+     */
+    public int nChannels() {
+        return this.histograms.length;
+    }
+
+    /**
+     * @param channelName the name of the channel
+     * @return the histogram of the given channel
+     * @throws IllegalChannelName if the image has no channel with the given name
+     */
+    public ChannelHistogram getHistogram(String channelName) {
+        return this.getHistogram(this.findNChannel(channelName), channelName);
+    }
+
+    /**
+     * @param channelName the name of the channel
+     * @return the statistics of the given channel
+     * @throws IllegalChannelName if the image has no channel with the given name
+     */
+    public ChannelStatistics getStatistics(String channelName) {
+        return this.statistics[this.findNChannel(channelName)];
+    }
+
+    ChannelHistogram getHistogram(int nChannel, String channelName) {
+        ChannelHistogram histogram = this.histograms[nChannel];
+        if (histogram.getChannelName().equals(channelName))
+            return histogram;
+        // the channel was renamed after the histograms were computed
+        return new ChannelHistogram(channelName, histogram.getBitDepth(), histogram.getValues());
+    }
+
+    ChannelStatistics getStatistics(int nChannel) {
+        return this.statistics[nChannel];
+    }
+
+    private int findNChannel(String channelName) {
+        // channel names are read each time, as they may be renamed after the histograms were computed
+        List<ImageChannel> channels = this.server.getMetadata().getChannels();
+        for (int c = 0; c < channels.size(); c++)
+            if (channels.get(c).getName().equals(channelName))
+                return c;
+        throw new IllegalChannelName(channelName);
+    }
+}
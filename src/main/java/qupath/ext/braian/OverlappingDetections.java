@@ -11,12 +11,16 @@ import qupath.lib.objects.classes.PathClass;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.projects.Project;
-import qupath.lib.roi.interfaces.ROI;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -144,31 +148,63 @@ public class OverlappingDetections extends AbstractDetections {
     }
 
     private void overlap(AbstractDetections control, Collection<AbstractDetections> otherDetections) {
-        List<PathDetectionObject> overlaps = control.toStream().flatMap(cell -> copyDetectionIfOverlapping(cell, control, otherDetections).stream()).toList();
+        List<PathDetectionObject> cells = control.toStream().toList();
+        List<AbstractDetections> others = List.copyOf(otherDetections);
+        if (others.size() > Long.SIZE)
+            throw new IllegalArgumentException("You can overlap at most "+Long.SIZE+" detections with the control. Instead got "+others.size());
+        // one dual-tree join per channel, instead of one look-up per cell per channel.
+        // Each join is split across worker threads, as the indexes are read-only
+        List<int[]> othersOverlaps = others.stream().map(other -> other.getOverlappingIndices(control)).toList();
+        long[] combinations = new long[cells.size()];
+        IntStream.range(0, cells.size()).parallel()
+                .forEach(i -> combinations[i] = getOverlappingCombination(i, othersOverlaps));
+        Map<Long, PathClass> overlapClasses = new HashMap<>();
+        for (long combination : combinations)
+            if (combination != 0)
+                overlapClasses.computeIfAbsent(combination, c -> getOverlappingClass(c, control, others));
+        PathDetectionObject[] copies = new PathDetectionObject[cells.size()];
+        IntStream.range(0, cells.size()).parallel()
+                .filter(i -> combinations[i] != 0)
+                .forEach(i -> copies[i] = (PathDetectionObject) PathObjects.createDetectionObject(
+                        cells.get(i).getROI(), overlapClasses.get(combinations[i])));
+        List<PathDetectionObject> overlaps = Arrays.stream(copies).filter(Objects::nonNull).toList();
+        // the copies share the ROIs of the control cells: the control's index can tell which ones are in each container
+        List<PathAnnotationObject> containers = control.getContainers();
+        List<List<PathDetectionObject>> containersOverlaps = containers.parallelStream()
+                .map(container -> Arrays.stream(control.getIndicesInside(container.getParent().getROI()))
+                        .filter(i -> copies[i] != null)
+                        .mapToObj(i -> copies[i])
+                        .toList())
+                .toList();
+        // the hierarchy is not thread-safe: all changes are committed here, on the calling thread
         this.getHierarchy().addObjects(overlaps);
         // add all duplicated overlapping cells to a new annotation
-        for (PathAnnotationObject container : control.getContainers()) {
-            PathAnnotationObject containerParent = (PathAnnotationObject) container.getParent();
+        for (int k = 0; k < containers.size(); k++) {
+            PathAnnotationObject containerParent = (PathAnnotationObject) containers.get(k).getParent();
             PathAnnotationObject overlapsContainer = this.createContainer(containerParent, true);
-            ROI containerRoi = overlapsContainer.getROI();
-            overlaps.stream()
-                    .filter(overlap -> containerRoi.contains(overlap.getROI().getCentroidX(), overlap.getROI().getCentroidY()))
+            containersOverlaps.get(k)
                     .forEach(overlap -> this.getHierarchy().addObjectBelowParent(overlapsContainer, overlap, false));
         }
     }
 
-    private static Optional<PathDetectionObject> copyDetectionIfOverlapping(PathDetectionObject cell,
-                                                                            AbstractDetections control,
-                                                                            Collection<AbstractDetections> otherDetections) {
-        List<String> overlappingDetectionsIds = otherDetections.stream()
-                .filter(other -> other.getOverlappingObjectIfPresent(cell).isPresent())
-                .map(AbstractDetections::getId)
-                .toList();
-        if (overlappingDetectionsIds.isEmpty())
-            return Optional.empty();
-        String className = createOverlappingClassName(control.getId(), overlappingDetectionsIds);
-        PathClass overlapClass = PathClass.fromString(className);
-        PathDetectionObject cellCopy = (PathDetectionObject) PathObjects.createDetectionObject(cell.getROI(), overlapClass);
-        return Optional.of(cellCopy);
+    /**
+     * @return a bit mask where the j-th bit is set if the cell overlaps with the j-th detections
+     */
+    private static long getOverlappingCombination(int cellIndex, List<int[]> othersOverlaps) {
+        long combination = 0;
+        for (int j = 0; j < othersOverlaps.size(); j++)
+            if (othersOverlaps.get(j)[cellIndex] >= 0)
+                combination |= 1L << j;
+        return combination;
+    }
+
+    private static PathClass getOverlappingClass(long combination,
+                                                 AbstractDetections control,
+                                                 List<AbstractDetections> otherDetections) {
+        List<String> overlappingDetectionsIds = new ArrayList<>();
+        for (int j = 0; j < otherDetections.size(); j++)
+            if ((combination & (1L << j)) != 0)
+                overlappingDetectionsIds.add(otherDetections.get(j).getId());
+        return PathClass.fromString(createOverlappingClassName(control.getId(), overlappingDetectionsIds));
     }
 }
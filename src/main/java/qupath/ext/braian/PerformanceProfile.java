@@ -0,0 +1,368 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import qupath.lib.io.GsonTools;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Where the time and the memory are spent while analysing an image.
+ * <p>
+ * A profile is made of named stages (e.g. reading the image, detecting the cells of a channel, saving the results).
+ * Each stage can be measured several times, possibly from different threads, and it accumulates its wall time,
+ * the CPU time and the bytes allocated by the measuring thread, and the number of objects it produced.
+ * <p>
+ * The code analysing an image finds its profile with {@link #of(PathObjectHierarchy)}. If none was started for that
+ * image, it gets a disabled profile whose measurements do nothing, so that profiling costs almost nothing when it
+ * is off.
+ *
+ * @see #start(String)
+ * @see #writeSummary(Collection, Path)
+ */
+public final class PerformanceProfile {
+    /**
+     * The name of the directory, inside each project's {@code results}, where the profiles are written.
+     */
+    public static final String DIRECTORY = "_perf";
+    /**
+     * The name of the file summarising all the profiles of an experiment.
+     */
+    public static final String SUMMARY_FILENAME = "summary.json";
+
+    private static final PerformanceProfile DISABLED = new PerformanceProfile(null);
+    private static final Measurement NO_MEASUREMENT = new Measurement(null, null);
+    private static final Map<PathObjectHierarchy, PerformanceProfile> ACTIVE =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    // checked before looking up ACTIVE, so that nothing is synchronised when profiling is off
+    private static volatile int nActive = 0;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static class Totals {
+        private long calls = 0;
+        private long wallNanos = 0;
+        private long cpuNanos = 0;
+        private long allocatedBytes = 0;
+        private long objects = 0;
+    }
+
+    private final String name;
+    private final long startNanos;
+    private final Map<String, Totals> stages = new LinkedHashMap<>();
+    private long wallNanos = -1;
+    private long maxUsedHeapBytes = 0;
+    private PathObjectHierarchy hierarchy;
+
+    private PerformanceProfile(String name) {
+        this.name = name;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts profiling an image.
+     * @param name the name of the image
+     * @return a new enabled profile
+     * @see #attach(PathObjectHierarchy)
+     */
+    public static PerformanceProfile start(String name) {
+        return new PerformanceProfile(name);
+    }
+
+    /**
+     * @param hierarchy the hierarchy of an image
+     * @return the profile attached to {@code hierarchy}, or a disabled profile if the image is not being profiled
+     */
+    public static PerformanceProfile of(PathObjectHierarchy hierarchy) {
+        if (nActive == 0 || hierarchy == null)
+            return DISABLED;
+        return ACTIVE.getOrDefault(hierarchy, DISABLED);
+    }
+
+    /**
+     * @return a profile whose measurements do nothing
+     */
+    public static PerformanceProfile disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Makes this profile retrievable with {@link #of(PathObjectHierarchy)}, from any thread working on the image.
+     * @param hierarchy the hierarchy of the profiled image
+     */
+    public void attach(PathObjectHierarchy hierarchy) {
+        if (!this.isEnabled())
+            return;
+        synchronized (ACTIVE) {
+            if (this.hierarchy == null)
+                nActive++;
+            else
+                ACTIVE.remove(this.hierarchy);
+            this.hierarchy = hierarchy;
+            ACTIVE.put(hierarchy, this);
+        }
+    }
+
+    /**
+     * Stops profiling the image. Later measurements are still recorded, but the code working on the image does not
+     * find this profile anymore.
+     */
+    public void stop() {
+        if (!this.isEnabled())
+            return;
+        synchronized (ACTIVE) {
+            if (this.hierarchy != null) {
+                ACTIVE.remove(this.hierarchy);
+                this.hierarchy = null;
+                nActive--;
+            }
+        }
+        synchronized (this) {
+            this.wallNanos = System.nanoTime() - this.startNanos;
+        }
+    }
+
+    /**
+     * @return false if the measurements of this profile do nothing
+     */
+    public boolean isEnabled() {
+        return this.name != null;
+    }
+
+    /**
+     * Starts measuring a stage on the current thread.
+     * @param stage the name of the stage
+     * @return the measurement to close when the stage is over
+     */
+    public Measurement measure(String stage) {
+        if (!this.isEnabled())
+            return NO_MEASUREMENT;
+        return new Measurement(this, stage);
+    }
+
+    /**
+     * Starts measuring a stage applied to a specific target (e.g. a channel) on the current thread.
+     * Each target is reported as a different stage.
+     * @param stage the name of the stage
+     * @param target the name of the target
+     * @return the measurement to close when the stage is over
+     */
+    public Measurement measure(String stage, String target) {
+        if (!this.isEnabled())
+            return NO_MEASUREMENT;
+        return new Measurement(this, stage + " " + target);
+    }
+
+    private synchronized void add(String stage, long wallNanos, long cpuNanos, long allocatedBytes, long objects) {
+        Totals totals = this.stages.computeIfAbsent(stage, s -> new Totals());
+        totals.calls++;
+        totals.wallNanos += wallNanos;
+        totals.cpuNanos += cpuNanos;
+        totals.allocatedBytes += allocatedBytes;
+        totals.objects += objects;
+        Runtime runtime = Runtime.getRuntime();
+        this.maxUsedHeapBytes = Math.max(this.maxUsedHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * A measurement of a stage. It must be closed by the same thread that started it.
+     */
+    public static final class Measurement implements AutoCloseable {
+        private final PerformanceProfile profile;
+        private final String stage;
+        private final long startWall;
+        private final long startCpu;
+        private final long startAllocated;
+        private long otherCpuNanos = 0;
+        private long otherAllocatedBytes = 0;
+        private long objects = 0;
+
+        private Measurement(PerformanceProfile profile, String stage) {
+            this.profile = profile;
+            this.stage = stage;
+            if (profile == null) {
+                this.startWall = this.startCpu = this.startAllocated = 0;
+            } else {
+                this.startWall = System.nanoTime();
+                this.startCpu = getThreadCpuNanos();
+                this.startAllocated = getThreadAllocatedBytes();
+            }
+        }
+
+        /**
+         * @return false if this measurement does nothing
+         */
+        public boolean isEnabled() {
+            return this.profile != null;
+        }
+
+        /**
+         * @param objects the number of objects produced by the stage (e.g. detections)
+         */
+        public void count(long objects) {
+            if (this.profile == null)
+                return;
+            this.objects += objects;
+        }
+
+        /**
+         * Adds the resources used by other threads working for this stage.
+         * @param cpuNanos the CPU time used by the other threads, in nanoseconds
+         * @param allocatedBytes the bytes allocated by the other threads
+         */
+        public void addResources(long cpuNanos, long allocatedBytes) {
+            if (this.profile == null)
+                return;
+            this.otherCpuNanos += cpuNanos;
+            this.otherAllocatedBytes += allocatedBytes;
+        }
+
+        @Override
+        public void close() {
+            if (this.profile == null)
+                return;
+            this.profile.add(this.stage,
+                    System.nanoTime() - this.startWall,
+                    getThreadCpuNanos() - this.startCpu + this.otherCpuNanos,
+                    getThreadAllocatedBytes() - this.startAllocated + this.otherAllocatedBytes,
+                    this.objects);
+        }
+    }
+
+    /**
+     * @return the CPU time used so far by the current thread, in nanoseconds. 0 if the JVM does not measure it
+     */
+    public static long getThreadCpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread. 0 if the JVM does not measure them
+     */
+    public static long getThreadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemorySupported())
+            return threads.getCurrentThreadAllocatedBytes();
+        return 0;
+    }
+
+    /**
+     * @return the profile as a JSON object, with times in nanoseconds and memory in bytes
+     */
+    public synchronized String toJson() {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("image", this.name);
+        json.put("wallNanos", this.wallNanos >= 0 ? this.wallNanos : System.nanoTime() - this.startNanos);
+        json.put("maxUsedHeapBytes", this.maxUsedHeapBytes);
+        List<Map<String, Object>> stages = new ArrayList<>();
+        this.stages.forEach((stage, totals) -> stages.add(toJson(stage, totals)));
+        json.put("stages", stages);
+        return GsonTools.getInstance(true).toJson(json);
+    }
+
+    private static Map<String, Object> toJson(String stage, Totals totals) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("name", stage);
+        json.put("calls", totals.calls);
+        json.put("wallNanos", totals.wallNanos);
+        json.put("cpuNanos", totals.cpuNanos);
+        json.put("allocatedBytes", totals.allocatedBytes);
+        json.put("objects", totals.objects);
+        return json;
+    }
+
+    /**
+     * Writes the profile as JSON.
+     * @param file where to write the profile. Its directory is created if missing
+     * @throws IOException if the file cannot be written
+     * @see #toJson()
+     */
+    public void write(Path file) throws IOException {
+        writeAtomically(file, this.toJson());
+    }
+
+    private static void writeAtomically(Path file, String content) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        // several processes may write the summary at the same time: readers never see a partial file
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        Files.writeString(temporary, content, StandardCharsets.UTF_8);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Summarises the profiles written in the given directories, adding up each stage across all images.
+     * The profiles are read back from the files, so the summary includes the images profiled by other processes too.
+     * @param directories the directories containing the profiles, e.g. {@code results/_perf} of each project
+     * @param file where to write the summary as JSON
+     * @throws IOException if a directory or the summary cannot be accessed
+     */
+    public static void writeSummary(Collection<Path> directories, Path file) throws IOException {
+        Map<String, Totals> stages = new LinkedHashMap<>();
+        List<Map<String, Object>> images = new ArrayList<>();
+        long maxUsedHeapBytes = 0;
+        for (Path directory : directories) {
+            if (!Files.isDirectory(directory))
+                continue;
+            List<Path> profiles;
+            try (Stream<Path> files = Files.list(directory)) {
+                profiles = files.filter(f -> f.getFileName().toString().endsWith(".json"))
+                        .filter(f -> !f.getFileName().toString().equals(SUMMARY_FILENAME))
+                        .sorted()
+                        .toList();
+            }
+            for (Path profileFile : profiles) {
+                JsonObject profile;
+                try (var reader = Files.newBufferedReader(profileFile, StandardCharsets.UTF_8)) {
+                    profile = GsonTools.getInstance().fromJson(reader, JsonObject.class);
+                } catch (RuntimeException e) {
+                    BraiAnExtension.logger.warn("Skipping the malformed profile {}: {}", profileFile, e.getMessage());
+                    continue;
+                }
+                if (profile == null || !profile.has("stages"))
+                    continue;
+                // the stages of whole projects (e.g. syncing) are in files starting with '_'
+                if (!profileFile.getFileName().toString().startsWith("_")) {
+                    Map<String, Object> image = new LinkedHashMap<>();
+                    image.put("image", profile.get("image").getAsString());
+                    image.put("file", profileFile.toString());
+                    image.put("wallNanos", profile.get("wallNanos").getAsLong());
+                    images.add(image);
+                }
+                maxUsedHeapBytes = Math.max(maxUsedHeapBytes, profile.get("maxUsedHeapBytes").getAsLong());
+                for (JsonElement element : profile.getAsJsonArray("stages")) {
+                    JsonObject stage = element.getAsJsonObject();
+                    Totals totals = stages.computeIfAbsent(stage.get("name").getAsString(), s -> new Totals());
+                    totals.calls += stage.get("calls").getAsLong();
+                    totals.wallNanos += stage.get("wallNanos").getAsLong();
+                    totals.cpuNanos += stage.get("cpuNanos").getAsLong();
+                    totals.allocatedBytes += stage.get("allocatedBytes").getAsLong();
+                    totals.objects += stage.get("objects").getAsLong();
+                }
+            }
+        }
+        images.sort(Comparator.comparingLong(image -> -(long) image.get("wallNanos")));
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("images", images.size());
+        json.put("wallNanos", images.stream().mapToLong(image -> (long) image.get("wallNanos")).sum());
+        json.put("maxUsedHeapBytes", maxUsedHeapBytes);
+        List<Map<String, Object>> stagesJson = new ArrayList<>();
+        stages.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> -entry.getValue().wallNanos))
+                .forEach(entry -> stagesJson.add(toJson(entry.getKey(), entry.getValue())));
+        json.put("stages", stagesJson);
+        json.put("slowestImages", images.subList(0, Math.min(10, images.size())));
+        writeAtomically(file, GsonTools.getInstance(true).toJson(json));
+    }
+}
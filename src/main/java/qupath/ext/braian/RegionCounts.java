@@ -0,0 +1,108 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The number of detections of each classification inside each brain region.
+ * <p>
+ * Each detection is attributed once to the deepest region containing its centroid, and the counts are then summed
+ * up the ontology, from the sub-regions to their parents. A region therefore counts all the detections whose
+ * centroid is inside it, as QuPath does for annotations, in time linear in the number of detections and regions.
+ *
+ * @see RegionLocator
+ */
+public class RegionCounts {
+    private final List<PathClass> classes;
+    private final int[][] counts;
+    private final int[] totals;
+
+    /**
+     * Counts the detections inside each region.
+     * @param regions the brain regions, such as those returned by {@link AtlasManager#flatten(List)}
+     * @param classes the classifications to count the detections of. The detections having any other
+     *                classification are only part of the {@link #getTotals() totals}
+     * @param detections all the detections to count
+     */
+    public RegionCounts(List<? extends PathObject> regions, List<PathClass> classes,
+                        Collection<? extends PathObject> detections) {
+        this(new RegionLocator(regions), classes, detections);
+    }
+
+    /**
+     * Counts the detections inside each region.
+     * @param locator the locator of the brain regions
+     * @param classes the classifications to count the detections of. The detections having any other
+     *                classification are only part of the {@link #getTotals() totals}
+     * @param detections all the detections to count
+     */
+    public RegionCounts(RegionLocator locator, List<PathClass> classes, Collection<? extends PathObject> detections) {
+        this.classes = List.copyOf(classes);
+        Map<PathClass, Integer> classIndices = new IdentityHashMap<>();
+        for (int c = 0; c < this.classes.size(); c++)
+            classIndices.putIfAbsent(this.classes.get(c), c);
+        this.counts = new int[locator.size()][this.classes.size()];
+        this.totals = new int[locator.size()];
+        for (PathObject detection : detections) {
+            ROI roi = detection.getROI();
+            int region = locator.locate(roi.getCentroidX(), roi.getCentroidY());
+            if (region < 0)
+                continue;
+            this.totals[region]++;
+            Integer c = classIndices.get(detection.getPathClass());
+            if (c != null)
+                this.counts[region][c]++;
+        }
+        for (int region : locator.getPostOrder()) {
+            int parent = locator.getParent(region);
+            if (parent < 0)
+                continue;
+            this.totals[parent] += this.totals[region];
+            for (int c = 0; c < this.classes.size(); c++)
+                this.counts[parent][c] += this.counts[region][c];
+        }
+    }
+
+    /**
+     * @return the classifications counted, in the order of the columns of {@link #getCounts()}
+     */
+    public List<PathClass> getClasses() {
+        return this.classes;
+    }
+
+    /**
+     * @return for each region, in the order they were given, the number of detections of each classification
+     * @see #getClasses()
+     */
+    public int[][] getCounts() {
+        return this.counts;
+    }
+
+    /**
+     * @param classIndex the index of a classification in {@link #getClasses()}
+     * @return for each region, in the order they were given, the number of detections of that classification
+     */
+    public int[] getCounts(int classIndex) {
+        int[] column = new int[this.counts.length];
+        for (int region = 0; region < column.length; region++)
+            column[region] = this.counts[region][classIndex];
+        return column;
+    }
+
+    /**
+     * @return for each region, in the order they were given, the number of detections of any classification
+     */
+    public int[] getTotals() {
+        return this.totals;
+    }
+}
@@ -0,0 +1,147 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds, for any point of the image, the deepest brain region of an atlas that contains it.
+ * <p>
+ * The regions are searched from the top of the ontology down, as each region is expected to contain all its
+ * sub-regions: at each level, only the sub-regions of the region containing the point are tested.
+ *
+ * @see AtlasManager#flatten(List)
+ */
+public class RegionLocator {
+    private final List<PathObject> regions;
+    private final ROI[] rois;
+    // the bounding box of each region: minX, minY, maxX, maxY
+    private final double[] bounds;
+    private final int[] parents;
+    private final int[][] children;
+    private final int[] roots;
+
+    /**
+     * Creates a locator of the given regions. The parent of each region is searched among the regions themselves:
+     * those whose parent is not in the list are considered top-level regions.
+     * @param regions the brain regions, such as those returned by {@link AtlasManager#flatten(List)}
+     */
+    public RegionLocator(List<? extends PathObject> regions) {
+        this.regions = List.copyOf(regions);
+        int n = this.regions.size();
+        Map<PathObject, Integer> indices = new IdentityHashMap<>(n);
+        for (int i = 0; i < n; i++)
+            indices.put(this.regions.get(i), i);
+        this.rois = new ROI[n];
+        this.bounds = new double[4*n];
+        this.parents = new int[n];
+        List<List<Integer>> children = new ArrayList<>(n);
+        List<Integer> roots = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            PathObject region = this.regions.get(i);
+            ROI roi = region.getROI();
+            this.rois[i] = roi;
+            this.bounds[4*i] = roi.getBoundsX();
+            this.bounds[4*i+1] = roi.getBoundsY();
+            this.bounds[4*i+2] = roi.getBoundsX() + roi.getBoundsWidth();
+            this.bounds[4*i+3] = roi.getBoundsY() + roi.getBoundsHeight();
+            children.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            Integer parent = indices.get(this.regions.get(i).getParent());
+            this.parents[i] = parent == null ? -1 : parent;
+            if (parent == null)
+                roots.add(i);
+            else
+                children.get(parent).add(i);
+        }
+        this.children = children.stream()
+                .map(c -> c.stream().mapToInt(Integer::intValue).toArray())
+                .toArray(int[][]::new);
+        this.roots = roots.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return the number of regions
+     */
+    public int size() {
+        return this.regions.size();
+    }
+
+    /**
+     * @param index the index of a region, as returned by {@link #locate(double, double)}
+     * @return the region at the given index
+     */
+    public PathObject getRegion(int index) {
+        return this.regions.get(index);
+    }
+
+    /**
+     * @param index the index of a region
+     * @return the index of its parent region, or -1 if it is a top-level region
+     */
+    public int getParent(int index) {
+        return this.parents[index];
+    }
+
+    /**
+     * @return the indices of all regions ordered so that each region comes after all its sub-regions
+     */
+    public int[] getPostOrder() {
+        int[] order = new int[this.size()];
+        int nOrdered = 0;
+        // iterative depth-first visit: a region is added once all its children were
+        int[] stack = new int[this.size()];
+        int[] nextChild = new int[this.size()];
+        for (int root : this.roots) {
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                int region = stack[top-1];
+                if (nextChild[region] < this.children[region].length) {
+                    stack[top++] = this.children[region][nextChild[region]++];
+                } else {
+                    order[nOrdered++] = region;
+                    top--;
+                }
+            }
+        }
+        return nOrdered == order.length ? order : Arrays.copyOf(order, nOrdered);
+    }
+
+    /**
+     * Searches the deepest region containing the given point.
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @return the index of the deepest region containing the point, or -1 if no top-level region contains it
+     * @see #getRegion(int)
+     */
+    public int locate(double x, double y) {
+        int found = this.findContaining(this.roots, x, y);
+        if (found < 0)
+            return -1;
+        int next;
+        while ((next = this.findContaining(this.children[found], x, y)) >= 0)
+            found = next;
+        return found;
+    }
+
+    private int findContaining(int[] candidates, double x, double y) {
+        for (int i : candidates) {
+            if (x < this.bounds[4*i] || y < this.bounds[4*i+1] || x > this.bounds[4*i+2] || y > this.bounds[4*i+3])
+                continue;
+            if (this.rois[i].contains(x, y))
+                return i;
+        }
+        return -1;
+    }
+}
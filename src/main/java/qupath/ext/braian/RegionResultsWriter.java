@@ -0,0 +1,309 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import ij.measure.ResultsTable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of results with one row per brain region, stored column by column.
+ * <p>
+ * Differently from ImageJ's {@link ResultsTable}, the columns are added once, each with the values of all the rows in
+ * a primitive array, and the rows are streamed to the file without building them all in memory.
+ * The written files are the same as if the values were added, row by row, to a {@link ResultsTable} and then
+ * {@link ResultsTable#save(String) saved}.
+ * <p>
+ * Alternatively, the table can be written in a binary columnar format, with {@link #writeBinary(Path)}, that can be
+ * read without parsing any text. All values are little-endian, and strings are UTF-8 bytes preceded by their length
+ * as an int32:
+ * <pre>
+ * "BRAIANRC"                   8 bytes, magic
+ * int32 version                {@value #BINARY_VERSION}
+ * int32 nRows
+ * int32 nColumns
+ * for each column:
+ *   string name
+ *   int8 type                  {@value #TYPE_INT32}: int32, {@value #TYPE_FLOAT64}: float64, {@value #TYPE_DICTIONARY}: dictionary-encoded string
+ * for each column, in the same order:
+ *   int32:      int32[nRows]
+ *   float64:    float64[nRows]
+ *   dictionary: int32 nEntries, string[nEntries], int32[nRows] indices of the entries (-1 if missing)
+ * </pre>
+ *
+ * @see AtlasManager#saveResults(List, java.io.File, qupath.lib.images.ImageData, qupath.lib.projects.ProjectImageEntry)
+ */
+public class RegionResultsWriter {
+    /**
+     * The number of decimal places used by {@link ResultsTable} for non-integer values
+     */
+    static final int PRECISION = 3;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The extension of the files written by {@link #writeBinary(Path)}
+     */
+    public static final String BINARY_EXTENSION = ".brc";
+    static final byte[] BINARY_MAGIC = "BRAIANRC".getBytes(StandardCharsets.US_ASCII);
+    static final int BINARY_VERSION = 1;
+    static final byte TYPE_INT32 = 1;
+    static final byte TYPE_FLOAT64 = 2;
+    static final byte TYPE_DICTIONARY = 3;
+
+    private sealed interface Column permits ConstantColumn, StringColumn, DoubleColumn, IntColumn {
+        String name();
+        void append(StringBuilder row, int i, char delimiter);
+    }
+
+    private record ConstantColumn(String name, String value) implements Column {
+        @Override
+        public void append(StringBuilder row, int i, char delimiter) {
+            appendString(row, this.value, delimiter);
+        }
+    }
+
+    private record StringColumn(String name, String[] values) implements Column {
+        @Override
+        public void append(StringBuilder row, int i, char delimiter) {
+            appendString(row, this.values[i], delimiter);
+        }
+    }
+
+    private record DoubleColumn(String name, double[] values) implements Column {
+        @Override
+        public void append(StringBuilder row, int i, char delimiter) {
+            row.append(formatNumber(this.values[i]));
+        }
+    }
+
+    private record IntColumn(String name, int[] values) implements Column {
+        @Override
+        public void append(StringBuilder row, int i, char delimiter) {
+            row.append(this.values[i]);
+        }
+    }
+
+    private static void appendString(StringBuilder row, String value, char delimiter) {
+        if (value == null)
+            return;
+        // as ImageJ does, values containing the delimiter of a CSV are quoted
+        if (delimiter == ',' && value.indexOf(',') >= 0)
+            row.append('"').append(value).append('"');
+        else
+            row.append(value);
+    }
+
+    /**
+     * Formats a number as {@link ResultsTable} does with its automatic format:
+     * integers have no decimal places, all other values have {@link #PRECISION} decimal places.
+     * @param value the value to format
+     * @return the string representation of the value
+     */
+    static String formatNumber(double value) {
+        if (value == (int) value && Math.abs(value) < 1e9)
+            return Integer.toString((int) value);
+        return ResultsTable.d2s(value, PRECISION);
+    }
+
+    private final int nRows;
+    private final List<Column> columns = new ArrayList<>();
+
+    /**
+     * Creates an empty table.
+     * @param nRows the number of rows, i.e. of brain regions, of each column
+     */
+    public RegionResultsWriter(int nRows) {
+        if (nRows < 0)
+            throw new IllegalArgumentException("nRows must be >=0. Instead got nRows="+nRows);
+        this.nRows = nRows;
+    }
+
+    /**
+     * @return the number of rows of each column
+     */
+    public int getRowCount() {
+        return this.nRows;
+    }
+
+    /**
+     * @return the names of the columns, in the order they were added
+     */
+    public List<String> getColumnNames() {
+        return this.columns.stream().map(Column::name).toList();
+    }
+
+    /**
+     * Adds a column having the same value in all rows, such as the image name or its metadata.
+     * @param name the name of the column
+     * @param value the value of all the rows
+     * @return this table
+     */
+    public RegionResultsWriter addConstantColumn(String name, String value) {
+        return this.addColumn(new ConstantColumn(name, value));
+    }
+
+    /**
+     * Adds a column of text values.
+     * @param name the name of the column
+     * @param values the value of each row. Null values are written as empty cells
+     * @return this table
+     * @throws IllegalArgumentException if the number of values is not equal to {@link #getRowCount()}
+     */
+    public RegionResultsWriter addStringColumn(String name, String[] values) {
+        this.checkLength(name, values.length);
+        return this.addColumn(new StringColumn(name, values));
+    }
+
+    /**
+     * Adds a column of decimal values.
+     * @param name the name of the column
+     * @param values the value of each row
+     * @return this table
+     * @throws IllegalArgumentException if the number of values is not equal to {@link #getRowCount()}
+     */
+    public RegionResultsWriter addDoubleColumn(String name, double[] values) {
+        this.checkLength(name, values.length);
+        return this.addColumn(new DoubleColumn(name, values));
+    }
+
+    /**
+     * Adds a column of integer values, such as the number of detections in each region.
+     * @param name the name of the column
+     * @param values the value of each row
+     * @return this table
+     * @throws IllegalArgumentException if the number of values is not equal to {@link #getRowCount()}
+     */
+    public RegionResultsWriter addIntColumn(String name, int[] values) {
+        this.checkLength(name, values.length);
+        return this.addColumn(new IntColumn(name, values));
+    }
+
+    private void checkLength(String name, int length) {
+        if (length != this.nRows)
+            throw new IllegalArgumentException("Column '"+name+"' must have "+this.nRows+" values. Instead got "+length);
+    }
+
+    private RegionResultsWriter addColumn(Column column) {
+        this.columns.add(column);
+        return this;
+    }
+
+    /**
+     * Writes the table as tab-separated values, or comma-separated values if the file ends with ".csv".
+     * If the table has no rows, the file is left empty.
+     * @param file the file where to write the table. If it exists, it is overwritten
+     * @throws IOException if an I/O error occurs while writing the file
+     */
+    public void write(Path file) throws IOException {
+        String fileName = file.getFileName().toString().toLowerCase();
+        char delimiter = fileName.endsWith(".csv") ? ',' : '\t';
+        // ResultsTable writes with the default charset and line separator
+        String lineSeparator = System.lineSeparator();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Writer writer = new BufferedWriter(Channels.newWriter(channel, Charset.defaultCharset()), BUFFER_SIZE)) {
+            if (this.nRows == 0)
+                return;
+            StringBuilder row = new StringBuilder(256);
+            for (int j = 0; j < this.columns.size(); j++) {
+                if (j > 0)
+                    row.append(delimiter);
+                row.append(this.columns.get(j).name());
+            }
+            writer.append(row).append(lineSeparator);
+            for (int i = 0; i < this.nRows; i++) {
+                row.setLength(0);
+                for (int j = 0; j < this.columns.size(); j++) {
+                    if (j > 0)
+                        row.append(delimiter);
+                    this.columns.get(j).append(row, i, delimiter);
+                }
+                writer.append(row).append(lineSeparator);
+            }
+        }
+    }
+
+    /**
+     * Writes the table in BraiAn's binary columnar format, described in {@link RegionResultsWriter}.
+     * @param file the file where to write the table. If it exists, it is overwritten
+     * @throws IOException if an I/O error occurs while writing the file
+     * @see #BINARY_EXTENSION
+     */
+    public void writeBinary(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            BinaryOutput out = new BinaryOutput(channel, BUFFER_SIZE);
+            out.putBytes(BINARY_MAGIC);
+            out.putInt(BINARY_VERSION);
+            out.putInt(this.nRows);
+            out.putInt(this.columns.size());
+            for (Column column : this.columns) {
+                out.putString(column.name());
+                out.putByte(column instanceof IntColumn ? TYPE_INT32
+                        : column instanceof DoubleColumn ? TYPE_FLOAT64
+                        : TYPE_DICTIONARY);
+            }
+            for (Column column : this.columns) {
+                if (column instanceof IntColumn ints) {
+                    for (int value : ints.values())
+                        out.putInt(value);
+                } else if (column instanceof DoubleColumn doubles) {
+                    for (double value : doubles.values())
+                        out.putDouble(value);
+                } else if (column instanceof ConstantColumn constant) {
+                    int[] indices = new int[this.nRows];
+                    if (constant.value() == null) {
+                        Arrays.fill(indices, -1);
+                        out.putInt(0);
+                    } else {
+                        out.putInt(1);
+                        out.putString(constant.value());
+                    }
+                    for (int index : indices)
+                        out.putInt(index);
+                } else if (column instanceof StringColumn strings) {
+                    // region names repeat across hemispheres, and classifications across images:
+                    // each distinct value is written only once
+                    Map<String, Integer> dictionary = new HashMap<>();
+                    List<String> entries = new ArrayList<>();
+                    int[] indices = new int[this.nRows];
+                    for (int i = 0; i < this.nRows; i++) {
+                        String value = strings.values()[i];
+                        if (value == null) {
+                            indices[i] = -1;
+                            continue;
+                        }
+                        Integer index = dictionary.get(value);
+                        if (index == null) {
+                            index = entries.size();
+                            dictionary.put(value, index);
+                            entries.add(value);
+                        }
+                        indices[i] = index;
+                    }
+                    out.putInt(entries.size());
+                    for (String entry : entries)
+                        out.putString(entry);
+                    for (int index : indices)
+                        out.putInt(index);
+                }
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.objects.PathObject;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mean intensities of every channel within each brain region, at a given resolution.
+ * <p>
+ * The regions are rasterised once into a label map, where each pixel is labelled with the deepest region
+ * containing it. Then, the sum and the count of the pixels of each label are accumulated for all channels
+ * in a single pass over the image tiles. Finally, the values of each region are aggregated up the ontology,
+ * so that the cost is about the same regardless of the number of regions.
+ */
+class RegionsStatistics {
+    private static final int MAX_LABELS = (1 << 24) - 1; // labels are painted as RGB colors
+
+    private final Map<PathObject, Integer> labels;
+    private final double[][] sums;
+    private final long[] counts;
+
+    private RegionsStatistics(Map<PathObject, Integer> labels, double[][] sums, long[] counts) {
+        this.labels = labels;
+        this.sums = sums;
+        this.counts = counts;
+    }
+
+    /**
+     * Computes the mean intensities of the given regions.
+     * @param server the server of the image to read the intensities from
+     * @param regions the brain regions, ordered so that each parent precedes its children (e.g. {@link AtlasManager#flatten()})
+     * @param resolutionLevel Resolution level, If it's bigger than {@link ImageServer#nResolutions()}-1,
+     *                        than it uses the given n-th resolution.
+     * @return the statistics of all the given regions
+     * @throws IOException when it fails to read the image file
+     */
+    static RegionsStatistics compute(ImageServer<BufferedImage> server, List<PathObject> regions, int resolutionLevel) throws IOException {
+        if (regions.size() > MAX_LABELS)
+            throw new IllegalArgumentException("regions must be <="+MAX_LABELS+". Instead got regions="+regions.size());
+        int level = Math.min(server.nResolutions()-1, resolutionLevel);
+        int width = server.getMetadata().getLevel(level).getWidth();
+        int height = server.getMetadata().getLevel(level).getHeight();
+        int[] labelMap = rasterise(regions, width, height, (double) width/server.getWidth(), (double) height/server.getHeight());
+        Rectangle labelledBounds = getLabelledBounds(labelMap, width, height);
+
+        int nChannels = server.nChannels();
+        int nLabels = regions.size()+1; // 0 is the background
+        List<TileRequest> tiles = server.getTileRequestManager().getTileRequestsForLevel(level).stream()
+                .filter(tile -> tile.getZ() == 0 && tile.getT() == 0)
+                .filter(tile -> labelledBounds.intersects(tile.getTileX(), tile.getTileY(), tile.getTileWidth(), tile.getTileHeight()))
+                .toList();
+        Accumulator accumulator;
+        try {
+            accumulator = tiles.parallelStream().collect(
+                    () -> new Accumulator(nChannels, nLabels),
+                    (partial, tile) -> partial.accumulate(server, tile, labelMap, width, height),
+                    Accumulator::merge);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Map<PathObject, Integer> labels = new IdentityHashMap<>();
+        for (int i = 0; i < regions.size(); i++)
+            labels.put(regions.get(i), i+1);
+        // children come after their parents: visiting them backwards, each region is complete before it is added to its parent
+        for (int i = regions.size()-1; i >= 0; i--) {
+            Integer parentLabel = labels.get(regions.get(i).getParent());
+            if (parentLabel == null)
+                continue;
+            int label = i+1;
+            for (int c = 0; c < nChannels; c++)
+                accumulator.sums[c][parentLabel] += accumulator.sums[c][label];
+            accumulator.counts[parentLabel] += accumulator.counts[label];
+        }
+        return new RegionsStatistics(labels, accumulator.sums, accumulator.counts);
+    }
+
+    private static int[] rasterise(List<PathObject> regions, int width, int height, double scaleX, double scaleY) {
+        BufferedImage labelImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = labelImage.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.scale(scaleX, scaleY);
+        // parents are painted first, so that each pixel ends up with the label of the deepest region
+        for (int i = 0; i < regions.size(); i++) {
+            ROI roi = regions.get(i).getROI();
+            if (roi == null)
+                continue;
+            g.setColor(new Color(i+1));
+            g.fill(roi.getShape());
+        }
+        g.dispose();
+        int[] labelMap = ((DataBufferInt) labelImage.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < labelMap.length; i++)
+            labelMap[i] &= MAX_LABELS;
+        return labelMap;
+    }
+
+    private static Rectangle getLabelledBounds(int[] labelMap, int width, int height) {
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (labelMap[y*width+x] == 0)
+                    continue;
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+            }
+        }
+        if (maxX < 0)
+            return new Rectangle();
+        return new Rectangle(minX, minY, maxX-minX+1, maxY-minY+1);
+    }
+
+    private static class Accumulator {
+        private final double[][] sums;
+        private final long[] counts;
+
+        private Accumulator(int nChannels, int nLabels) {
+            this.sums = new double[nChannels][nLabels];
+            this.counts = new long[nLabels];
+        }
+
+        private void accumulate(ImageServer<BufferedImage> server, TileRequest tile, int[] labelMap, int width, int height) {
+            Raster raster;
+            try {
+                raster = server.readRegion(tile.getRegionRequest()).getRaster();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int x0 = tile.getTileX();
+            int y0 = tile.getTileY();
+            int tileWidth = Math.min(raster.getWidth(), width-x0);
+            int tileHeight = Math.min(raster.getHeight(), height-y0);
+            double[] row = new double[tileWidth];
+            for (int y = 0; y < tileHeight; y++) {
+                int offset = (y0+y)*width + x0;
+                for (int x = 0; x < tileWidth; x++)
+                    this.counts[labelMap[offset+x]]++;
+                for (int c = 0; c < this.sums.length; c++) {
+                    raster.getSamples(raster.getMinX(), raster.getMinY()+y, tileWidth, 1, c, row);
+                    double[] channelSums = this.sums[c];
+                    for (int x = 0; x < tileWidth; x++)
+                        channelSums[labelMap[offset+x]] += row[x];
+                }
+            }
+        }
+
+        private void merge(Accumulator other) {
+            for (int c = 0; c < this.sums.length; c++)
+                for (int label = 0; label < this.counts.length; label++)
+                    this.sums[c][label] += other.sums[c][label];
+            for (int label = 0; label < this.counts.length; label++)
+                this.counts[label] += other.counts[label];
+        }
+    }
+
+    /**
+     * @param region the brain region
+     * @param nChannel the index of the channel
+     * @return the mean intensity of the channel within the region, or {@link Double#NaN} if the region
+     * was not among the computed ones or it covers no pixel at the computed resolution
+     */
+    double getMean(PathObject region, int nChannel) {
+        Integer label = this.labels.get(region);
+        if (label == null || this.counts[label] == 0)
+            return Double.NaN;
+        return this.sums[nChannel][label] / this.counts[label];
+    }
+}
@@ -5,8 +5,25 @@
 
 package qupath.ext.braian.config;
 
+import qupath.ext.braian.ImageChannelTools;
+import qupath.ext.braian.utils.BraiAn;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.projects.Project;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
 
 /**
  * Per-channel configuration for BraiAn detection and classification.
@@ -136,4 +153,53 @@ public class ChannelDetectionsConfig {
     public void setPixelClassifiers(List<PixelClassifierConfig> pixelClassifiers) {
         this.pixelClassifiers = pixelClassifiers;
     }
+
+    /**
+     * Computes a fingerprint of everything that determines the detections of this channel and their classification:
+     * the parameters given to the watershed algorithm (see {@link WatershedCellDetectionConfig#build(ImageChannelTools)}),
+     * the annotations in which they are computed and the classifiers' files.
+     * <p>
+     * If two fingerprints are the same, the detections computed and classified with them are the same as well.
+     *
+     * @param channel     the image channel to analyze
+     * @param annotations the annotations inside of which the detections are computed.
+     *                    If null, they are computed on the whole image
+     * @param project     the current QuPath project, used to locate the classifiers' files
+     * @return a hexadecimal SHA-256 digest
+     * @throws IOException if a classifier's file cannot be read
+     */
+    public String getFingerprint(ImageChannelTools channel,
+                                 Collection<PathAnnotationObject> annotations,
+                                 Project<?> project) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM implements SHA-256
+        }
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, ?> param : new TreeMap<>(this.parameters.build(channel)).entrySet())
+            text.append(param.getKey()).append('=').append(param.getValue()).append('\n');
+        if (annotations == null) {
+            text.append("annotations=full image\n");
+        } else {
+            annotations.stream()
+                    .sorted(Comparator.comparing(annotation -> annotation.getID().toString()))
+                    .forEach(annotation -> {
+                        ROI roi = annotation.getROI();
+                        text.append("annotation=").append(annotation.getID())
+                                .append(',').append(roi.getBoundsX()).append(',').append(roi.getBoundsY())
+                                .append(',').append(roi.getBoundsWidth()).append(',').append(roi.getBoundsHeight())
+                                .append(',').append(roi.getArea()).append('\n');
+                    });
+        }
+        digest.update(text.toString().getBytes(StandardCharsets.UTF_8));
+        for (ChannelClassifierConfig classifier : Optional.ofNullable(this.classifiers).orElse(List.of())) {
+            String description = "classifier=" + classifier.getName() + "," + classifier.getAnnotationsToClassify() + "\n";
+            digest.update(description.getBytes(StandardCharsets.UTF_8));
+            if (!classifier.getName().equalsIgnoreCase("all"))
+                digest.update(Files.readAllBytes(BraiAn.resolvePath(project, classifier.getName() + ".json")));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
 }
@@ -139,6 +139,11 @@ public class ProjectsConfig {
     private String atlasName = "allen_mouse_10um_java";
     private DetectionsCheckConfig detectionsCheck = new DetectionsCheckConfig();
     private List<ChannelDetectionsConfig> channelDetections = List.of();
+    private int maxParallelImages = 1;
+    private int maxTileThreads = 0;
+    private boolean profiling = false;
+    private boolean binaryResults = false;
+    private boolean exportDetections = false;
 
     /**
      * @return the {@link qupath.lib.objects.classes.PathClass} name used to select
@@ -226,6 +231,93 @@ public class ProjectsConfig {
         return Optional.of(name);
     }
 
+    /**
+     * @return the maximum number of images of a project that are analysed concurrently.
+     *         Each of them is kept decoded in memory until it is saved
+     */
+    public int getMaxParallelImages() {
+        return maxParallelImages;
+    }
+
+    /**
+     * @param maxParallelImages the maximum number of images of a project that are
+     *                          analysed concurrently. Values smaller than 1 are
+     *                          treated as 1
+     */
+    public void setMaxParallelImages(int maxParallelImages) {
+        this.maxParallelImages = maxParallelImages;
+    }
+
+    /**
+     * @return the maximum number of threads computing the tiles of the cell detections,
+     *         shared by all the channels and images analysed concurrently. If 0, it is
+     *         the number of available processors
+     * @see qupath.ext.braian.BraiAnTaskRunner
+     */
+    public int getMaxTileThreads() {
+        return maxTileThreads;
+    }
+
+    /**
+     * @param maxTileThreads the maximum number of threads computing the tiles of the
+     *                       cell detections. If 0, it is the number of available
+     *                       processors
+     */
+    public void setMaxTileThreads(int maxTileThreads) {
+        this.maxTileThreads = maxTileThreads;
+    }
+
+    /**
+     * @return true if the time and memory spent on each stage of the analysis are
+     *         written next to the exported results of each image
+     * @see qupath.ext.braian.PerformanceProfile
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * @param profiling whether to write the time and memory spent on each stage of
+     *                  the analysis next to the exported results of each image
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    /**
+     * @return true if the results of each image are written in BraiAn's binary columnar
+     *         format, instead of tab-separated values
+     * @see qupath.ext.braian.RegionResultsWriter#writeBinary(java.nio.file.Path)
+     */
+    public boolean isBinaryResults() {
+        return binaryResults;
+    }
+
+    /**
+     * @param binaryResults whether to write the results of each image in BraiAn's
+     *                      binary columnar format, instead of tab-separated values
+     */
+    public void setBinaryResults(boolean binaryResults) {
+        this.binaryResults = binaryResults;
+    }
+
+    /**
+     * @return true if, besides the results of each brain region, the centroid, classification, area, mean
+     *         intensities and brain region of each single detection are exported
+     * @see qupath.ext.braian.DetectionsWriter
+     */
+    public boolean isExportDetections() {
+        return exportDetections;
+    }
+
+    /**
+     * @param exportDetections whether to export each single detection of an image, in
+     *                         BraiAn's binary detections format
+     */
+    public void setExportDetections(boolean exportDetections) {
+        this.exportDetections = exportDetections;
+    }
+
     /**
      * @return the per-channel configurations
      */
@@ -86,20 +86,19 @@ public class WatershedCellDetectionConfig {
      * Builds a parameter map compatible with QuPath's watershed cell detection plugin.
      * <p>
      * If {@link #getHistogramThreshold()} is set, this will compute an automatic threshold and override
-     * {@link #getThreshold()}.
+     * {@link #getThreshold()} in the returned parameters. The threshold of this configuration is left untouched,
+     * so that it can be used to build the parameters of several images concurrently.
      *
      * @param channel the image channel to analyze
      * @return a map of parameters to pass to {@code qupath.imagej.detect.cells.WatershedCellDetection}
      */
     public Map<String,?> build(ImageChannelTools channel) {
         this.setDetectionImage(channel.getName());
-        if (this.histogramThreshold != null)
-            this.setThreshold(findThreshold(channel, this.histogramThreshold));
 
-        return Arrays.stream(WatershedCellDetectionConfig.class.getDeclaredFields())
+        Map<String, Object> params = Arrays.stream(WatershedCellDetectionConfig.class.getDeclaredFields())
                 .filter(f -> !f.isSynthetic() && !f.getName().equals("histogramThreshold"))
                 .reduce(
-                        new HashMap<>(),
+                        new HashMap<String, Object>(),
                         (map, field) -> {
                             try {
                                 map.put(field.getName(), field.get(this));
@@ -113,6 +112,9 @@ public class WatershedCellDetectionConfig {
                             return map1;
                         }
                 );
+        if (this.histogramThreshold != null)
+            params.put("threshold", (double) findThreshold(channel, this.histogramThreshold));
+        return params;
     }
 
     /**
@@ -635,9 +635,12 @@ public class BraiAnDetectDialog {
                 Dialogs.showErrorMessage("BraiAnDetect", "Select at least one project to run detection.");
                 return;
             }
-            runAsync("Run Batch Detection", () -> BraiAnAnalysisRunner.runBatch(qupath, rootPath, selectedProjects));
+            boolean restart = experimentPane.isRestart();
+            runAsync("Run Batch Detection",
+                    () -> BraiAnAnalysisRunner.runBatch(qupath, rootPath, selectedProjects, restart));
         } else {
-            runAsync("Run Detection", () -> BraiAnAnalysisRunner.runProject(qupath));
+            boolean restart = experimentPane.isRestart();
+            runAsync("Run Detection", () -> BraiAnAnalysisRunner.runProject(qupath, restart));
         }
     }
 
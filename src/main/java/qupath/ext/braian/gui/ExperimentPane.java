@@ -19,6 +19,7 @@ import javafx.scene.control.Hyperlink;
 import javafx.scene.control.Label;
 import javafx.scene.control.Separator;
 import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
@@ -68,6 +69,7 @@ public class ExperimentPane extends VBox {
     private final TextField classForDetectionsField = new TextField();
     private final TextField atlasNameField = new TextField();
     private final CheckBox detectionsCheckBox = new CheckBox("Enforce Co-localization");
+    private final CheckBox restartCheckBox = new CheckBox("Restart");
     private final ComboBox<String> controlChannelCombo = new ComboBox<>();
     private final Button addChannelButton = new Button("+ Add Channel");
     private final BooleanProperty hasCellDetection = new SimpleBooleanProperty(false);
@@ -252,8 +254,10 @@ public class ExperimentPane extends VBox {
         runButton.disableProperty().bind(running.or(missingInputs).or(batchMissing));
         previewButton.setOnAction(event -> onPreview.run());
         runButton.setOnAction(event -> onRun.run());
+        restartCheckBox.setTooltip(new Tooltip("Analyse again the images already analysed with the same configuration"));
+        restartCheckBox.disableProperty().bind(running);
         HBox.setHgrow(runButton, Priority.NEVER);
-        bar.getChildren().addAll(previewButton, runButton);
+        bar.getChildren().addAll(restartCheckBox, previewButton, runButton);
         return bar;
     }
 
@@ -385,6 +389,13 @@ public class ExperimentPane extends VBox {
         }
     }
 
+    /**
+     * @return true if the run should ignore the journals of the previous runs and analyse all images again
+     */
+    public boolean isRestart() {
+        return restartCheckBox.isSelected();
+    }
+
     /**
      * Refreshes atlas auto-detection, ignoring any currently set atlas name.
      */
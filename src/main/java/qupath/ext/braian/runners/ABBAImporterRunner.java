@@ -7,10 +7,8 @@ package qupath.ext.braian.runners;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import qupath.fx.utils.FXUtils;
 import qupath.ext.braian.utils.ProjectDiscoveryService;
 import qupath.lib.gui.QuPathGUI;
-import qupath.lib.gui.commands.Commands;
 import qupath.lib.images.ImageData;
 import qupath.lib.projects.Project;
 import qupath.lib.projects.ProjectIO;
@@ -86,30 +84,7 @@ public final class ABBAImporterRunner {
             throw new IllegalStateException("No project open.");
         }
 
-        for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
-            ImageData<BufferedImage> imageData;
-            try {
-                imageData = entry.readImageData();
-            } catch (IOException e) {
-                logger.error("Failed to read image data {}: {}", entry.getImageName(), e.getMessage());
-                continue;
-            }
-            try {
-                importAtlas(imageData);
-                entry.saveImageData(imageData);
-            } catch (Exception e) {
-                logger.error("Failed to import atlas for {}: {}", entry.getImageName(), e.getMessage());
-            } finally {
-                closeServer(imageData);
-            }
-        }
-
-        try {
-            project.syncChanges();
-        } catch (Exception e) {
-            logger.warn("Failed to sync project {}: {}", project.getName(), e.getMessage());
-        }
-        System.gc();
+        importProjectImages(project);
     }
 
     /**
@@ -140,14 +115,32 @@ public final class ABBAImporterRunner {
 
     /**
      * Imports the atlas into a batch of QuPath projects.
+     * <p>
+     * It is a thin caller of {@link #runProjects(List)}: projects are not opened in the GUI.
      *
-     * @param qupath       the QuPath GUI instance
+     * @param qupath       the QuPath GUI instance. It is not modified
      * @param projectFiles list of QuPath project files (e.g.
      *                     {@code project.qpproj})
      * @throws IllegalArgumentException if {@code projectFiles} is null or empty
      * @throws IllegalStateException    if the ABBA extension is not available
      */
     public static void runBatch(QuPathGUI qupath, List<Path> projectFiles) {
+        runProjects(projectFiles);
+    }
+
+    /**
+     * Imports the atlas into a batch of QuPath projects, without any GUI.
+     * <p>
+     * It neither requires the JavaFX toolkit nor changes the state of QuPath's GUI, so it can be used
+     * from scripts or from the command line (see {@link BraiAnCommandLine}), as long as the ABBA extension
+     * is in the classpath.
+     *
+     * @param projectFiles list of QuPath project files (e.g.
+     *                     {@code project.qpproj})
+     * @throws IllegalArgumentException if {@code projectFiles} is null or empty
+     * @throws IllegalStateException    if the ABBA extension is not available
+     */
+    public static void runProjects(List<Path> projectFiles) {
         if (!AbbaReflectionBridge.isAvailable()) {
             throw new IllegalStateException(AbbaReflectionBridge.getFailureReason());
         }
@@ -165,34 +158,35 @@ public final class ABBAImporterRunner {
                 logger.error("Failed to load project {}: {}", projectFile, e.getMessage());
                 continue;
             }
-            FXUtils.runOnApplicationThread(() -> qupath.setProject(project));
+            importProjectImages(project);
+        }
+    }
 
-            for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
-                ImageData<BufferedImage> imageData;
-                try {
-                    imageData = entry.readImageData();
-                } catch (IOException e) {
-                    logger.error("Failed to read image data {}: {}", entry.getImageName(), e.getMessage());
-                    continue;
-                }
-                try {
-                    importAtlas(imageData);
-                    entry.saveImageData(imageData);
-                } catch (Exception e) {
-                    logger.error("Failed to import atlas for {}: {}", entry.getImageName(), e.getMessage());
-                } finally {
-                    closeServer(imageData);
-                }
+    private static void importProjectImages(Project<BufferedImage> project) {
+        for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
+            ImageData<BufferedImage> imageData;
+            try {
+                imageData = entry.readImageData();
+            } catch (IOException e) {
+                logger.error("Failed to read image data {}: {}", entry.getImageName(), e.getMessage());
+                continue;
             }
-
             try {
-                project.syncChanges();
+                importAtlas(imageData);
+                entry.saveImageData(imageData);
             } catch (Exception e) {
-                logger.warn("Failed to sync project {}: {}", projectFile, e.getMessage());
+                logger.error("Failed to import atlas for {}: {}", entry.getImageName(), e.getMessage());
+            } finally {
+                closeServer(imageData);
             }
-            System.gc();
-            FXUtils.runOnApplicationThread(() -> Commands.closeProject(qupath));
         }
+
+        try {
+            project.syncChanges();
+        } catch (Exception e) {
+            logger.warn("Failed to sync project {}: {}", project.getName(), e.getMessage());
+        }
+        System.gc();
     }
 
     private static void importAtlas(ImageData<BufferedImage> imageData) {
@@ -9,9 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.ext.braian.AtlasManager;
 import qupath.ext.braian.ExclusionReport;
-import qupath.fx.utils.FXUtils;
 import qupath.lib.gui.QuPathGUI;
-import qupath.lib.gui.commands.Commands;
 import qupath.lib.images.ImageData;
 import qupath.lib.projects.Project;
 import qupath.lib.projects.ProjectIO;
@@ -113,50 +111,15 @@ public final class AutoExcludeEmptyRegionsRunner {
 
         Path projectFile = Projects.getBaseDirectory(project).toPath()
                 .resolve("project." + ProjectIO.DEFAULT_PROJECT_EXTENSION);
-        String projectName = project.getName();
-        List<ExclusionReport> allReports = new ArrayList<>();
-
-        for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
-            ImageData<BufferedImage> imageData;
-            try {
-                imageData = entry.readImageData();
-            } catch (IOException e) {
-                logger.error("Failed to read image data {}: {}", entry.getImageName(), e.getMessage());
-                continue;
-            }
-            try {
-                if (!AtlasManager.isImported(imageData.getHierarchy())) {
-                    logger.warn("No imported atlas found for {}", entry.getImageName());
-                    continue;
-                }
-                AtlasManager atlas = new AtlasManager(imageData.getHierarchy());
-                List<ExclusionReport> reports = atlas.autoExcludeEmptyRegions(imageData, channelNames,
-                        useMaxAcrossChannels, thresholdMultiplier);
-                for (ExclusionReport r : reports) {
-                    allReports.add(new ExclusionReport(projectFile, projectName, entry.getImageName(),
-                            r.excludedAnnotationId(), r.regionName(), r.percentile()));
-                }
-                entry.saveImageData(imageData);
-            } catch (Exception e) {
-                logger.error("Failed to auto-exclude regions for {}: {}", entry.getImageName(), e.getMessage());
-            } finally {
-                closeServer(imageData);
-            }
-        }
-
-        try {
-            project.syncChanges();
-        } catch (Exception e) {
-            logger.warn("Failed to sync project {}: {}", project.getName(), e.getMessage());
-        }
-        System.gc();
-        return allReports;
+        return runProjectImages(projectFile, project, channelNames, useMaxAcrossChannels, thresholdMultiplier);
     }
 
     /**
      * Runs auto-exclusion for a list of QuPath projects.
+     * <p>
+     * It is a thin caller of {@link #runProjects(List, List, boolean, double)}: projects are not opened in the GUI.
      *
-     * @param qupath               the QuPath GUI instance
+     * @param qupath               the QuPath GUI instance. It is not modified
      * @param projectFiles         list of QuPath project files (e.g.
      *                             {@code project.qpproj})
      * @param channelNames         the list of channel names to evaluate
@@ -172,12 +135,34 @@ public final class AutoExcludeEmptyRegionsRunner {
             List<String> channelNames,
             boolean useMaxAcrossChannels,
             double thresholdMultiplier) {
+        return runProjects(projectFiles, channelNames, useMaxAcrossChannels, thresholdMultiplier);
+    }
+
+    /**
+     * Runs auto-exclusion for a list of QuPath projects, without any GUI.
+     * <p>
+     * It neither requires the JavaFX toolkit nor changes the state of QuPath's GUI, so it can be used
+     * from scripts or from the command line (see {@link BraiAnCommandLine}).
+     *
+     * @param projectFiles         list of QuPath project files (e.g.
+     *                             {@code project.qpproj})
+     * @param channelNames         the list of channel names to evaluate
+     * @param useMaxAcrossChannels if true, use the max intensity across channels
+     * @param thresholdMultiplier  multiplier applied to the adaptive threshold
+     * @return a flattened list of excluded regions for all entries across all
+     *         projects
+     * @throws IllegalArgumentException if {@code projectFiles} is null or empty
+     */
+    public static List<ExclusionReport> runProjects(
+            List<Path> projectFiles,
+            List<String> channelNames,
+            boolean useMaxAcrossChannels,
+            double thresholdMultiplier) {
         if (projectFiles == null || projectFiles.isEmpty()) {
             throw new IllegalArgumentException("No project files provided.");
         }
 
         List<ExclusionReport> allReports = new ArrayList<>();
-
         for (Path projectFile : projectFiles) {
             Project<BufferedImage> project;
             try {
@@ -186,45 +171,55 @@ public final class AutoExcludeEmptyRegionsRunner {
                 logger.error("Failed to load project {}: {}", projectFile, e.getMessage());
                 continue;
             }
-            FXUtils.runOnApplicationThread(() -> qupath.setProject(project));
-            String projectName = project.getName();
+            allReports.addAll(runProjectImages(projectFile, project, channelNames, useMaxAcrossChannels,
+                    thresholdMultiplier));
+        }
+        return allReports;
+    }
 
-            for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
-                ImageData<BufferedImage> imageData;
-                try {
-                    imageData = entry.readImageData();
-                } catch (IOException e) {
-                    logger.error("Failed to read image data {}: {}", entry.getImageName(), e.getMessage());
+    private static List<ExclusionReport> runProjectImages(
+            Path projectFile,
+            Project<BufferedImage> project,
+            List<String> channelNames,
+            boolean useMaxAcrossChannels,
+            double thresholdMultiplier) {
+        String projectName = project.getName();
+        List<ExclusionReport> allReports = new ArrayList<>();
+
+        for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
+            ImageData<BufferedImage> imageData;
+            try {
+                imageData = entry.readImageData();
+            } catch (IOException e) {
+                logger.error("Failed to read image data {}: {}", entry.getImageName(), e.getMessage());
+                continue;
+            }
+            try {
+                if (!AtlasManager.isImported(imageData.getHierarchy())) {
+                    logger.warn("No imported atlas found for {}", entry.getImageName());
                     continue;
                 }
-                try {
-                    if (!AtlasManager.isImported(imageData.getHierarchy())) {
-                        logger.warn("No imported atlas found for {}", entry.getImageName());
-                        continue;
-                    }
-                    AtlasManager atlas = new AtlasManager(imageData.getHierarchy());
-                    List<ExclusionReport> reports = atlas.autoExcludeEmptyRegions(imageData, channelNames,
-                            useMaxAcrossChannels, thresholdMultiplier);
-                    for (ExclusionReport r : reports) {
-                        allReports.add(new ExclusionReport(projectFile, projectName, entry.getImageName(),
-                                r.excludedAnnotationId(), r.regionName(), r.percentile()));
-                    }
-                    entry.saveImageData(imageData);
-                } catch (Exception e) {
-                    logger.error("Failed to auto-exclude regions for {}: {}", entry.getImageName(), e.getMessage());
-                } finally {
-                    closeServer(imageData);
+                AtlasManager atlas = new AtlasManager(imageData.getHierarchy());
+                List<ExclusionReport> reports = atlas.autoExcludeEmptyRegions(imageData, channelNames,
+                        useMaxAcrossChannels, thresholdMultiplier);
+                for (ExclusionReport r : reports) {
+                    allReports.add(new ExclusionReport(projectFile, projectName, entry.getImageName(),
+                            r.excludedAnnotationId(), r.regionName(), r.percentile()));
                 }
-            }
-
-            try {
-                project.syncChanges();
+                entry.saveImageData(imageData);
             } catch (Exception e) {
-                logger.warn("Failed to sync project {}: {}", projectFile, e.getMessage());
+                logger.error("Failed to auto-exclude regions for {}: {}", entry.getImageName(), e.getMessage());
+            } finally {
+                closeServer(imageData);
             }
-            System.gc();
-            FXUtils.runOnApplicationThread(() -> Commands.closeProject(qupath));
         }
+
+        try {
+            project.syncChanges();
+        } catch (Exception e) {
+            logger.warn("Failed to sync project {}: {}", project.getName(), e.getMessage());
+        }
+        System.gc();
         return allReports;
     }
 
@@ -9,20 +9,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.ext.braian.AtlasManager;
 import qupath.ext.braian.AbstractDetections;
+import qupath.ext.braian.BraiAnTaskRunner;
 import qupath.ext.braian.ChannelDetections;
+import qupath.ext.braian.DetectionsWriter;
 import qupath.ext.braian.ImageChannelTools;
 import qupath.ext.braian.NoCellContainersFoundException;
 import qupath.ext.braian.OverlappingDetections;
+import qupath.ext.braian.PerformanceProfile;
+import qupath.ext.braian.RegionLocator;
+import qupath.ext.braian.RegionResultsWriter;
 import qupath.ext.braian.config.ChannelClassifierConfig;
 import qupath.ext.braian.config.ChannelDetectionsConfig;
 import qupath.ext.braian.config.ProjectsConfig;
+import qupath.ext.braian.config.WatershedCellDetectionConfig;
 import qupath.ext.braian.PartialClassifier;
 import qupath.ext.braian.utils.ProjectDiscoveryService;
-import qupath.fx.utils.FXUtils;
 import qupath.lib.gui.QuPathGUI;
-import qupath.lib.gui.commands.Commands;
 import qupath.lib.images.ImageData;
 import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.projects.Project;
 import qupath.lib.projects.ProjectIO;
 import qupath.lib.projects.ProjectImageEntry;
@@ -31,12 +37,28 @@ import qupath.lib.projects.Projects;
 import java.awt.image.BufferedImage;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 /**
  * Main execution runner for the BraiAn analysis pipeline.
@@ -54,6 +76,10 @@ import java.util.Optional;
 public final class BraiAnAnalysisRunner {
     private static final Logger logger = LoggerFactory.getLogger(BraiAnAnalysisRunner.class);
     private static final String CONFIG_FILENAME = "BraiAn.yml";
+    // detects the channels of the images concurrently. Each task waits for the shared tile workers most of the time,
+    // so the pool is bounded only to limit the threads when many images are analysed at once
+    private static final ExecutorService CHANNEL_WORKERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), newThreadFactory("braian-channel-"));
 
     private BraiAnAnalysisRunner() {
     }
@@ -74,7 +100,9 @@ public final class BraiAnAnalysisRunner {
         if (imageData == null) {
             throw new IllegalStateException("No image open.");
         }
-        processImage(qupath, imageData, project, null, config, false);
+        setTileParallelism(config);
+        processImage(qupath, imageData, project, null, config, false, EnumSet.noneOf(RunJournal.Stage.class),
+                null);
     }
 
     /**
@@ -84,11 +112,25 @@ public final class BraiAnAnalysisRunner {
      * @throws IllegalStateException if no project is open
      */
     public static void runProject(QuPathGUI qupath) {
+        runProject(qupath, false);
+    }
+
+    /**
+     * Runs the pipeline for all images in the current project and exports results.
+     *
+     * @param qupath  the QuPath GUI instance
+     * @param restart if true, the images already analysed with the same configuration are analysed again
+     * @throws IllegalStateException if no project is open, or if the journal of the previous runs cannot be deleted
+     */
+    public static void runProject(QuPathGUI qupath, boolean restart) {
         Project<BufferedImage> project = qupath.getProject();
         if (project == null) {
             throw new IllegalStateException("No project open.");
         }
         ProjectsConfig config = loadConfigForProject(project);
+        if (restart) {
+            deleteJournals(List.of(project.getPath()), getExperimentDirectory(List.of(project.getPath())));
+        }
         runProjectImages(qupath, project, config, true);
     }
 
@@ -111,8 +153,11 @@ public final class BraiAnAnalysisRunner {
 
     /**
      * Runs the pipeline for a list of QuPath projects.
+     * <p>
+     * It is a thin caller of {@link #runProjects(List, ProjectsConfig, Path)}, using the {@code BraiAn.yml}
+     * found in {@code rootPath}. Projects are not opened in the GUI.
      *
-     * @param qupath       the QuPath GUI instance
+     * @param qupath       the QuPath GUI instance. It is not modified
      * @param rootPath     root directory containing a shared {@code BraiAn.yml}
      * @param projectFiles list of QuPath project files (e.g.
      *                     {@code project.qpproj})
@@ -120,6 +165,22 @@ public final class BraiAnAnalysisRunner {
      * @throws IllegalStateException    if {@code projectFiles} is null or empty
      */
     public static void runBatch(QuPathGUI qupath, Path rootPath, List<Path> projectFiles) {
+        runBatch(qupath, rootPath, projectFiles, false);
+    }
+
+    /**
+     * Runs the pipeline for a list of QuPath projects, as {@link #runBatch(QuPathGUI, Path, List)} does.
+     *
+     * @param qupath       the QuPath GUI instance. It is not modified
+     * @param rootPath     root directory containing a shared {@code BraiAn.yml}
+     * @param projectFiles list of QuPath project files (e.g.
+     *                     {@code project.qpproj})
+     * @param restart      if true, the images already analysed with the same configuration are analysed again
+     * @throws IllegalArgumentException if {@code rootPath} is invalid
+     * @throws IllegalStateException    if {@code projectFiles} is null or empty, or if the journals of the
+     *                                  previous runs cannot be deleted
+     */
+    public static void runBatch(QuPathGUI qupath, Path rootPath, List<Path> projectFiles, boolean restart) {
         if (rootPath == null || !Files.isDirectory(rootPath)) {
             throw new IllegalArgumentException("Invalid projects directory: " + rootPath);
         }
@@ -127,57 +188,481 @@ public final class BraiAnAnalysisRunner {
         if (projectFiles == null || projectFiles.isEmpty()) {
             throw new IllegalStateException("No QuPath projects found in " + rootPath);
         }
+        if (restart) {
+            deleteJournals(projectFiles, rootPath);
+        }
+        runProjects(projectFiles, config, rootPath);
+    }
+
+    /**
+     * Deletes the journals of the given projects, together with their results gathered in the store of the
+     * experiment, so that the next run analyses all their images from scratch.
+     *
+     * @param projectFiles  list of QuPath project files (e.g.
+     *                      {@code project.qpproj})
+     * @param experimentDir the root directory of the experiment, where its results are gathered
+     * @throws IllegalStateException if a journal or the stored results cannot be deleted
+     */
+    static void deleteJournals(List<Path> projectFiles, Path experimentDir) {
+        ExperimentResultsStore store = ExperimentResultsStore.of(experimentDir);
+        try {
+            for (Path projectFile : projectFiles) {
+                Path projectDir = projectFile.toAbsolutePath().getParent();
+                RunJournal.delete(projectDir);
+                store.delete(projectDir.getFileName().toString());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to delete the journals of the previous runs: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs the pipeline for a list of QuPath projects and exports their results, without any GUI.
+     * <p>
+     * The same as {@link #runProjects(List, ProjectsConfig, Path)}, with the experiment directory being the one
+     * containing the directory of the first project.
+     *
+     * @param projectFiles list of QuPath project files (e.g.
+     *                     {@code project.qpproj})
+     * @param config       the configuration to apply to all projects
+     * @throws IllegalArgumentException if {@code projectFiles} is null or empty, or if {@code config} is null
+     */
+    public static void runProjects(List<Path> projectFiles, ProjectsConfig config) {
+        if (projectFiles == null || projectFiles.isEmpty()) {
+            throw new IllegalArgumentException("No project files provided.");
+        }
+        runProjects(projectFiles, config, getExperimentDirectory(projectFiles));
+    }
+
+    /**
+     * Runs the pipeline for a list of QuPath projects and exports their results, without any GUI.
+     * <p>
+     * It neither requires the JavaFX toolkit nor changes the state of QuPath's GUI, so it can be used
+     * from scripts, from the command line (see {@link BraiAnCommandLine}) or on machines without a display.
+     * Projects are loaded one after the other while the images of the previous ones are still being analysed,
+     * and up to {@link ProjectsConfig#getMaxParallelImages()} images, possibly of different projects, are
+     * analysed concurrently.
+     * <p>
+     * Besides the results of each project, the results of all images are gathered in the
+     * {@code results/_store} directory of the experiment, one partition per image listed in its {@code index.tsv}.
+     *
+     * @param projectFiles  list of QuPath project files (e.g.
+     *                      {@code project.qpproj})
+     * @param config        the configuration to apply to all projects
+     * @param experimentDir the root directory of the experiment, where its results are gathered
+     * @throws IllegalArgumentException if {@code projectFiles} is null or empty, or if {@code config} is null
+     */
+    public static void runProjects(List<Path> projectFiles, ProjectsConfig config, Path experimentDir) {
+        if (projectFiles == null || projectFiles.isEmpty()) {
+            throw new IllegalArgumentException("No project files provided.");
+        }
+        if (config == null) {
+            throw new IllegalArgumentException("No configuration provided.");
+        }
+
+        // a single pool is shared by all projects: while a project is being analysed, the next ones are
+        // loaded and their images start as soon as a worker is free
+        ExperimentResultsStore store = ExperimentResultsStore.of(experimentDir);
+        setTileParallelism(config);
+        ExecutorService workers = newWorkers(Math.max(1, config.getMaxParallelImages()));
+        List<Project<BufferedImage>> projects = new ArrayList<>();
+        try {
+            List<List<Future<?>>> projectsTasks = new ArrayList<>();
+            for (Path projectFile : projectFiles) {
+                Project<BufferedImage> project;
+                try {
+                    project = ProjectIO.loadProject(projectFile.toFile(), BufferedImage.class);
+                } catch (IOException e) {
+                    logger.error("Failed to load project {}: {}", projectFile, e.getMessage());
+                    continue;
+                }
+                projects.add(project);
+                // results are written straight to each project, without opening it in the GUI
+                projectsTasks.add(submitProjectImages(workers, null, project, config, true, store));
+            }
+            for (int i = 0; i < projects.size(); i++) {
+                awaitProjectImages(projects.get(i), projectsTasks.get(i), config);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while running the batch of {} projects", projectFiles.size());
+        } finally {
+            workers.shutdownNow();
+        }
+        if (config.isProfiling() && !projects.isEmpty()) {
+            writeProfilesSummary(projects, getSummaryFile(experimentDir));
+        }
+        System.gc();
+    }
+
+    /**
+     * Runs the pipeline for a list of QuPath projects together with other processes, possibly on other machines,
+     * sharing the same {@code queue}. Without any GUI.
+     * <p>
+     * Each image of each project is a unit of work that is claimed by a single worker. If a worker dies, the images
+     * it claimed are processed by the others once its claims become stale. The method returns once all the
+     * images are completed, by any worker. The results of each image are the same as with
+     * {@link #runProjects(List, ProjectsConfig, Path)}, with the experiment directory being the one
+     * containing the directory of the first project.
+     *
+     * @param projectFiles list of QuPath project files (e.g.
+     *                     {@code project.qpproj}). All workers should be given the same projects
+     * @param config       the configuration to apply to all projects
+     * @param queue        the queue shared by all workers. It is closed once all images are completed
+     * @throws IllegalArgumentException if {@code projectFiles} is null or empty, or if {@code config} is null
+     */
+    public static void runProjects(List<Path> projectFiles, ProjectsConfig config, SharedWorkQueue queue) {
+        if (projectFiles == null || projectFiles.isEmpty()) {
+            throw new IllegalArgumentException("No project files provided.");
+        }
+        runProjects(projectFiles, config, queue, getExperimentDirectory(projectFiles));
+    }
+
+    /**
+     * Runs the pipeline for a list of QuPath projects together with other processes, possibly on other machines,
+     * sharing the same {@code queue}. Without any GUI.
+     * <p>
+     * The same as {@link #runProjects(List, ProjectsConfig, SharedWorkQueue)}, gathering the results of all
+     * images in the given experiment directory. All workers append to the same {@code results/_store}.
+     *
+     * @param projectFiles  list of QuPath project files (e.g.
+     *                      {@code project.qpproj}). All workers should be given the same projects
+     * @param config        the configuration to apply to all projects
+     * @param queue         the queue shared by all workers. It is closed once all images are completed
+     * @param experimentDir the root directory of the experiment, where its results are gathered
+     * @throws IllegalArgumentException if {@code projectFiles} is null or empty, or if {@code config} is null
+     */
+    public static void runProjects(List<Path> projectFiles, ProjectsConfig config, SharedWorkQueue queue,
+            Path experimentDir) {
+        if (projectFiles == null || projectFiles.isEmpty()) {
+            throw new IllegalArgumentException("No project files provided.");
+        }
+        if (config == null) {
+            throw new IllegalArgumentException("No configuration provided.");
+        }
 
+        List<Path> loadedFiles = new ArrayList<>();
+        List<Project<BufferedImage>> projects = new ArrayList<>();
         for (Path projectFile : projectFiles) {
-            Project<BufferedImage> project;
             try {
-                project = ProjectIO.loadProject(projectFile.toFile(), BufferedImage.class);
+                projects.add(ProjectIO.loadProject(projectFile.toFile(), BufferedImage.class));
+                loadedFiles.add(projectFile);
             } catch (IOException e) {
                 logger.error("Failed to load project {}: {}", projectFile, e.getMessage());
-                continue;
             }
-            FXUtils.runOnApplicationThread(() -> qupath.setProject(project));
-            runProjectImages(qupath, project, config, true);
-            FXUtils.runOnApplicationThread(() -> Commands.closeProject(qupath));
         }
+
+        ExperimentResultsStore store = ExperimentResultsStore.of(experimentDir);
+        setTileParallelism(config);
+        ExecutorService workers = newWorkers(Math.max(1, config.getMaxParallelImages()));
+        queue.start();
+        try {
+            boolean pending = true;
+            while (pending) {
+                // images claimed by other workers are checked again in the next round, in case their claims go stale
+                pending = false;
+                List<List<Future<Boolean>>> projectsTasks = new ArrayList<>();
+                for (int i = 0; i < projects.size(); i++) {
+                    Project<BufferedImage> project = projects.get(i);
+                    String projectName = loadedFiles.get(i).toAbsolutePath().getParent().getFileName().toString();
+                    RunJournal journal = RunJournal.open(project, config);
+                    List<Future<Boolean>> tasks = new ArrayList<>();
+                    for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
+                        String unit = SharedWorkQueue.getUnitName(projectName, entry.getID());
+                        if (queue.isDone(unit)) {
+                            continue;
+                        }
+                        pending = true;
+                        tasks.add(workers.submit(() -> runClaimedProjectImage(queue, unit, project, entry, config,
+                                journal, store)));
+                    }
+                    projectsTasks.add(tasks);
+                }
+                int nProcessed = 0;
+                for (int i = 0; i < projects.size(); i++) {
+                    int nProjectProcessed = 0;
+                    for (Future<Boolean> task : projectsTasks.get(i)) {
+                        try {
+                            if (task.get()) {
+                                nProjectProcessed++;
+                            }
+                        } catch (ExecutionException e) {
+                            logger.error("Failed processing an image of {}", projects.get(i).getName(), e.getCause());
+                        }
+                    }
+                    if (nProjectProcessed > 0) {
+                        syncProject(projects.get(i), config);
+                    }
+                    nProcessed += nProjectProcessed;
+                }
+                if (pending && nProcessed == 0) {
+                    Thread.sleep(queue.getHeartbeat().toMillis());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while running the shared batch of {} projects", projectFiles.size());
+        } finally {
+            workers.shutdownNow();
+            queue.close();
+        }
+        if (config.isProfiling() && !projects.isEmpty()) {
+            writeProfilesSummary(projects, getSummaryFile(experimentDir));
+        }
+        System.gc();
+    }
+
+    private static boolean runClaimedProjectImage(SharedWorkQueue queue,
+            String unit,
+            Project<BufferedImage> project,
+            ProjectImageEntry<BufferedImage> entry,
+            ProjectsConfig config,
+            RunJournal journal,
+            ExperimentResultsStore store) {
+        // images that fail are completed as well, like in a single-node run, while those taken over by
+        // another worker are completed by their new owner
+        return queue.process(unit,
+                () -> runProjectImage(null, project, entry, config, true, journal, store, () -> queue.owns(unit)));
     }
 
     private static void runProjectImages(QuPathGUI qupath,
             Project<BufferedImage> project,
             ProjectsConfig config,
             boolean export) {
-        for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
-            ImageData<BufferedImage> imageData;
-            try {
-                imageData = entry.readImageData();
-            } catch (IOException e) {
-                logger.error("Failed to read image data {}: {}", entry.getImageName(), e.getMessage());
-                continue;
+        setTileParallelism(config);
+        List<ProjectImageEntry<BufferedImage>> entries = project.getImageList();
+        int nParallel = Math.min(Math.max(1, config.getMaxParallelImages()), Math.max(1, entries.size()));
+        if (nParallel == 1) {
+            RunJournal journal = export ? RunJournal.open(project, config) : null;
+            for (ProjectImageEntry<BufferedImage> entry : entries) {
+                runProjectImage(qupath, project, entry, config, export, journal, null, null);
             }
+            syncProject(project, config);
+        } else {
+            logger.info("Processing {} images of {} with {} parallel workers", entries.size(), project.getName(), nParallel);
+            // each worker holds at most one decoded image, so the pool never keeps more than nParallel in memory
+            ExecutorService workers = newWorkers(nParallel);
             try {
-                processImage(qupath, imageData, project, entry, config, export);
-                entry.saveImageData(imageData);
-            } catch (Exception e) {
-                logger.error("Failed processing {}", entry.getImageName(), e);
+                awaitProjectImages(project, submitProjectImages(workers, qupath, project, config, export, null),
+                        config);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while processing {}", project.getName());
             } finally {
-                closeServer(imageData);
+                workers.shutdownNow();
             }
         }
-        try {
+        if (config.isProfiling() && export) {
+            writeProfilesSummary(List.of(project),
+                    getProfilesDirectory(project).resolve(PerformanceProfile.SUMMARY_FILENAME));
+        }
+        System.gc();
+    }
+
+    private static List<Future<?>> submitProjectImages(ExecutorService workers,
+            QuPathGUI qupath,
+            Project<BufferedImage> project,
+            ProjectsConfig config,
+            boolean export,
+            ExperimentResultsStore store) {
+        RunJournal journal = export ? RunJournal.open(project, config) : null;
+        List<Future<?>> tasks = new ArrayList<>();
+        for (ProjectImageEntry<BufferedImage> entry : project.getImageList()) {
+            tasks.add(workers.submit(() -> runProjectImage(qupath, project, entry, config, export, journal, store,
+                    null)));
+        }
+        return tasks;
+    }
+
+    private static void awaitProjectImages(Project<BufferedImage> project,
+            List<Future<?>> tasks,
+            ProjectsConfig config) throws InterruptedException {
+        List<ProjectImageEntry<BufferedImage>> entries = project.getImageList();
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                tasks.get(i).get();
+            } catch (ExecutionException e) {
+                logger.error("Failed processing {}", entries.get(i).getImageName(), e.getCause());
+            }
+        }
+        syncProject(project, config);
+    }
+
+    private static void syncProject(Project<BufferedImage> project, ProjectsConfig config) {
+        PerformanceProfile profile = config.isProfiling() ? PerformanceProfile.start(project.getName())
+                : PerformanceProfile.disabled();
+        try (var ignored = profile.measure("sync changes")) {
             project.syncChanges();
         } catch (Exception e) {
             logger.warn("Failed to sync project {}: {}", project.getName(), e.getMessage());
         }
-        System.gc();
+        if (profile.isEnabled()) {
+            profile.stop();
+            // the stages of the whole project are in a file that is not an image's
+            writeProfile(profile, project, "_project");
+        }
+    }
+
+    /**
+     * @param owned if not null, whether this process still owns the image. Its data is not saved once it
+     *              was taken over by another process
+     * @return false if the image data was not saved because it was taken over by another process
+     */
+    private static boolean runProjectImage(QuPathGUI qupath,
+            Project<BufferedImage> project,
+            ProjectImageEntry<BufferedImage> entry,
+            ProjectsConfig config,
+            boolean export,
+            RunJournal journal,
+            ExperimentResultsStore store,
+            BooleanSupplier owned) {
+        Set<RunJournal.Stage> completed = journal != null ? journal.getCompletedStages(entry)
+                : EnumSet.noneOf(RunJournal.Stage.class);
+        boolean exported = completed.contains(RunJournal.Stage.EXPORT) && journal.isExported(entry);
+        if (exported && store != null && !store.contains(getProjectName(project), entry.getID())) {
+            // results exported before the experiment had a store are exported again
+            completed.remove(RunJournal.Stage.EXPORT);
+            exported = false;
+        }
+        if (completed.containsAll(EnumSet.allOf(RunJournal.Stage.class))) {
+            logger.info("{}: already analysed with the same configuration, skipping", entry.getImageName());
+            return true;
+        }
+        PerformanceProfile profile = config.isProfiling() && export ? PerformanceProfile.start(entry.getImageName())
+                : PerformanceProfile.disabled();
+        ImageData<BufferedImage> imageData;
+        try (var measurement = profile.measure("image read")) {
+            imageData = entry.readImageData();
+            measurement.count(imageData.getHierarchy().nObjects());
+        } catch (IOException e) {
+            logger.error("Failed to read image data {}: {}", entry.getImageName(), e.getMessage());
+            return true;
+        }
+        profile.attach(imageData.getHierarchy());
+        try {
+            ProcessedImage processed = processImage(qupath, imageData, project, entry, config, export, completed,
+                    store);
+            if (owned != null && !owned.getAsBoolean()) {
+                logger.warn("{}: taken over by another worker, its results are not saved", entry.getImageName());
+                return false;
+            }
+            // entries write to the same project: saves are serialised
+            synchronized (project) {
+                try (var ignored = profile.measure("save image data")) {
+                    entry.saveImageData(imageData);
+                }
+            }
+            if (journal != null) {
+                try {
+                    journal.record(entry, processed.stages(), exported || processed.exported());
+                } catch (UncheckedIOException e) {
+                    logger.warn("Failed to update the journal of {}: {}", entry.getImageName(), e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Failed processing {}", entry.getImageName(), e);
+        } finally {
+            profile.stop();
+            closeServer(imageData);
+        }
+        if (profile.isEnabled()) {
+            writeProfile(profile, project, sanitizeFileName(entry.getImageName()));
+        }
+        return true;
+    }
+
+    private static Path getProfilesDirectory(Project<BufferedImage> project) {
+        return Projects.getBaseDirectory(project).toPath().resolve("results").resolve(PerformanceProfile.DIRECTORY);
     }
 
-    private static void processImage(QuPathGUI qupath,
+    private static void writeProfile(PerformanceProfile profile, Project<BufferedImage> project, String fileName) {
+        Path file = getProfilesDirectory(project).resolve(fileName + ".json");
+        try {
+            profile.write(file);
+        } catch (IOException e) {
+            logger.warn("Failed to write the performance report {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the directory containing the projects of an experiment
+     */
+    private static Path getExperimentDirectory(List<Path> projectFiles) {
+        return projectFiles.get(0).toAbsolutePath().getParent().getParent();
+    }
+
+    /**
+     * @return the summary of the performance reports of an experiment
+     */
+    private static Path getSummaryFile(Path experimentDir) {
+        return experimentDir.resolve("results").resolve(PerformanceProfile.DIRECTORY)
+                .resolve(PerformanceProfile.SUMMARY_FILENAME);
+    }
+
+    /**
+     * @return the name of a project in the {@link ExperimentResultsStore}, the name of its directory
+     */
+    private static String getProjectName(Project<BufferedImage> project) {
+        return Projects.getBaseDirectory(project).getName();
+    }
+
+    /**
+     * Summarises the performance reports of all the images of the given projects, including those analysed by
+     * other processes.
+     */
+    private static void writeProfilesSummary(List<Project<BufferedImage>> projects, Path file) {
+        try {
+            PerformanceProfile.writeSummary(projects.stream().map(BraiAnAnalysisRunner::getProfilesDirectory).toList(),
+                    file);
+            logger.info("Performance summary written to {}", file);
+        } catch (IOException e) {
+            logger.warn("Failed to write the performance summary {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static ExecutorService newWorkers(int nWorkers) {
+        return Executors.newFixedThreadPool(nWorkers, newThreadFactory("braian-image-"));
+    }
+
+    private static void setTileParallelism(ProjectsConfig config) {
+        // the tiles of all the images analysed concurrently share the same threads. It is set once per run, as
+        // changing it while other images are being analysed would affect them too
+        BraiAnTaskRunner.setParallelism(Math.max(0, config.getMaxTileThreads()));
+    }
+
+    private static ThreadFactory newThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The outcome of {@link #processImage}.
+     * @param stages the stages whose results are now in the image data, either computed or already completed.
+     *               Stages with nothing to compute are considered completed as well
+     * @param exported true if the results of the brain regions were exported by this run
+     */
+    private record ProcessedImage(Set<RunJournal.Stage> stages, boolean exported) {
+    }
+
+    /**
+     * @param completed the stages already computed on the saved image data, which are not computed again
+     * @return the stages whose results are now in the image data, and whether they were exported
+     */
+    private static ProcessedImage processImage(QuPathGUI qupath,
             ImageData<BufferedImage> imageData,
             Project<BufferedImage> project,
             ProjectImageEntry<BufferedImage> entry,
             ProjectsConfig config,
-            boolean export) {
+            boolean export,
+            Set<RunJournal.Stage> completed,
+            ExperimentResultsStore store) {
         var hierarchy = imageData.getHierarchy();
+        PerformanceProfile profile = PerformanceProfile.of(hierarchy);
+        String label = entry != null ? entry.getImageName() : imageData.getServerMetadata().getName();
         List<ChannelDetectionsConfig> channelConfigs = Optional.ofNullable(config.getChannelDetections())
                 .orElse(List.of());
         boolean enableCellDetection = channelConfigs.stream()
@@ -185,12 +670,31 @@ public final class BraiAnAnalysisRunner {
         boolean enablePixelClassification = channelConfigs.stream()
                 .anyMatch(ChannelDetectionsConfig::isEnablePixelClassification);
 
+        Set<RunJournal.Stage> done = EnumSet.noneOf(RunJournal.Stage.class);
+        boolean exported = false;
         List<ChannelDetections> allDetections = new ArrayList<>();
         List<OverlappingDetections> overlaps = new ArrayList<>();
+        // the fingerprints of the channels' configurations, and the channels whose detections were reused
+        Map<ChannelDetections, String> fingerprints = new IdentityHashMap<>();
+        List<ChannelDetections> upToDate = new ArrayList<>();
 
         if (enableCellDetection) {
-            applyChannelRenaming(imageData, config);
-            Collection<PathAnnotationObject> annotations = config.getAnnotationsForDetections(hierarchy);
+            try (var ignored = profile.measure("channel renaming")) {
+                applyChannelRenaming(imageData, config);
+            }
+            // classifiers are only applied to freshly computed detections, never to partially classified ones
+            boolean reuseDetections = completed.contains(RunJournal.Stage.CLASSIFY);
+            if (reuseDetections) {
+                logger.info("{}: reusing the detections of a previous run", label);
+            }
+            Collection<PathAnnotationObject> annotations = reuseDetections ? null
+                    : config.getAnnotationsForDetections(hierarchy);
+            // the channels to detect again are computed all together, then sorted as in the configuration
+            List<String> channelNames = new ArrayList<>();
+            Map<String, ChannelDetections> detectionsByName = new HashMap<>();
+            List<ImageChannelTools> toCompute = new ArrayList<>();
+            List<WatershedCellDetectionConfig> toComputeParameters = new ArrayList<>();
+            Map<String, String> toComputeFingerprints = new HashMap<>();
             for (ChannelDetectionsConfig detectionsConfig : channelConfigs) {
                 if (!detectionsConfig.isEnableCellDetection()) {
                     continue;
@@ -201,92 +705,346 @@ public final class BraiAnAnalysisRunner {
                 }
                 try {
                     ImageChannelTools channel = new ImageChannelTools(name, imageData);
-                    ChannelDetections detections = new ChannelDetections(channel, annotations,
-                            detectionsConfig.getParameters(), hierarchy, imageData, project, qupath);
-                    allDetections.add(detections);
+                    channelNames.add(name);
+                    if (reuseDetections) {
+                        detectionsByName.put(name, new ChannelDetections(channel, hierarchy, project, qupath));
+                        continue;
+                    }
+                    String fingerprint = getFingerprint(detectionsConfig, channel, annotations, project);
+                    ChannelDetections detections = findUpToDateDetections(channel, fingerprint, hierarchy, project,
+                            qupath);
+                    if (detections != null) {
+                        logger.info("{}: reusing the detections of {}, as their configuration did not change",
+                                label, name);
+                        upToDate.add(detections);
+                        fingerprints.put(detections, fingerprint);
+                        detectionsByName.put(name, detections);
+                    } else {
+                        toCompute.add(channel);
+                        toComputeParameters.add(detectionsConfig.getParameters());
+                        if (fingerprint != null) {
+                            toComputeFingerprints.put(name, fingerprint);
+                        }
+                    }
                 } catch (IllegalArgumentException e) {
                     logger.warn("Skipping {}: {}", name, e.getMessage());
                 } catch (NoCellContainersFoundException e) {
                     logger.warn("No detections found for {}", name);
                 }
             }
+            if (!toCompute.isEmpty()) {
+                for (ChannelDetections detections : ChannelDetections.compute(toCompute, toComputeParameters,
+                        annotations, hierarchy, imageData, project, qupath, CHANNEL_WORKERS)) {
+                    String fingerprint = toComputeFingerprints.get(detections.getId());
+                    if (fingerprint != null) {
+                        fingerprints.put(detections, fingerprint);
+                    }
+                    detectionsByName.put(detections.getId(), detections);
+                }
+            }
+            channelNames.stream()
+                    .map(detectionsByName::get)
+                    .filter(Objects::nonNull)
+                    .forEach(allDetections::add);
+            done.add(RunJournal.Stage.DETECT);
 
             if (allDetections.isEmpty()) {
-                String label = entry != null ? entry.getImageName() : imageData.getServerMetadata().getName();
                 logger.info("{}: no detections computed", label);
+                done.addAll(EnumSet.of(RunJournal.Stage.CLASSIFY, RunJournal.Stage.OVERLAP, RunJournal.Stage.EXPORT));
             } else {
-                for (ChannelDetections detections : allDetections) {
-                    ChannelDetectionsConfig detectionsConfig = channelConfigs.stream()
-                            .filter(conf -> detections.getId().equals(conf.getName()))
-                            .findFirst()
-                            .orElse(null);
-                    if (detectionsConfig == null || detectionsConfig.getClassifiers() == null) {
-                        continue;
-                    }
-                    List<PartialClassifier<BufferedImage>> partialClassifiers = new ArrayList<>();
-                    for (ChannelClassifierConfig classifierConfig : detectionsConfig.getClassifiers()) {
-                        try {
-                            partialClassifiers.add(classifierConfig.toPartialClassifier(hierarchy, project));
-                        } catch (IOException e) {
-                            logger.warn("Failed to load classifier {}: {}", classifierConfig.getName(), e.getMessage());
-                        }
+                boolean classified = completed.contains(RunJournal.Stage.CLASSIFY);
+                if (!classified) {
+                    try (var ignored = profile.measure("classifiers")) {
+                        classified = classifyDetections(allDetections, upToDate, fingerprints, channelConfigs,
+                                imageData, project);
                     }
-                    detections.applyClassifiers(partialClassifiers, imageData);
+                }
+                if (classified) {
+                    done.add(RunJournal.Stage.CLASSIFY);
                 }
 
-                config.getControlChannel().ifPresent(controlName -> {
-                    ChannelDetections control = allDetections.stream()
-                            .filter(det -> det.getId().equals(controlName))
-                            .findFirst()
-                            .orElse(null);
-                    if (control == null) {
-                        return;
-                    }
-                    List<ChannelDetections> others = allDetections.stream()
-                            .filter(det -> !det.getId().equals(controlName))
-                            .toList();
-                    if (others.isEmpty()) {
-                        return;
-                    }
-                    try {
+                Optional<String> controlName = config.getControlChannel();
+                ChannelDetections control = controlName
+                        .flatMap(name -> allDetections.stream().filter(det -> det.getId().equals(name)).findFirst())
+                        .orElse(null);
+                List<ChannelDetections> others = control == null ? List.of()
+                        : allDetections.stream().filter(det -> !det.getId().equals(control.getId())).toList();
+                if (!others.isEmpty()) {
+                    boolean reuseOverlaps = completed.contains(RunJournal.Stage.OVERLAP);
+                    String overlapsFingerprint = getOverlapsFingerprint(control, others, fingerprints);
+                    try (var ignored = profile.measure("overlap")) {
                         List<AbstractDetections> otherDetections = new ArrayList<>(others);
-                        overlaps.add(
-                                new OverlappingDetections(control, otherDetections, true, hierarchy, project, qupath));
+                        OverlappingDetections overlap = null;
+                        if (!reuseOverlaps && overlapsFingerprint != null && upToDate.contains(control)
+                                && upToDate.containsAll(others)) {
+                            overlap = findUpToDateOverlaps(control, otherDetections, overlapsFingerprint, hierarchy,
+                                    project, qupath);
+                        }
+                        if (overlap == null) {
+                            overlap = new OverlappingDetections(control, otherDetections, !reuseOverlaps, hierarchy,
+                                    project, qupath);
+                            if (!reuseOverlaps && overlapsFingerprint != null) {
+                                overlap.setFingerprint(overlapsFingerprint);
+                            }
+                        }
+                        overlaps.add(overlap);
                     } catch (NoCellContainersFoundException e) {
                         logger.warn("Unable to compute overlaps: {}", e.getMessage());
                     }
-                });
+                }
+                done.add(RunJournal.Stage.OVERLAP);
 
                 if (export && project != null && entry != null) {
-                    String atlasName = config.getAtlasName();
-                    if (atlasName == null) {
-                        atlasName = "allen_mouse_10um_java";
-                    }
-
-                    if (!AtlasManager.isImported(atlasName, hierarchy)) {
-                        logger.warn("No atlas '{}' imported for {}", atlasName, entry.getImageName());
+                    if (completed.contains(RunJournal.Stage.EXPORT)) {
+                        done.add(RunJournal.Stage.EXPORT);
                     } else {
-                        try {
-                            AtlasManager atlas = new AtlasManager(atlasName, hierarchy);
-                            atlas.fixExclusions();
-                            String imageName = sanitizeFileName(entry.getImageName());
-                            Path projectDir = Projects.getBaseDirectory(project).toPath();
-                            Path resultsPath = projectDir.resolve("results").resolve(imageName + "_regions.tsv");
-                            Path exclusionsPath = projectDir.resolve("regions_to_exclude")
-                                    .resolve(imageName + "_regions_to_exclude.txt");
-                            atlas.saveResults(concat(allDetections, overlaps), resultsPath.toFile(), imageData, entry);
-                            atlas.saveExcludedRegions(exclusionsPath.toFile());
-                        } catch (RuntimeException e) {
-                            logger.error("Failed to export results for {}: {}", entry.getImageName(), e.getMessage());
+                        try (var ignored = profile.measure("save results")) {
+                            exported = exportResults(allDetections, overlaps, imageData, project, entry, config,
+                                    store);
                         }
+                        if (exported) {
+                            done.add(RunJournal.Stage.EXPORT);
+                        } else {
+                            // the results of a previous run must not be gathered with those of the current one
+                            deleteStoredResults(store, project, entry);
+                        }
+                    }
+                }
+            }
+        } else {
+            done.addAll(EnumSet.of(RunJournal.Stage.DETECT, RunJournal.Stage.CLASSIFY, RunJournal.Stage.OVERLAP,
+                    RunJournal.Stage.EXPORT));
+            if (export && project != null && entry != null) {
+                deleteStoredResults(store, project, entry);
+            }
+        }
+
+        if (!enablePixelClassification || completed.contains(RunJournal.Stage.PIXEL_CLASSIFICATION)) {
+            done.add(RunJournal.Stage.PIXEL_CLASSIFICATION);
+        } else {
+            try (var ignored = profile.measure("pixel classification")) {
+                PixelClassifierRunner.runPixelClassifiers(qupath, imageData, project, entry, config,
+                        new ArrayList<>(allDetections), export);
+            }
+            done.add(RunJournal.Stage.PIXEL_CLASSIFICATION);
+        }
+        return new ProcessedImage(done, exported);
+    }
+
+    private static void deleteStoredResults(ExperimentResultsStore store,
+            Project<BufferedImage> project,
+            ProjectImageEntry<BufferedImage> entry) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.delete(getProjectName(project), entry.getID());
+        } catch (IOException e) {
+            logger.error("Failed to remove the previous results of {} from {}: {}", entry.getImageName(),
+                    store.getDirectory(), e.getMessage());
+        }
+    }
+
+    /**
+     * Applies the configured classifiers to the detections that were not reused from a previous run.
+     * Once classified, their containers are marked with the fingerprint of their configuration.
+     *
+     * @return true if all the configured classifiers were loaded and applied
+     */
+    private static boolean classifyDetections(List<ChannelDetections> allDetections,
+            List<ChannelDetections> upToDate,
+            Map<ChannelDetections, String> fingerprints,
+            List<ChannelDetectionsConfig> channelConfigs,
+            ImageData<BufferedImage> imageData,
+            Project<BufferedImage> project) {
+        boolean allLoaded = true;
+        for (ChannelDetections detections : allDetections) {
+            if (upToDate.contains(detections)) {
+                continue; // already classified with the same classifiers
+            }
+            ChannelDetectionsConfig detectionsConfig = channelConfigs.stream()
+                    .filter(conf -> detections.getId().equals(conf.getName()))
+                    .findFirst()
+                    .orElse(null);
+            boolean channelLoaded = true;
+            if (detectionsConfig != null && detectionsConfig.getClassifiers() != null) {
+                List<PartialClassifier<BufferedImage>> partialClassifiers = new ArrayList<>();
+                for (ChannelClassifierConfig classifierConfig : detectionsConfig.getClassifiers()) {
+                    try {
+                        partialClassifiers.add(classifierConfig.toPartialClassifier(imageData.getHierarchy(), project));
+                    } catch (IOException e) {
+                        logger.warn("Failed to load classifier {}: {}", classifierConfig.getName(), e.getMessage());
+                        channelLoaded = false;
                     }
                 }
+                detections.applyClassifiers(partialClassifiers, imageData);
+            }
+            String fingerprint = fingerprints.get(detections);
+            if (channelLoaded && fingerprint != null) {
+                detections.setFingerprint(fingerprint);
+            }
+            allLoaded &= channelLoaded;
+        }
+        return allLoaded;
+    }
+
+    private static String getFingerprint(ChannelDetectionsConfig detectionsConfig,
+            ImageChannelTools channel,
+            Collection<PathAnnotationObject> annotations,
+            Project<BufferedImage> project) {
+        try {
+            return detectionsConfig.getFingerprint(channel, annotations, project);
+        } catch (IOException e) {
+            logger.warn("Unable to fingerprint the configuration of {}, its detections will be recomputed: {}",
+                    channel.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the detections previously computed with the given fingerprint, if all of them were.
+     * Otherwise, null
+     */
+    private static ChannelDetections findUpToDateDetections(ImageChannelTools channel,
+            String fingerprint,
+            PathObjectHierarchy hierarchy,
+            Project<BufferedImage> project,
+            QuPathGUI qupath) {
+        if (fingerprint == null) {
+            return null;
+        }
+        try {
+            ChannelDetections previous = new ChannelDetections(channel, hierarchy, project, qupath);
+            return previous.hasFingerprint(fingerprint) ? previous : null;
+        } catch (NoCellContainersFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a fingerprint of the overlaps between the given detections, or null if any of them has no fingerprint
+     */
+    private static String getOverlapsFingerprint(ChannelDetections control,
+            List<ChannelDetections> others,
+            Map<ChannelDetections, String> fingerprints) {
+        if (!fingerprints.containsKey(control) || !others.stream().allMatch(fingerprints::containsKey)) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder("control=").append(fingerprints.get(control));
+        for (ChannelDetections other : others) {
+            text.append(",").append(fingerprints.get(other));
+        }
+        return UUID.nameUUIDFromBytes(text.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static OverlappingDetections findUpToDateOverlaps(ChannelDetections control,
+            List<AbstractDetections> others,
+            String fingerprint,
+            PathObjectHierarchy hierarchy,
+            Project<BufferedImage> project,
+            QuPathGUI qupath) {
+        try {
+            OverlappingDetections previous = new OverlappingDetections(control, others, false, hierarchy, project,
+                    qupath);
+            return previous.hasFingerprint(fingerprint) ? previous : null;
+        } catch (NoCellContainersFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the results were exported
+     */
+    private static boolean exportResults(List<ChannelDetections> allDetections,
+            List<OverlappingDetections> overlaps,
+            ImageData<BufferedImage> imageData,
+            Project<BufferedImage> project,
+            ProjectImageEntry<BufferedImage> entry,
+            ProjectsConfig config,
+            ExperimentResultsStore store) {
+        var hierarchy = imageData.getHierarchy();
+        String atlasName = config.getAtlasName();
+        if (atlasName == null) {
+            atlasName = "allen_mouse_10um_java";
+        }
+
+        if (!AtlasManager.isImported(atlasName, hierarchy)) {
+            logger.warn("No atlas '{}' imported for {}", atlasName, entry.getImageName());
+            return false;
+        }
+        try {
+            AtlasManager atlas = new AtlasManager(atlasName, hierarchy);
+            atlas.fixExclusions();
+            String imageName = sanitizeFileName(entry.getImageName());
+            Path projectDir = Projects.getBaseDirectory(project).toPath();
+            String extension = config.isBinaryResults() ? RegionResultsWriter.BINARY_EXTENSION : ".tsv";
+            Path resultsPath = projectDir.resolve("results").resolve(imageName + "_regions" + extension);
+            Path exclusionsPath = projectDir.resolve("regions_to_exclude")
+                    .resolve(imageName + "_regions_to_exclude.txt");
+            List<AbstractDetections> detections = concat(allDetections, overlaps);
+            RegionResultsWriter results = atlas.getResults(detections, imageData, entry);
+            if (!atlas.saveResults(results, resultsPath.toFile())) {
+                return false;
+            }
+            atlas.saveExcludedRegions(exclusionsPath.toFile());
+            if (config.isExportDetections()) {
+                Path detectionsPath = projectDir.resolve("results")
+                        .resolve(imageName + "_detections" + DetectionsWriter.EXTENSION);
+                if (!exportDetections(atlas, detections, imageData, config, detectionsPath)) {
+                    return false;
+                }
+            }
+            if (store != null) {
+                try {
+                    store.write(getProjectName(project), entry.getID(), entry.getImageName(), results);
+                } catch (IOException e) {
+                    logger.error("Failed to store the results of {} in {}: {}", entry.getImageName(),
+                            store.getDirectory(), e.getMessage());
+                    return false;
+                }
             }
+            return true;
+        } catch (RuntimeException e) {
+            logger.error("Failed to export results for {}: {}", entry.getImageName(), e.getMessage());
+            return false;
         }
+    }
 
-        if (enablePixelClassification) {
-            PixelClassifierRunner.runPixelClassifiers(qupath, imageData, project, entry, config,
-                    new ArrayList<>(allDetections), export);
+    /**
+     * Streams each detection of the channels and of their overlaps to a file, with the brain region containing it.
+     * @return true if the detections were exported
+     */
+    private static boolean exportDetections(AtlasManager atlas,
+            List<AbstractDetections> detections,
+            ImageData<BufferedImage> imageData,
+            ProjectsConfig config,
+            Path file) {
+        // the regions are in the same order as the rows of the results
+        RegionLocator locator = new RegionLocator(atlas.flatten(detections));
+        List<PathClass> classes = detections.stream()
+                .flatMap(d -> d.getDetectionsPathClasses().stream())
+                .toList();
+        // the measurements are named after the image channels, renamed as configured
+        List<ChannelDetectionsConfig> channelConfigs = Optional.ofNullable(config.getChannelDetections())
+                .orElse(List.of()).stream()
+                .filter(channel -> channel.isEnableCellDetection()
+                        && channel.getName() != null && !channel.getName().isBlank())
+                .toList();
+        List<String> channels = channelConfigs.stream().map(ChannelDetectionsConfig::getName).toList();
+        boolean cellExpansion = channelConfigs.stream()
+                .anyMatch(channel -> channel.getParameters().getCellExpansionMicrons() > 0);
+        DetectionsWriter writer = new DetectionsWriter(locator, classes,
+                DetectionsWriter.getMeanMeasurements(channels, cellExpansion),
+                imageData.getServerMetadata().getPixelCalibration());
+        try {
+            Files.createDirectories(file.getParent());
+            long nDetections = writer.write(detections, file);
+            logger.info("Detections '{}' saved under '{}', contains {} detections", file.getFileName(),
+                    file.getParent(), nDetections);
+            return true;
+        } catch (IOException e) {
+            logger.error("Could not save detections '{}': {}", file.getFileName(), e.getMessage());
+            return false;
         }
     }
 
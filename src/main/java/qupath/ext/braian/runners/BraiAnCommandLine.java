@@ -0,0 +1,263 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian.runners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.ext.braian.ExclusionReport;
+import qupath.ext.braian.config.ProjectsConfig;
+import qupath.ext.braian.utils.ProjectDiscoveryService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command-line entry point of BraiAn's batch runners, for machines without a display.
+ * <p>
+ * It runs the same engine used by the GUI, without starting the JavaFX toolkit. With QuPath's
+ * libraries and this extension in the classpath:
+ * <pre>
+ * java -cp "QuPath/lib/app/*:qupath-extension-braian.jar" qupath.ext.braian.runners.BraiAnCommandLine \
+ *     detect --parallel 16 /path/to/experiment
+ * </pre>
+ * Each path may either be a directory containing QuPath projects in its immediate subdirectories
+ * (see {@link ProjectDiscoveryService#discoverProjectFiles(Path)}) or a QuPath project file.
+ * <p>
+ * With {@code --shared}, the same command can be started on several machines sharing the experiment directory:
+ * the images are then split among them through a {@link SharedWorkQueue}.
+ *
+ * @see BraiAnAnalysisRunner#runProjects(List, ProjectsConfig, Path)
+ * @see AutoExcludeEmptyRegionsRunner#runProjects(List, List, boolean, double)
+ * @see ABBAImporterRunner#runProjects(List)
+ */
+public final class BraiAnCommandLine {
+    private static final Logger logger = LoggerFactory.getLogger(BraiAnCommandLine.class);
+    private static final String CONFIG_FILENAME = "BraiAn.yml";
+    private static final String QUEUE_DIRECTORY = ".braian-queue";
+
+    private static final String USAGE = """
+            Usage: BraiAnCommandLine <command> [options] <path>...
+
+            Commands:
+              detect        detects, classifies and overlaps cells, then exports the results of each image
+              exclude       automatically excludes the atlas regions with no signal
+              import-atlas  imports the atlas annotations from ABBA (requires the ABBA extension)
+
+            <path> is either a directory containing QuPath projects, or a QuPath project file.
+
+            Options:
+              --config <file>      the BraiAn.yml to use (detect). Defaults to the one in the first
+                                   directory, or in the parent directory of the first project
+              --parallel <n>       the number of images analysed concurrently (detect).
+                                   Overrides maxParallelImages of BraiAn.yml
+              --threads <n>        the number of threads detecting cells, shared by all images (detect).
+                                   Overrides maxTileThreads of BraiAn.yml
+              --profile            writes where time and memory are spent on each image in results/_perf (detect)
+              --restart            analyses all images from scratch, instead of resuming the previous run (detect).
+                                   With --shared, use it only on the first process, before starting the others
+              --shared             shares the images with other processes running the same command (detect),
+                                   through a work queue in the experiment directory
+              --worker-id <id>     identifies this process in the shared queue (default: <host>-<pid>)
+              --stale-after <s>    seconds after which the images claimed by a dead process are reclaimed
+                                   (default: 300)
+              --channels <a,b,..>  the channels to evaluate (exclude, required)
+              --max                uses the maximum intensity across channels (exclude)
+              --multiplier <x>     multiplier applied to the adaptive threshold (exclude, default: 1.0)
+            """;
+
+    private BraiAnCommandLine() {
+    }
+
+    /**
+     * Runs a BraiAn command on a list of QuPath projects.
+     * It exits with status 0 on success, 1 on failure and 2 on invalid arguments.
+     *
+     * @param args the command, its options and the paths to the projects. See {@code --help}
+     */
+    public static void main(String[] args) {
+        int status;
+        try {
+            status = run(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            status = 2;
+        } catch (RuntimeException e) {
+            logger.error("BraiAn failed: {}", e.getMessage(), e);
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    private static int run(String[] args) {
+        if (args.length == 0 || args[0].equals("-h") || args[0].equals("--help")) {
+            System.out.print(USAGE);
+            return 0;
+        }
+        String command = args[0];
+        Path configFile = null;
+        Integer nParallel = null;
+        Integer nThreads = null;
+        boolean profile = false;
+        boolean restart = false;
+        boolean shared = false;
+        String workerId = SharedWorkQueue.newWorkerId();
+        Duration staleTimeout = SharedWorkQueue.DEFAULT_STALE_TIMEOUT;
+        List<String> channels = List.of();
+        boolean useMax = false;
+        double multiplier = 1.0;
+        List<Path> paths = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--config" -> configFile = Path.of(getValue(args, ++i, "--config"));
+                case "--parallel" -> nParallel = parseInt(getValue(args, ++i, "--parallel"), "--parallel");
+                case "--threads" -> nThreads = parseInt(getValue(args, ++i, "--threads"), "--threads");
+                case "--profile" -> profile = true;
+                case "--restart" -> restart = true;
+                case "--shared" -> shared = true;
+                case "--worker-id" -> workerId = getValue(args, ++i, "--worker-id");
+                case "--stale-after" -> staleTimeout = Duration.ofSeconds(
+                        parseInt(getValue(args, ++i, "--stale-after"), "--stale-after"));
+                case "--channels" -> channels = Arrays.stream(getValue(args, ++i, "--channels").split(","))
+                        .map(String::strip)
+                        .filter(name -> !name.isEmpty())
+                        .toList();
+                case "--max" -> useMax = true;
+                case "--multiplier" -> multiplier = parseDouble(getValue(args, ++i, "--multiplier"), "--multiplier");
+                default -> {
+                    if (args[i].startsWith("--"))
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                    paths.add(Path.of(args[i]));
+                }
+            }
+        }
+        if (paths.isEmpty())
+            throw new IllegalArgumentException("No project or directory given.");
+        List<Path> projectFiles = resolveProjectFiles(paths);
+
+        switch (command) {
+            case "detect" -> {
+                ProjectsConfig config = readConfig(configFile != null ? configFile : findConfig(paths.get(0)));
+                if (nParallel != null) {
+                    if (nParallel < 1)
+                        throw new IllegalArgumentException("--parallel must be >0. Instead got --parallel=" + nParallel);
+                    config.setMaxParallelImages(nParallel);
+                }
+                if (nThreads != null) {
+                    if (nThreads < 1)
+                        throw new IllegalArgumentException("--threads must be >0. Instead got --threads=" + nThreads);
+                    config.setMaxTileThreads(nThreads);
+                }
+                if (profile) {
+                    config.setProfiling(true);
+                }
+                Path root = findRoot(paths.get(0));
+                if (restart) {
+                    deleteJournals(root, projectFiles);
+                }
+                if (shared) {
+                    BraiAnAnalysisRunner.runProjects(projectFiles, config,
+                            openQueue(root, RunJournal.hash(config), staleTimeout, workerId), root);
+                } else {
+                    BraiAnAnalysisRunner.runProjects(projectFiles, config, root);
+                }
+            }
+            case "exclude" -> {
+                if (channels.isEmpty())
+                    throw new IllegalArgumentException("exclude requires --channels.");
+                List<ExclusionReport> reports = AutoExcludeEmptyRegionsRunner.runProjects(projectFiles, channels,
+                        useMax, multiplier);
+                for (ExclusionReport report : reports)
+                    System.out.println(String.join("\t", report.projectName(), report.imageName(),
+                            report.regionName(), String.valueOf(report.percentile())));
+            }
+            case "import-atlas" -> ABBAImporterRunner.runProjects(projectFiles);
+            default -> throw new IllegalArgumentException("Unknown command: " + command);
+        }
+        return 0;
+    }
+
+    private static List<Path> resolveProjectFiles(List<Path> paths) {
+        List<Path> projectFiles = new ArrayList<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                List<Path> discovered = ProjectDiscoveryService.discoverProjectFiles(path);
+                if (discovered.isEmpty())
+                    throw new IllegalArgumentException("No QuPath projects found in " + path);
+                projectFiles.addAll(discovered);
+            } else if (Files.isRegularFile(path)) {
+                projectFiles.add(path);
+            } else {
+                throw new IllegalArgumentException("No such project or directory: " + path);
+            }
+        }
+        return projectFiles;
+    }
+
+    private static void deleteJournals(Path root, List<Path> projectFiles) {
+        BraiAnAnalysisRunner.deleteJournals(projectFiles, root);
+        try {
+            RunJournal.deleteDirectory(root.resolve(QUEUE_DIRECTORY));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to delete the journals of the previous runs: " + e.getMessage(), e);
+        }
+    }
+
+    private static Path findRoot(Path path) {
+        // a project file is in its own directory, next to the other projects of the experiment
+        return Files.isDirectory(path) ? path : path.toAbsolutePath().getParent().getParent();
+    }
+
+    private static Path findConfig(Path path) {
+        return findRoot(path).resolve(CONFIG_FILENAME);
+    }
+
+    private static SharedWorkQueue openQueue(Path root, String configHash, Duration staleTimeout, String workerId) {
+        Duration heartbeat = SharedWorkQueue.DEFAULT_HEARTBEAT.compareTo(staleTimeout) < 0 ?
+                SharedWorkQueue.DEFAULT_HEARTBEAT : staleTimeout.dividedBy(10);
+        try {
+            // each configuration has its own queue: a run with a different one does not find its images completed
+            Path directory = root.resolve(QUEUE_DIRECTORY).resolve(configHash.substring(0, 16));
+            return new SharedWorkQueue(directory, workerId, heartbeat, staleTimeout);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open the work queue in " + root + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static ProjectsConfig readConfig(Path configFile) {
+        try {
+            return ProjectsConfig.read(configFile);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to load " + configFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static String getValue(String[] args, int i, String option) {
+        if (i >= args.length)
+            throw new IllegalArgumentException(option + " requires a value.");
+        return args[i];
+    }
+
+    private static int parseInt(String value, String option) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " must be an integer. Instead got " + option + "=" + value);
+        }
+    }
+
+    private static double parseDouble(String value, String option) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " must be a number. Instead got " + option + "=" + value);
+        }
+    }
+}
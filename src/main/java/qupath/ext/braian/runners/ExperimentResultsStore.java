@@ -0,0 +1,207 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian.runners;
+
+import qupath.ext.braian.RegionResultsWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The region results of all the images of an experiment, gathered in a single directory at the root of the
+ * experiment, so that they can be read without walking the folder of each project.
+ * <p>
+ * The results of each image are a partition of the store, written atomically in BraiAn's binary columnar format
+ * (see {@link RegionResultsWriter#writeBinary(Path)}) to {@code <project>/<image ID>}{@value RegionResultsWriter#BINARY_EXTENSION}.
+ * Each written partition is then appended to the {@value #INDEX_FILENAME} file, a tab-separated table with the
+ * columns {@code Project}, {@code Image ID}, {@code Image Name}, {@code Partition}, {@code Rows} and {@code Bytes}.
+ * The partition is relative to the store directory, and the last line of an image replaces all its previous ones.
+ * A line with an empty partition removes the image from the store.
+ * Appends are serialised with a file lock, so the store can be shared by several processes, and a line is complete
+ * only once it ends with a line feed.
+ */
+final class ExperimentResultsStore {
+    static final String DIRECTORY = "_store";
+    static final String INDEX_FILENAME = "index.tsv";
+    private static final String INDEX_HEADER = "Project\tImage ID\tImage Name\tPartition\tRows\tBytes\n";
+    // file locks are held by the whole JVM: the threads of a process append one at a time
+    private static final Object INDEX_LOCK = new Object();
+
+    /**
+     * A partition of the store, as listed in its index.
+     * @param project the name of the project of the image
+     * @param imageId the ID of the image in its project
+     * @param imageName the name of the image
+     * @param file the file of the partition
+     * @param rows the number of brain regions in the partition
+     * @param bytes the size of the partition file
+     */
+    record Partition(String project, String imageId, String imageName, Path file, int rows, long bytes) {
+    }
+
+    private final Path directory;
+
+    /**
+     * @param directory the directory of the store. It is created when the first partition is written
+     */
+    ExperimentResultsStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param experimentDir the directory containing all the projects of an experiment
+     * @return the store of the experiment
+     */
+    static ExperimentResultsStore of(Path experimentDir) {
+        return new ExperimentResultsStore(experimentDir.resolve("results").resolve(DIRECTORY));
+    }
+
+    /**
+     * @return the directory of the store
+     */
+    Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * @return the file listing all the partitions of the store
+     */
+    Path getIndexFile() {
+        return this.directory.resolve(INDEX_FILENAME);
+    }
+
+    private Path getPartitionFile(String project, String imageId) {
+        return this.directory.resolve(project).resolve(imageId + RegionResultsWriter.BINARY_EXTENSION);
+    }
+
+    /**
+     * @param project the name of the project of the image
+     * @param imageId the ID of the image in its project
+     * @return true if the store has results for the given image
+     */
+    boolean contains(String project, String imageId) {
+        return Files.isRegularFile(this.getPartitionFile(project, imageId));
+    }
+
+    /**
+     * Writes the results of an image in its partition, replacing any previous one, and appends it to the index.
+     * @param project the name of the project of the image
+     * @param imageId the ID of the image in its project
+     * @param imageName the name of the image
+     * @param results the results of each brain region of the image
+     * @return the written partition
+     * @throws IOException if the partition or the index could not be written
+     */
+    Partition write(String project, String imageId, String imageName, RegionResultsWriter results) throws IOException {
+        Path file = this.getPartitionFile(project, imageId);
+        Files.createDirectories(file.getParent());
+        // the partition is replaced atomically, so that readers never see a partial one
+        Path temporary = Files.createTempFile(file.getParent(), imageId, ".tmp");
+        try {
+            results.writeBinary(temporary);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        Partition partition = new Partition(project, imageId, imageName, file, results.getRowCount(), Files.size(file));
+        this.append(partition);
+        return partition;
+    }
+
+    /**
+     * Removes the results of an image from the store, if it has any.
+     * @param project the name of the project of the image
+     * @param imageId the ID of the image in its project
+     * @throws IOException if the partition could not be deleted or the index could not be written
+     */
+    void delete(String project, String imageId) throws IOException {
+        if (!this.contains(project, imageId))
+            return;
+        Files.delete(this.getPartitionFile(project, imageId));
+        this.append(String.join("\t", clean(project), clean(imageId), "", "", "0", "0") + "\n");
+    }
+
+    /**
+     * Removes the results of all the images of a project from the store.
+     * @param project the name of the project
+     * @throws IOException if a partition could not be deleted or the index could not be written
+     * @see #delete(String, String)
+     */
+    void delete(String project) throws IOException {
+        for (Partition partition : this.getPartitions()) {
+            if (partition.project().equals(project))
+                this.delete(project, partition.imageId());
+        }
+    }
+
+    private void append(Partition partition) throws IOException {
+        this.append(String.join("\t",
+                clean(partition.project()),
+                clean(partition.imageId()),
+                clean(partition.imageName()),
+                this.directory.relativize(partition.file()).toString().replace('\\', '/'),
+                String.valueOf(partition.rows()),
+                String.valueOf(partition.bytes())) + "\n");
+    }
+
+    private void append(String line) throws IOException {
+        synchronized (INDEX_LOCK) {
+            try (FileChannel channel = FileChannel.open(this.getIndexFile(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                 FileLock ignored = channel.lock()) {
+                ByteBuffer buffer = ByteBuffer.wrap(((channel.size() == 0 ? INDEX_HEADER : "") + line)
+                        .getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+        }
+    }
+
+    private static String clean(String field) {
+        return field == null ? "" : field.replaceAll("[\t\r\n]", " ");
+    }
+
+    /**
+     * Reads the index of the store.
+     * @return the latest partition of each image, in the order they were first written
+     * @throws IOException if the index could not be read
+     */
+    List<Partition> getPartitions() throws IOException {
+        String index;
+        try {
+            index = Files.readString(this.getIndexFile(), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+        Map<String, Partition> partitions = new LinkedHashMap<>();
+        // the last line is incomplete if another process is appending it
+        String[] lines = index.substring(0, index.lastIndexOf('\n') + 1).split("\n");
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].split("\t", -1);
+            if (fields.length != 6)
+                continue;
+            if (fields[3].isEmpty()) {
+                partitions.remove(fields[0] + "\t" + fields[1]);
+                continue;
+            }
+            Partition partition = new Partition(fields[0], fields[1], fields[2], this.directory.resolve(fields[3]),
+                    Integer.parseInt(fields[4]), Long.parseLong(fields[5]));
+            partitions.put(fields[0] + "\t" + fields[1], partition);
+        }
+        return new ArrayList<>(partitions.values());
+    }
+}
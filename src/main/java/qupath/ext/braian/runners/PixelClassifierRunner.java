@@ -5,12 +5,12 @@
 
 package qupath.ext.braian.runners;
 
-import ij.measure.ResultsTable;
 import javafx.application.Platform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.ext.braian.AbstractDetections;
 import qupath.ext.braian.AtlasManager;
+import qupath.ext.braian.RegionResultsWriter;
 import qupath.ext.braian.config.ChannelDetectionsConfig;
 import qupath.ext.braian.config.PixelClassifierConfig;
 import qupath.ext.braian.config.ProjectsConfig;
@@ -161,7 +161,7 @@ public final class PixelClassifierRunner {
         }
 
         Path projectDir = Projects.getBaseDirectory(project).toPath();
-        exportResults(projectDir, entry, imageData, baseRegions, measurementIds);
+        exportResults(projectDir, entry, imageData, baseRegions, measurementIds, config.isBinaryResults());
     }
 
     private static Path resolveClassifierPath(Project<?> project, String classifierName) throws FileNotFoundException {
@@ -175,8 +175,8 @@ public final class PixelClassifierRunner {
             ProjectImageEntry<BufferedImage> entry,
             ImageData<BufferedImage> imageData,
             List<PathObject> regions,
-            List<String> measurementIds) {
-        ResultsTable results = new ResultsTable();
+            List<String> measurementIds,
+            boolean binary) {
         ObservableMeasurementTableData ob = new ObservableMeasurementTableData();
         ob.setImageData(imageData, regions);
 
@@ -184,35 +184,38 @@ public final class PixelClassifierRunner {
         String imageName = sanitizeFileName(rawImageName);
         String areaColumn = "Area " + AtlasManager.um + "^2";
 
-        for (PathObject region : regions) {
-            results.incrementCounter();
-            results.addValue("Image Name", rawImageName);
-
-            Map<String, String> metadata = entry.getMetadata();
-            if (metadata != null && !metadata.isEmpty()) {
-                for (String key : metadata.keySet()) {
-                    results.addValue("Metadata_" + key, metadata.get(key));
-                }
-            }
+        RegionResultsWriter results = new RegionResultsWriter(regions.size());
+        results.addConstantColumn("Image Name", rawImageName);
 
-            String regionName = region.getName();
-            results.addValue("Region", regionName == null ? "" : regionName);
-            if (region.getPathClass() != null) {
-                results.addValue("Classification", region.getPathClass().toString());
+        Map<String, String> metadata = entry.getMetadata();
+        if (metadata != null && !metadata.isEmpty()) {
+            for (String key : metadata.keySet()) {
+                results.addConstantColumn("Metadata_" + key, metadata.get(key));
             }
+        }
 
-            if (ob.isNumericMeasurement(areaColumn)) {
-                double areaValue = ob.getNumericValue(region, areaColumn);
-                results.addValue(areaColumn.replace(AtlasManager.um, "um"), areaValue);
-            }
+        String[] names = new String[regions.size()];
+        String[] classifications = new String[regions.size()];
+        for (int i = 0; i < regions.size(); i++) {
+            PathObject region = regions.get(i);
+            names[i] = region.getName() == null ? "" : region.getName();
+            classifications[i] = region.getPathClass() == null ? null : region.getPathClass().toString();
+        }
+        results.addStringColumn("Region", names);
+        if (regions.stream().anyMatch(region -> region.getPathClass() != null)) {
+            results.addStringColumn("Classification", classifications);
+        }
 
-            for (String measurementId : measurementIds) {
-                double value = ob.getNumericValue(region, measurementId);
-                results.addValue(measurementId, value);
-            }
+        if (ob.isNumericMeasurement(areaColumn)) {
+            results.addDoubleColumn(areaColumn.replace(AtlasManager.um, "um"), getNumericValues(ob, regions, areaColumn));
         }
 
-        Path resultsPath = projectDir.resolve("results").resolve(imageName + "_pixel_classifiers.tsv");
+        for (String measurementId : measurementIds) {
+            results.addDoubleColumn(measurementId, getNumericValues(ob, regions, measurementId));
+        }
+
+        String extension = binary ? RegionResultsWriter.BINARY_EXTENSION : ".tsv";
+        Path resultsPath = projectDir.resolve("results").resolve(imageName + "_pixel_classifiers" + extension);
         try {
             Files.createDirectories(resultsPath.getParent());
         } catch (IOException e) {
@@ -220,12 +223,25 @@ public final class PixelClassifierRunner {
             return;
         }
 
-        boolean saved = results.save(resultsPath.toString());
-        if (saved) {
+        try {
+            if (binary) {
+                results.writeBinary(resultsPath);
+            } else {
+                results.write(resultsPath);
+            }
             logger.info("Pixel classifier results saved under '{}'", resultsPath);
-        } else {
-            logger.warn("Failed to save pixel classifier results under '{}'", resultsPath);
+        } catch (IOException e) {
+            logger.warn("Failed to save pixel classifier results under '{}': {}", resultsPath, e.getMessage());
+        }
+    }
+
+    private static double[] getNumericValues(ObservableMeasurementTableData ob, List<PathObject> regions,
+            String measurement) {
+        double[] values = new double[regions.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ob.getNumericValue(regions.get(i), measurement);
         }
+        return values;
     }
 
     private static List<PathObject> filterRegions(List<PathObject> regions, List<String> filter) {
@@ -0,0 +1,259 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian.runners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.ext.braian.config.ChannelClassifierConfig;
+import qupath.ext.braian.config.ChannelDetectionsConfig;
+import qupath.ext.braian.config.PixelClassifierConfig;
+import qupath.ext.braian.config.ProjectsConfig;
+import qupath.ext.braian.utils.BraiAn;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+import qupath.lib.projects.Projects;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Journal of the analysis stages completed on each image of a project, so that an interrupted batch can be resumed.
+ * <p>
+ * Each image has its own record in the {@value #DIRECTORY} directory of the project. A record is valid only as long as
+ * the effective {@link ProjectsConfig}, together with the classifier files it refers to, has the same hash and the
+ * image data was not modified since it was saved by the run that wrote the record. Otherwise, all stages are computed
+ * again.
+ */
+final class RunJournal {
+    private static final Logger logger = LoggerFactory.getLogger(RunJournal.class);
+    static final String DIRECTORY = ".braian-journal";
+    private static final String IMAGE_DATA_FILENAME = "data.qpdata";
+
+    /**
+     * The stages of the analysis of an image, in the order they are computed.
+     * A stage can be skipped only if all the previous ones are skipped as well.
+     */
+    enum Stage {
+        DETECT,
+        CLASSIFY,
+        OVERLAP,
+        EXPORT,
+        PIXEL_CLASSIFICATION
+    }
+
+    private final Path directory;
+    // null if the configuration could not be hashed: no record is then valid
+    private final String configHash;
+
+    private RunJournal(Path directory, String configHash) {
+        this.directory = directory;
+        this.configHash = configHash;
+    }
+
+    /**
+     * @param project the project whose images are analysed
+     * @param config the configuration used to analyse them
+     * @return the journal of the project. If a classifier used by {@code config} cannot be read, the journal
+     * never skips any stage and records nothing
+     */
+    static RunJournal open(Project<?> project, ProjectsConfig config) {
+        Path directory = getDirectory(Projects.getBaseDirectory(project).toPath());
+        try {
+            return new RunJournal(directory, hash(config, project));
+        } catch (UncheckedIOException e) {
+            logger.warn("Failed to read the classifiers of {}, all its images are analysed again: {}",
+                    project.getName(), e.getCause().getMessage());
+            return new RunJournal(directory, null);
+        }
+    }
+
+    private static Path getDirectory(Path projectDirectory) {
+        return projectDirectory.resolve(DIRECTORY);
+    }
+
+    /**
+     * @param config the configuration of a run
+     * @return a hash of all the settings of {@code config} that affect the results
+     */
+    static String hash(ProjectsConfig config) {
+        return HexFormat.of().formatHex(newDigest(config).digest());
+    }
+
+    /**
+     * @param config the configuration of a run
+     * @param project the project analysed with {@code config}
+     * @return a hash of all the settings of {@code config} that affect the results, and of the content of the
+     * object and pixel classifiers it uses in {@code project}
+     */
+    static String hash(ProjectsConfig config, Project<?> project) {
+        MessageDigest digest = newDigest(config);
+        for (ChannelDetectionsConfig channel : Optional.ofNullable(config.getChannelDetections()).orElse(List.of())) {
+            for (ChannelClassifierConfig classifier : Optional.ofNullable(channel.getClassifiers()).orElse(List.of())) {
+                if (classifier.getName() != null && !classifier.getName().equalsIgnoreCase("all"))
+                    update(digest, project, classifier.getName() + ".json");
+            }
+            for (PixelClassifierConfig classifier : Optional.ofNullable(channel.getPixelClassifiers()).orElse(List.of())) {
+                String name = classifier.getClassifierName() == null ? null : classifier.getClassifierName().strip();
+                if (name != null && !name.isEmpty())
+                    update(digest, project, name.toLowerCase().endsWith(".json") ? name : name + ".json");
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest(ProjectsConfig config) {
+        // the number of parallel images and threads, and profiling, do not change the results, so they may differ between runs
+        String yaml = ProjectsConfig.toYaml(config)
+                .replaceAll("(?m)^(maxParallelImages|maxTileThreads|profiling):.*$", "");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(yaml.getBytes(StandardCharsets.UTF_8));
+            return digest;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM implements SHA-256
+        }
+    }
+
+    private static void update(MessageDigest digest, Project<?> project, String fileName) {
+        digest.update(("\n" + fileName + "\n").getBytes(StandardCharsets.UTF_8));
+        Optional<Path> file = BraiAn.resolvePathIfPresent(project, fileName);
+        try {
+            // a missing classifier fails the analysis: its record is never used
+            digest.update(file.isPresent() ? Files.readAllBytes(file.get()) : "missing".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes the journal of a project, so that the next run analyses all its images from scratch.
+     * @param projectDirectory the directory of the project
+     * @throws IOException if the journal cannot be deleted
+     */
+    static void delete(Path projectDirectory) throws IOException {
+        deleteDirectory(getDirectory(projectDirectory));
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory))
+            return;
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(file);
+        }
+    }
+
+    /**
+     * @param entry the image
+     * @return the stages that do not need to be computed again on the saved data of the image.
+     * It is empty if the image was never analysed with the current configuration, or if it was modified since.
+     */
+    Set<Stage> getCompletedStages(ProjectImageEntry<?> entry) {
+        Set<Stage> completed = EnumSet.noneOf(Stage.class);
+        Properties record = this.read(entry);
+        if (record == null)
+            return completed;
+        Set<String> recorded = Set.of(record.getProperty("stages", "").split(","));
+        for (Stage stage : Stage.values()) {
+            if (!recorded.contains(stage.name()))
+                break;
+            completed.add(stage);
+        }
+        return completed;
+    }
+
+    /**
+     * @param entry the image
+     * @return true if the {@link Stage#EXPORT} stage completed on the saved data of the image exported the results
+     * of its brain regions. False if there was nothing to export, or if the record is not valid anymore
+     * @see #getCompletedStages(ProjectImageEntry)
+     */
+    boolean isExported(ProjectImageEntry<?> entry) {
+        Properties record = this.read(entry);
+        return record != null && Boolean.parseBoolean(record.getProperty("exported"));
+    }
+
+    private Properties read(ProjectImageEntry<?> entry) {
+        Path imageData = getImageDataFile(entry);
+        if (imageData == null || this.configHash == null)
+            return null;
+        Properties record = new Properties();
+        try (var reader = Files.newBufferedReader(this.directory.resolve(entry.getID()), StandardCharsets.UTF_8)) {
+            record.load(reader);
+            String modified = String.valueOf(Files.getLastModifiedTime(imageData).toMillis());
+            if (!this.configHash.equals(record.getProperty("config")) || !modified.equals(record.getProperty("modified")))
+                return null;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Failed to read the journal of {}: {}", entry.getImageName(), e.getMessage());
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * Records the stages completed on an image, with nothing exported. It must be called after its data was saved.
+     * @param entry the image
+     * @param stages the stages whose results are in the saved data of the image
+     * @throws UncheckedIOException if the record cannot be written
+     * @see #record(ProjectImageEntry, Set, boolean)
+     */
+    void record(ProjectImageEntry<?> entry, Set<Stage> stages) {
+        this.record(entry, stages, false);
+    }
+
+    /**
+     * Records the stages completed on an image. It must be called after its data was saved.
+     * @param entry the image
+     * @param stages the stages whose results are in the saved data of the image
+     * @param exported whether the results of the brain regions of the image were exported
+     * @throws UncheckedIOException if the record cannot be written
+     */
+    void record(ProjectImageEntry<?> entry, Set<Stage> stages, boolean exported) {
+        Path imageData = getImageDataFile(entry);
+        if (imageData == null || this.configHash == null)
+            return;
+        try {
+            Properties record = new Properties();
+            record.setProperty("config", this.configHash);
+            record.setProperty("modified", String.valueOf(Files.getLastModifiedTime(imageData).toMillis()));
+            record.setProperty("stages", String.join(",", stages.stream().map(Stage::name).toList()));
+            record.setProperty("exported", String.valueOf(exported));
+            Files.createDirectories(this.directory);
+            // the record is replaced atomically, so that a crash never leaves a partial one
+            Path temporary = Files.createTempFile(this.directory, entry.getID(), ".tmp");
+            try (var writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                record.store(writer, entry.getImageName());
+            }
+            Files.move(temporary, this.directory.resolve(entry.getID()),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path getImageDataFile(ProjectImageEntry<?> entry) {
+        Path entryPath = entry.getEntryPath();
+        if (entryPath == null)
+            return null;
+        return entryPath.resolve(IMAGE_DATA_FILENAME);
+    }
+}
@@ -0,0 +1,405 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian.runners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A queue of work units shared by several processes, possibly on different machines, through a common directory.
+ * <p>
+ * Each unit is claimed by atomically creating a {@code <unit>.claim} file holding the ID of its owner, and it is
+ * marked as completed with a {@code <unit>.done} file. While a unit is being processed, its claim is kept alive by a
+ * heartbeat that refreshes the file's modification time, as long as the file is still owned by the worker. When a
+ * worker dies, its claims stop being refreshed and, after they have been stale for a while, other workers can
+ * reclaim them by atomically renaming them away.
+ * <p>
+ * A claim is stale once the same owner and modification time were observed for longer than the stale timeout,
+ * as measured by the observing worker. The modification times are only compared with each other, never with the
+ * local clock, so the clocks of the machines sharing the queue do not need to be synchronised.
+ * <p>
+ * It only relies on atomic file creation, hard links and renaming, so it works on local directories as well as on
+ * network file systems that guarantee them (e.g. NFSv3 or newer).
+ *
+ * @see BraiAnAnalysisRunner#runProjects(java.util.List, qupath.ext.braian.config.ProjectsConfig, SharedWorkQueue)
+ */
+public class SharedWorkQueue implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SharedWorkQueue.class);
+    private static final String CLAIM_EXTENSION = ".claim";
+    private static final String DONE_EXTENSION = ".done";
+
+    /**
+     * The default interval at which claims are refreshed.
+     */
+    public static final Duration DEFAULT_HEARTBEAT = Duration.ofSeconds(30);
+    /**
+     * The default time after which a claim that was not refreshed is considered abandoned.
+     */
+    public static final Duration DEFAULT_STALE_TIMEOUT = Duration.ofMinutes(5);
+    /**
+     * The number of times a worker tries to claim and complete a unit, when the queue directory fails,
+     * before giving up on it.
+     */
+    public static final int MAX_CLAIM_ATTEMPTS = 3;
+
+    private final Path directory;
+    private final String workerId;
+    private final Duration heartbeat;
+    private final Duration staleTimeout;
+    // for each unit claimed by this worker, the number of consecutive heartbeats that found no claim file
+    private final Map<String, Integer> claimed = new ConcurrentHashMap<>();
+    // for each unit claimed by other workers, the last state of its claim and when it was first observed
+    private final Map<String, Observation> observed = new ConcurrentHashMap<>();
+    // for each unit that failed to be claimed, the number of failed attempts
+    private final Map<String, Integer> claimFailures = new ConcurrentHashMap<>();
+
+    private record Observation(String owner, FileTime modified, long nanoTime) {
+    }
+    private ScheduledExecutorService heartbeats;
+
+    /**
+     * Opens a work queue in {@code directory} with the default heartbeat and stale timeout.
+     * @param directory the directory shared by all workers. It is created if missing
+     * @param workerId an identifier unique among all the workers sharing the queue
+     * @throws IOException if the directory cannot be created
+     * @see #newWorkerId()
+     */
+    public SharedWorkQueue(Path directory, String workerId) throws IOException {
+        this(directory, workerId, DEFAULT_HEARTBEAT, DEFAULT_STALE_TIMEOUT);
+    }
+
+    /**
+     * Opens a work queue in {@code directory}.
+     * @param directory the directory shared by all workers. It is created if missing
+     * @param workerId an identifier unique among all the workers sharing the queue
+     * @param heartbeat the interval at which the claims of this worker are refreshed
+     * @param staleTimeout the time after which a claim that was not refreshed can be reclaimed.
+     *                     It must be longer than {@code heartbeat}
+     * @throws IOException if the directory cannot be created
+     */
+    public SharedWorkQueue(Path directory, String workerId, Duration heartbeat, Duration staleTimeout) throws IOException {
+        if (workerId == null || workerId.isBlank())
+            throw new IllegalArgumentException("workerId must not be blank. Instead got workerId=" + workerId);
+        if (heartbeat.isNegative() || heartbeat.isZero())
+            throw new IllegalArgumentException("heartbeat must be >0. Instead got heartbeat=" + heartbeat);
+        if (staleTimeout.compareTo(heartbeat) <= 0)
+            throw new IllegalArgumentException("staleTimeout must be >heartbeat. Instead got staleTimeout=" + staleTimeout);
+        this.directory = Files.createDirectories(directory);
+        this.workerId = workerId;
+        this.heartbeat = heartbeat;
+        this.staleTimeout = staleTimeout;
+    }
+
+    /**
+     * @return an identifier of the current process, made of the host name and the process ID
+     */
+    public static String newWorkerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    /**
+     * Builds the name of a unit that can be safely used as file name.
+     * @param parts the parts identifying the unit (e.g. the project and the image)
+     * @return the name of the unit
+     */
+    public static String getUnitName(String... parts) {
+        return String.join(".", parts).replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * @return the identifier of this worker
+     */
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * @return the interval at which the claims of this worker are refreshed
+     */
+    public Duration getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     * Starts refreshing the claims of this worker in a background thread.
+     * It does nothing if it was already started.
+     */
+    public synchronized void start() {
+        if (this.heartbeats != null)
+            return;
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "braian-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = this.heartbeat.toMillis();
+        this.heartbeats.scheduleAtFixedRate(this::refreshClaims, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshClaims() {
+        FileTime now = FileTime.from(Instant.now());
+        for (String unit : this.claimed.keySet()) {
+            Path claimFile = getClaimFile(unit);
+            String owner = readOwner(claimFile);
+            if (owner == null) {
+                // a worker that wrongly reclaimed the unit may be putting the claim back: check it again later
+                Integer misses = this.claimed.computeIfPresent(unit, (u, n) -> n + 1);
+                if (misses == null || misses < 2)
+                    continue;
+            } else if (owner.equals(this.workerId)) {
+                this.claimed.replace(unit, 0);
+                try {
+                    Files.setLastModifiedTime(claimFile, now);
+                } catch (IOException e) {
+                    logger.warn("Failed to refresh claim on {}: {}", unit, e.getMessage());
+                }
+                continue;
+            }
+            // the claim is not refreshed anymore, as it could keep alive the claim of the new owner
+            logger.warn("Claim on {} of worker {} was taken over by {}", unit, this.workerId,
+                    owner == null ? "another worker" : owner);
+            this.claimed.remove(unit);
+        }
+    }
+
+    /**
+     * Tries to claim a unit. It succeeds if the unit is not completed and it is either unclaimed or
+     * its claim is stale.
+     * @param unit the name of the unit
+     * @return true if this worker now owns the unit and has to process it
+     * @throws UncheckedIOException if the queue directory is not accessible
+     */
+    public boolean tryClaim(String unit) {
+        if (this.isDone(unit))
+            return false;
+        Path claimFile = getClaimFile(unit);
+        try {
+            if (!this.create(claimFile)) {
+                if (!this.reclaimIfStale(unit, claimFile) || !this.create(claimFile))
+                    return false;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // it may have been completed by another worker between the check and the claim
+        if (this.isDone(unit)) {
+            this.release(unit);
+            return false;
+        }
+        this.observed.remove(unit);
+        this.claimed.put(unit, 0);
+        return true;
+    }
+
+    /**
+     * Claims a unit and processes it, completing it once processed.
+     * <p>
+     * A unit whose task fails is completed as well, as it would most likely fail again on any worker: the failure
+     * is logged and the unit is never processed again. A unit that fails to be claimed, or to be marked as
+     * completed, {@value #MAX_CLAIM_ATTEMPTS} times is given up by this worker, and {@link #isDone(String)} from
+     * then on.
+     * @param unit the name of the unit
+     * @param task processes the unit. It returns false if the unit was taken over by another worker before its
+     *             results were saved, in which case the unit is left to the new owner
+     * @return true if this worker completed the unit
+     */
+    public boolean process(String unit, BooleanSupplier task) {
+        boolean claimed = false;
+        try {
+            if (!this.tryClaim(unit))
+                return false;
+            claimed = true;
+            boolean saved;
+            try {
+                saved = task.getAsBoolean();
+            } catch (Throwable e) {
+                logger.error("Failed processing {}, it will not be processed again", unit, e);
+                saved = true;
+            }
+            if (!saved)
+                return false;
+            this.complete(unit);
+            return true;
+        } catch (UncheckedIOException e) {
+            int attempts = this.claimFailures.merge(unit, 1, Integer::sum);
+            logger.warn("Failed to {} {} ({}/{} attempts): {}", claimed ? "complete" : "claim", unit, attempts,
+                    MAX_CLAIM_ATTEMPTS, e.getMessage());
+            return false;
+        } finally {
+            if (claimed)
+                this.release(unit);
+        }
+    }
+
+    /**
+     * @param unit the name of the unit
+     * @return true if this worker claimed the unit and no other worker took it over since.
+     * A worker should check it before saving the results of a unit
+     */
+    public boolean owns(String unit) {
+        return this.claimed.containsKey(unit) && this.workerId.equals(readOwner(getClaimFile(unit)));
+    }
+
+    private boolean create(Path claimFile) throws IOException {
+        // the claim is complete before it is visible, so no worker ever reads it without its owner
+        Path temporary = Files.createTempFile(this.directory, getUnitName(this.workerId), ".tmp");
+        try {
+            Files.writeString(temporary, this.workerId, StandardCharsets.UTF_8);
+            // differently from renaming, linking fails if the claim exists
+            Files.createLink(claimFile, temporary);
+            return true;
+        } catch (UnsupportedOperationException e) {
+            // without hard links, the owner is written right after the claim is created
+            Files.writeString(Files.createFile(claimFile), this.workerId, StandardCharsets.UTF_8);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private boolean reclaimIfStale(String unit, Path claimFile) throws IOException {
+        Observation current = observe(claimFile);
+        if (current == null)
+            return true; // released in the meantime
+        Observation previous = this.observed.merge(unit, current,
+                (old, now) -> old.owner().equals(now.owner()) && old.modified().equals(now.modified()) ? old : now);
+        if (System.nanoTime() - previous.nanoTime() < this.staleTimeout.toNanos())
+            return false;
+        // only one worker can rename the stale claim away, even if many noticed it at the same time
+        Path reclaimed = this.directory.resolve(unit + ".reclaimed-" + getUnitName(this.workerId) + "-" + System.nanoTime());
+        try {
+            Files.move(claimFile, reclaimed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false; // someone else reclaimed it
+        }
+        this.observed.remove(unit);
+        // between the observation and the move, another worker may have reclaimed the unit with a fresh claim
+        Observation moved = observe(reclaimed);
+        if (moved != null && (!moved.owner().equals(previous.owner()) || !moved.modified().equals(previous.modified()))) {
+            try {
+                Files.move(reclaimed, claimFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                logger.warn("Failed to give {} back to worker {}", unit, moved.owner());
+                Files.deleteIfExists(reclaimed);
+            }
+            return false;
+        }
+        logger.warn("Reclaiming {}, abandoned by worker {}", unit, previous.owner());
+        Files.deleteIfExists(reclaimed);
+        return true;
+    }
+
+    /**
+     * @return the owner and modification time of the claim, or null if it does not exist
+     */
+    private static Observation observe(Path claimFile) throws IOException {
+        try {
+            FileTime modified = Files.getLastModifiedTime(claimFile);
+            String owner = Files.readString(claimFile, StandardCharsets.UTF_8);
+            return new Observation(owner, modified, System.nanoTime());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the owner of the claim, or null if it does not exist or cannot be read
+     */
+    private static String readOwner(Path claimFile) {
+        try {
+            return Files.readString(claimFile, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param unit the name of the unit
+     * @return true if the unit was completed by any worker, or if this worker gave up claiming it
+     * @see #process(String, BooleanSupplier)
+     */
+    public boolean isDone(String unit) {
+        return this.claimFailures.getOrDefault(unit, 0) >= MAX_CLAIM_ATTEMPTS
+                || Files.exists(this.directory.resolve(unit + DONE_EXTENSION));
+    }
+
+    /**
+     * Marks a claimed unit as completed and releases it.
+     * @param unit the name of the unit
+     * @throws UncheckedIOException if the queue directory is not accessible
+     */
+    public void complete(String unit) {
+        try {
+            Files.createFile(this.directory.resolve(unit + DONE_EXTENSION));
+        } catch (FileAlreadyExistsException e) {
+            // another worker reclaimed and completed it too
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.release(unit);
+    }
+
+    /**
+     * Releases a claimed unit without completing it, so that other workers can claim it.
+     * It does nothing if this worker does not own the unit anymore.
+     * @param unit the name of the unit
+     */
+    public void release(String unit) {
+        this.claimed.remove(unit);
+        Path claimFile = getClaimFile(unit);
+        if (!this.workerId.equals(readOwner(claimFile)))
+            return;
+        try {
+            Files.deleteIfExists(claimFile);
+        } catch (IOException e) {
+            logger.warn("Failed to release {}: {}", unit, e.getMessage());
+        }
+    }
+
+    private Path getClaimFile(String unit) {
+        return this.directory.resolve(unit + CLAIM_EXTENSION);
+    }
+
+    /**
+     * Stops the heartbeat and releases all the units still claimed by this worker.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.heartbeats != null) {
+            this.heartbeats.shutdownNow();
+            this.heartbeats = null;
+        }
+        for (String unit : Set.copyOf(this.claimed.keySet()))
+            this.release(unit);
+    }
+}
@@ -74,15 +74,19 @@ public class BraiAn {
         if (project == null || toAdd == null || toAdd.length == 0) {
             return;
         }
-        List<PathClass> visibleClasses = new ArrayList<>(project.getPathClasses());
-        List<PathClass> missingClasses = Arrays.stream(toAdd)
-                .filter(classification -> !visibleClasses.contains(classification))
-                .toList();
-        if (missingClasses.isEmpty()) {
-            return;
+        List<PathClass> visibleClasses;
+        // images of the same project may be analysed concurrently
+        synchronized (project) {
+            visibleClasses = new ArrayList<>(project.getPathClasses());
+            List<PathClass> missingClasses = Arrays.stream(toAdd)
+                    .filter(classification -> !visibleClasses.contains(classification))
+                    .toList();
+            if (missingClasses.isEmpty()) {
+                return;
+            }
+            visibleClasses.addAll(missingClasses);
+            project.setPathClasses(visibleClasses);
         }
-        visibleClasses.addAll(missingClasses);
-        project.setPathClasses(visibleClasses);
         if (qupath != null) {
             FXUtils.runOnApplicationThread(() -> qupath.getAvailablePathClasses().setAll(visibleClasses));
         }
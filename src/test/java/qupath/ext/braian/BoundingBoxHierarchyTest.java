@@ -180,7 +180,8 @@ class BoundingBoxHierarchyTest {
         BoundingBoxHierarchy bbh = new BoundingBoxHierarchy(objects, 10);
 
         assertTrue(objects.stream().allMatch(bbh::contains));
-        assertEquals(depth, bbh.getDepth());
+        // a row of 2^depth objects is packed in tiles of 4 objects
+        assertEquals((depth+1)/2, bbh.getDepth());
         assertEquals(new Rectangle(0, 0, n*size, size), bbh.getBox());
         assertEquals(new HashSet<>(objects), bbh.toStream().collect(Collectors.toSet()));
         ROI bottomLeftCorner = bbh.getOverlappingObject(createObject(0,0, size, size)).getROI();
@@ -190,7 +191,7 @@ class BoundingBoxHierarchyTest {
 
     @Test
     void aboveMaxDepth() {
-        int maxDepth = 6;
+        int maxDepth = 3;
         int n = (int) Math.pow(2, 10);
         int size = 1;
         // creates up to 262144 objects
@@ -200,5 +201,106 @@ class BoundingBoxHierarchyTest {
         assertEquals(maxDepth, bbh.getDepth());
         assertEquals(new Rectangle(0, 0, n*size, size), bbh.getBox());
         assertEquals(new HashSet<>(objects), bbh.toStream().collect(Collectors.toSet()));
+        assertTrue(objects.stream().allMatch(bbh::contains));
+    }
+
+    @Test
+    void zeroWidthObjects() {
+        // objects with an empty bounding box can't be pruned by a strict rectangle intersection
+        PathObject vertical = createObject(10, 0, 0, 10);
+        Collection<PathObject> objects = List.of(vertical, createObject(0, 0, 4, 4), createObject(20, 20, 4, 4));
+        BoundingBoxHierarchy bbh = new BoundingBoxHierarchy(objects);
+
+        assertTrue(objects.stream().allMatch(bbh::contains));
+        assertEquals(vertical, bbh.getOverlappingObject(createObject(8, 3, 4, 4)));
+        assertNull(bbh.getOverlappingObject(createObject(11, 3, 4, 4)));
+    }
+
+    @Test
+    void overlappingIndexMatchesOptional() {
+        Collection<PathObject> objects = createObjectGrid(64, 64, 2).toList();
+        BoundingBoxHierarchy bbh = new BoundingBoxHierarchy(objects, 10);
+
+        assertEquals(objects.size(), bbh.size());
+        for (int x = -3; x < 70; x += 3) {
+            ROI query = ROIs.createRectangleROI(x, x/2., 5, 3, ImagePlane.getDefaultPlane());
+            int i = bbh.getOverlappingIndex(query);
+            PathObject expected = bbh.getOverlappingObject(createObject(PathDetectionObject.class, query));
+            if (expected == null) {
+                assertEquals(-1, i);
+                continue;
+            }
+            assertEquals(expected, bbh.getObject(i));
+            assertEquals(expected.getROI().getCentroidX(), bbh.getCentroidX(i));
+            assertEquals(expected.getROI().getCentroidY(), bbh.getCentroidY(i));
+            assertEquals(i, bbh.getOverlappingIndex(query.getCentroidX(), query.getCentroidY(),
+                    query.getBoundsX(), query.getBoundsY(), query.getBoundsWidth(), query.getBoundsHeight(), query));
+        }
+    }
+
+    @Test
+    void parallelConstruction() {
+        List<PathObject> objects = createObjectGrid(300, 200, 1).toList();
+        BoundingBoxHierarchy sequential = new BoundingBoxHierarchy(objects, 10, Integer.MAX_VALUE);
+        BoundingBoxHierarchy parallel = new BoundingBoxHierarchy(objects, 10, 64);
+
+        assertEquals(sequential.toStream().toList(), parallel.toStream().toList());
+        assertEquals(sequential.getDepth(), parallel.getDepth());
+        assertEquals(sequential.getBox(), parallel.getBox());
+        for (int i = 0; i < 300; i += 7) {
+            ROI query = ROIs.createRectangleROI(i, i/2., 3, 3, ImagePlane.getDefaultPlane());
+            assertEquals(sequential.getOverlappingIndex(query), parallel.getOverlappingIndex(query));
+        }
+        Throwable e = assertThrows(IllegalArgumentException.class,
+                () -> new BoundingBoxHierarchy(objects, 10, 0));
+        assertEquals("parallelThreshold must be >0. Instead got parallelThreshold=0", e.getMessage());
+    }
+
+    @Test
+    void bulkOverlappingIndices() {
+        Collection<PathObject> objects = createObjectGrid(64, 64, 2).toList();
+        BoundingBoxHierarchy bbh = new BoundingBoxHierarchy(objects, 10);
+        List<PathObject> queries = new ArrayList<>();
+        for (int x = -4; x < 70; x += 3)
+            for (int y = -4; y < 70; y += 5)
+                queries.add(createObject(x+.5, y, 3, 1+x%4));
+        queries.add(createObject(PathAnnotationObject.class, ROIs.createPointsROI(1, 1, ImagePlane.getDefaultPlane())));
+
+        int[] overlaps = bbh.getOverlappingIndices(queries);
+        assertEquals(queries.size(), overlaps.length);
+        for (int i = 0; i < queries.size(); i++)
+            assertEquals(bbh.getOverlappingIndex(queries.get(i).getROI()), overlaps[i]);
+        assertTrue(Arrays.stream(overlaps).anyMatch(i -> i >= 0));
+        assertTrue(Arrays.stream(new BoundingBoxHierarchy(List.of()).getOverlappingIndices(queries)).allMatch(i -> i == -1));
+    }
+
+    @Test
+    void parallelBulkOverlappingIndices() {
+        BoundingBoxHierarchy bbh = new BoundingBoxHierarchy(createObjectGrid(128, 128, 2).toList(), 12);
+        List<PathObject> queries = new ArrayList<>();
+        for (int x = -4; x < 130; x += 3)
+            for (int y = -4; y < 130; y += 2)
+                queries.add(createObject(x+.5, y, 3, 1+x%4));
+        BoundingBoxHierarchy queriesBBH = new BoundingBoxHierarchy(queries, 12);
+
+        int[] sequential = bbh.getOverlappingIndices(queriesBBH, Integer.MAX_VALUE);
+        int[] parallel = bbh.getOverlappingIndices(queriesBBH, 16);
+        assertArrayEquals(sequential, parallel);
+        Throwable e = assertThrows(IllegalArgumentException.class, () -> bbh.getOverlappingIndices(queriesBBH, 0));
+        assertEquals("parallelThreshold must be >0. Instead got parallelThreshold=0", e.getMessage());
+    }
+
+    @Test
+    void indicesInside() {
+        BoundingBoxHierarchy bbh = new BoundingBoxHierarchy(createObjectGrid(64, 64, 2).toList(), 6);
+        ROI roi = ROIs.createEllipseROI(10, 5, 30, 20, ImagePlane.getDefaultPlane());
+
+        int[] inside = bbh.getIndicesInside(roi);
+        int[] expected = IntStream.range(0, bbh.size())
+                .filter(i -> roi.contains(bbh.getCentroidX(i), bbh.getCentroidY(i)))
+                .toArray();
+        assertArrayEquals(expected, inside);
+        assertTrue(inside.length > 0);
+        assertEquals(0, new BoundingBoxHierarchy(List.of()).getIndicesInside(roi).length);
     }
-}
\ No newline at end of file
+}
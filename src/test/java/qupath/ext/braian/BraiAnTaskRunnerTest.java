@@ -0,0 +1,133 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import qupath.lib.plugins.PathTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BraiAnTaskRunnerTest {
+
+    private static class CompletedTask implements PathTask {
+        private volatile boolean ran = false;
+        private Boolean wasCancelled;
+        private Thread completedBy;
+
+        @Override
+        public void run() {
+            this.ran = true;
+        }
+
+        @Override
+        public void taskComplete(boolean wasCancelled) {
+            this.wasCancelled = wasCancelled;
+            this.completedBy = Thread.currentThread();
+        }
+
+        @Override
+        public String getLastResultsDescription() {
+            return null;
+        }
+    }
+
+    @AfterEach
+    void resetParallelism() {
+        BraiAnTaskRunner.setParallelism(0);
+    }
+
+    @Test
+    void boundedParallelism() {
+        // PREPARE
+        BraiAnTaskRunner.setParallelism(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tasks.add(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            });
+        }
+        BraiAnTaskRunner runner = new BraiAnTaskRunner();
+        // EXECUTE
+        runner.runTasks("tiles", tasks);
+        // CHECK
+        assertEquals(2, BraiAnTaskRunner.getParallelism());
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(20, runner.getTaskDurations().size());
+        assertTrue(runner.getTotalTaskDuration().toMillis() >= 20 * 5);
+        assertFalse(runner.isCancelled());
+    }
+
+    @Test
+    void invalidParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> BraiAnTaskRunner.setParallelism(-1));
+    }
+
+    @Test
+    void completePathTasks() {
+        // PREPARE
+        List<CompletedTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            tasks.add(new CompletedTask());
+        BraiAnTaskRunner runner = new BraiAnTaskRunner();
+        // EXECUTE
+        runner.runTasks("tiles", tasks);
+        // CHECK
+        for (CompletedTask task : tasks) {
+            assertTrue(task.ran);
+            assertEquals(Boolean.FALSE, task.wasCancelled);
+            assertSame(Thread.currentThread(), task.completedBy);
+        }
+    }
+
+    @Test
+    void completeInterruptedTasks() {
+        // PREPARE
+        BraiAnTaskRunner.setParallelism(1);
+        ConcurrentLinkedQueue<Runnable> started = new ConcurrentLinkedQueue<>();
+        List<CompletedTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tasks.add(new CompletedTask() {
+                @Override
+                public void run() {
+                    started.add(this);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.run();
+                }
+            });
+        }
+        BraiAnTaskRunner runner = new BraiAnTaskRunner();
+        // EXECUTE
+        Thread.currentThread().interrupt();
+        runner.runTasks("tiles", tasks);
+        // CHECK
+        assertTrue(Thread.interrupted());
+        assertTrue(runner.isCancelled());
+        assertTrue(started.size() < tasks.size());
+        for (CompletedTask task : tasks) {
+            assertEquals(Boolean.TRUE, task.wasCancelled);
+            assertSame(Thread.currentThread(), task.completedBy);
+            // the tasks are completed only once they stopped running
+            assertEquals(started.contains(task), task.ran);
+        }
+    }
+}
@@ -142,6 +142,49 @@ public class ChannelHistogramTest {
         assertEquals(hist.length, smoothed.length);
     }
 
+    @ParameterizedTest
+    @MethodSource("readHistogram")
+    void zeroPhaseMovingAverageSamePeaks(int[] histogram) {
+        int windowSize = 15;
+        double[] movingAvg = new double[windowSize];
+        Arrays.fill(movingAvg, (double) 1/windowSize);
+        double[] hist = Arrays.stream(histogram).asDoubleStream().toArray();
+        double[] smoothed = ChannelHistogram.zeroPhaseFilter(movingAvg, hist);
+        double[] smoothedFast = ChannelHistogram.zeroPhaseMovingAverage(Arrays.stream(histogram).asLongStream().toArray(), windowSize);
+
+        assertArrayEquals(smoothed, smoothedFast, 1e-6);
+        int[] peaks = ChannelHistogram.findPeaks(smoothedFast, 100);
+        assertArrayEquals(ChannelHistogram.findPeaks(smoothed, 100), peaks);
+        assertArrayEquals(new int[]{7, 1817, 1942, 12032}, peaks);
+    }
+
+    @Test
+    void zeroPhaseMovingAverageEvenWindow() {
+        Throwable e = assertThrows(IllegalArgumentException.class,
+                () -> ChannelHistogram.zeroPhaseMovingAverage(new long[10], 4));
+        assertEquals("windowSize must be odd. Instead got windowSize=4", e.getMessage());
+    }
+
+    @ParameterizedTest
+    @MethodSource("readHistogram")
+    void statisticsFromHistogram(int[] histogram) {
+        long[] counts = Arrays.stream(histogram).asLongStream().toArray();
+        double[] pixels = IntStream.range(0, histogram.length)
+                .flatMap(value -> IntStream.generate(() -> value).limit(histogram[value]))
+                .asDoubleStream()
+                .toArray();
+        double mean = Arrays.stream(pixels).average().orElseThrow();
+        double variance = Arrays.stream(pixels).map(x -> (x-mean)*(x-mean)).sum() / (pixels.length-1);
+
+        ChannelStatistics stats = ChannelStatistics.fromHistogram(counts);
+        assertEquals(pixels.length, stats.pixelCount());
+        assertEquals(mean, stats.mean(), 1e-9);
+        assertEquals(Math.sqrt(variance), stats.stdDev(), 1e-9);
+        assertEquals(Arrays.stream(pixels).min().orElseThrow(), stats.min());
+        assertEquals(Arrays.stream(pixels).max().orElseThrow(), stats.max());
+        assertEquals(0, ChannelStatistics.fromHistogram(new long[256]).pixelCount());
+    }
+
     static Stream<Arguments> readHistogram() {
         try {
             return Stream.of(
@@ -0,0 +1,109 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qupath.lib.images.servers.PixelCalibration;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DetectionsWriterTest {
+    private static final List<String> CHANNELS = List.of("cFos", "Arc");
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void records(@TempDir Path directory) throws IOException {
+        // PREPARE
+        SyntheticBrain.Workload brain = new SyntheticBrain()
+                .setChannels(CHANNELS)
+                .setDetectionsPerChannel(1_000)
+                .setDepth(2)
+                .setColocalization(.5)
+                .generate();
+        List<ChannelDetections> channels = CHANNELS.stream()
+                .map(channel -> new ChannelDetections(channel, brain.hierarchy()))
+                .toList();
+        for (ChannelDetections channel : channels)
+            channel.toStream().forEach(d -> d.getMeasurementList()
+                    .put("Cell: "+channel.getId()+" mean", d.getROI().getCentroidX()));
+        OverlappingDetections overlaps = new OverlappingDetections(channels.getFirst(),
+                List.<AbstractDetections>copyOf(channels.subList(1, channels.size())), true, brain.hierarchy());
+        List<AbstractDetections> detections = new ArrayList<>(channels);
+        detections.add(overlaps);
+        RegionLocator locator = new RegionLocator(new AtlasManager(SyntheticBrain.ATLAS_NAME, brain.hierarchy())
+                .flatten(detections));
+        List<PathClass> classes = detections.stream()
+                .flatMap(d -> d.getDetectionsPathClasses().stream())
+                .toList();
+        List<String> measurements = DetectionsWriter.getMeanMeasurements(CHANNELS, true);
+        PixelCalibration calibration = new PixelCalibration.Builder().pixelSizeMicrons(0.5, 0.5).build();
+        DetectionsWriter writer = new DetectionsWriter(locator, classes, measurements, calibration);
+        Path file = directory.resolve("detections" + DetectionsWriter.EXTENSION);
+        // EXECUTE
+        long nDetections = writer.write(detections, file);
+        // CHECK
+        assertEquals(List.of("Nucleus: cFos mean", "Nucleus: Arc mean", "Cytoplasm: cFos mean", "Cytoplasm: Arc mean",
+                "Cell: cFos mean", "Cell: Arc mean"), measurements);
+        assertTrue(classes.contains(PathClass.fromString("cFos~Arc")));
+        assertEquals(CHANNELS.size() * 1_000 + overlaps.toStream().count(), nDetections);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[DetectionsWriter.MAGIC.length];
+        buffer.get(magic);
+        assertArrayEquals(DetectionsWriter.MAGIC, magic);
+        assertEquals(DetectionsWriter.VERSION, buffer.getInt());
+        assertEquals(nDetections, buffer.getLong());
+        assertEquals(0.5, buffer.getDouble());
+        assertEquals(0.5, buffer.getDouble());
+        assertEquals(locator.size(), buffer.getInt());
+        for (int r = 0; r < locator.size(); r++) {
+            assertEquals(locator.getRegion(r).getDisplayedName(), readString(buffer));
+            assertEquals(locator.getRegion(r).getPathClass().toString(), readString(buffer));
+        }
+        assertEquals(classes.size(), buffer.getInt());
+        for (PathClass pathClass : classes)
+            assertEquals(pathClass.toString(), readString(buffer));
+        assertEquals(measurements.size(), buffer.getInt());
+        for (String measurement : measurements)
+            assertEquals(measurement, readString(buffer));
+        assertEquals(writer.getRecordSize(), buffer.getInt());
+        assertEquals(nDetections * writer.getRecordSize(), buffer.remaining());
+        for (AbstractDetections group : detections) {
+            int cellMean = measurements.indexOf("Cell: "+group.getId()+" mean");
+            for (PathDetectionObject detection : group.toStream().toList()) {
+                ROI roi = detection.getROI();
+                assertEquals((float) roi.getCentroidX(), buffer.getFloat());
+                assertEquals((float) roi.getCentroidY(), buffer.getFloat());
+                assertEquals((float) roi.getScaledArea(0.5, 0.5), buffer.getFloat());
+                assertEquals(classes.indexOf(detection.getPathClass()), buffer.getInt());
+                assertEquals(locator.locate(roi.getCentroidX(), roi.getCentroidY()), buffer.getInt());
+                for (int m = 0; m < measurements.size(); m++) {
+                    // the overlaps have no measurements
+                    if (m == cellMean && group instanceof ChannelDetections)
+                        assertEquals((float) roi.getCentroidX(), buffer.getFloat());
+                    else
+                        assertTrue(Float.isNaN(buffer.getFloat()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageHistogramsTest {
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 100;
+    // the tiles on the right and bottom edges are partial
+    private static final int TILE_SIZE = 64;
+    private static final int N_CHANNELS = 3;
+
+    private static ImageServer<BufferedImage> createServer(PixelType pixelType) {
+        int dataType = pixelType == PixelType.UINT8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
+        int maxValue = pixelType == PixelType.UINT8 ? 255 : 65535;
+        WritableRaster raster = Raster.createBandedRaster(dataType, WIDTH, HEIGHT, N_CHANNELS, null);
+        Random random = new Random(42);
+        for (int c = 0; c < N_CHANNELS; c++) {
+            // each channel has a different range, so that no two histograms are alike
+            int range = (maxValue + 1) >> c;
+            for (int y = 0; y < HEIGHT; y++)
+                for (int x = 0; x < WIDTH; x++)
+                    raster.setSample(x, y, c, random.nextInt(range));
+        }
+        List<ImageChannel> channels = ImageChannel.getDefaultChannelList(N_CHANNELS);
+        BufferedImage image = new BufferedImage(ColorModelFactory.createColorModel(pixelType, channels), raster,
+                false, null);
+        ImageServer<BufferedImage> server = new WrappedBufferedImageServer("synthetic", image, channels);
+        server.setMetadata(new ImageServerMetadata.Builder(server.getMetadata())
+                .preferredTileSize(TILE_SIZE, TILE_SIZE)
+                .build());
+        return server;
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = PixelType.class, names = {"UINT8", "UINT16"})
+    void tilesAsImageJ(PixelType pixelType) throws IOException {
+        // PREPARE
+        ImageServer<BufferedImage> server = createServer(pixelType);
+        ImageHistograms expected = ImageHistograms.computeFromImagePlus(server, 0);
+        // EXECUTE
+        ImageHistograms histograms = ImageHistograms.compute(server, 0);
+        // CHECK
+        assertEquals(6, server.getTileRequestManager().getTileRequestsForLevel(0).size());
+        assertEquals(N_CHANNELS, histograms.nChannels());
+        for (int c = 0; c < N_CHANNELS; c++) {
+            String name = server.getMetadata().getChannels().get(c).getName();
+            ChannelHistogram histogram = histograms.getHistogram(name);
+            assertEquals(pixelType.getBitsPerPixel(), histogram.getBitDepth());
+            assertArrayEquals(expected.getHistogram(name).getValues(), histogram.getValues());
+            ChannelStatistics statistics = histograms.getStatistics(name);
+            ChannelStatistics expectedStatistics = expected.getStatistics(name);
+            assertEquals((long) WIDTH * HEIGHT, statistics.pixelCount());
+            assertEquals(expectedStatistics.pixelCount(), statistics.pixelCount());
+            assertEquals(expectedStatistics.mean(), statistics.mean(), 1e-9);
+            assertEquals(expectedStatistics.stdDev(), statistics.stdDev(), 1e-6);
+            assertEquals(expectedStatistics.min(), statistics.min());
+            assertEquals(expectedStatistics.max(), statistics.max());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PerformanceProfileTest {
+
+    @Test
+    void attachedToHierarchy() {
+        // PREPARE
+        PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+        PerformanceProfile profile = PerformanceProfile.start("image");
+        // EXECUTE & CHECK
+        assertFalse(PerformanceProfile.of(hierarchy).isEnabled());
+        profile.attach(hierarchy);
+        assertSame(profile, PerformanceProfile.of(hierarchy));
+        profile.stop();
+        assertFalse(PerformanceProfile.of(hierarchy).isEnabled());
+        assertFalse(PerformanceProfile.disabled().measure("stage").isEnabled());
+    }
+
+    @Test
+    void summary(@TempDir Path directory) throws IOException {
+        // PREPARE
+        for (String image : List.of("image1", "image2")) {
+            PerformanceProfile profile = PerformanceProfile.start(image);
+            try (PerformanceProfile.Measurement measurement = profile.measure("watershed", "DAPI")) {
+                measurement.count(10);
+            }
+            profile.stop();
+            profile.write(directory.resolve(image + ".json"));
+        }
+        Path summary = directory.resolve(PerformanceProfile.SUMMARY_FILENAME);
+        // EXECUTE
+        PerformanceProfile.writeSummary(List.of(directory), summary);
+        PerformanceProfile.writeSummary(List.of(directory), summary); // the previous summary is not summarised
+        // CHECK
+        String json = Files.readString(summary);
+        assertTrue(json.contains("\"images\": 2"));
+        assertTrue(json.contains("\"name\": \"watershed DAPI\""));
+        assertTrue(json.contains("\"objects\": 20"));
+    }
+}
@@ -0,0 +1,69 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegionCountsTest {
+    private static final List<String> CHANNELS = List.of("cFos", "Arc");
+
+    @Test
+    void sameAsCentroidsInside() {
+        // PREPARE
+        SyntheticBrain.Workload brain = new SyntheticBrain()
+                .setChannels(CHANNELS)
+                .setDetectionsPerChannel(10_000)
+                .setDepth(3)
+                .generate();
+        List<AbstractDetections> channels = CHANNELS.stream()
+                .map(channel -> (AbstractDetections) new ChannelDetections(channel, brain.hierarchy()))
+                .toList();
+        List<PathObject> regions = new AtlasManager(SyntheticBrain.ATLAS_NAME, brain.hierarchy()).flatten(channels);
+        List<PathClass> classes = CHANNELS.stream().map(ChannelDetections::createClassification).toList();
+        Collection<PathObject> detections = brain.hierarchy().getDetectionObjects();
+        // EXECUTE
+        RegionCounts counts = new RegionCounts(regions, classes, detections);
+        // CHECK
+        assertEquals(regions.size(), counts.getCounts().length);
+        for (int r = 0; r < regions.size(); r++) {
+            ROI region = regions.get(r).getROI();
+            List<PathObject> inside = detections.stream()
+                    .filter(d -> region.contains(d.getROI().getCentroidX(), d.getROI().getCentroidY()))
+                    .toList();
+            assertEquals(inside.size(), counts.getTotals()[r], regions.get(r).getName());
+            for (int c = 0; c < classes.size(); c++) {
+                PathClass pathClass = classes.get(c);
+                assertEquals(inside.stream().filter(d -> d.getPathClass() == pathClass).count(), counts.getCounts()[r][c]);
+            }
+        }
+        assertEquals(detections.size(), counts.getTotals()[0]); // the atlas "Root" contains all the detections
+    }
+
+    @Test
+    void postOrder() {
+        // PREPARE
+        SyntheticBrain.Workload brain = new SyntheticBrain().setDetectionsPerChannel(0).setDepth(2).generate();
+        List<PathObject> regions = new AtlasManager(SyntheticBrain.ATLAS_NAME, brain.hierarchy()).flatten();
+        RegionLocator locator = new RegionLocator(regions);
+        // EXECUTE
+        int[] order = locator.getPostOrder();
+        // CHECK
+        assertEquals(regions.size(), order.length);
+        int[] position = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+            position[order[i]] = i;
+        for (int r = 0; r < regions.size(); r++)
+            if (locator.getParent(r) >= 0)
+                assertTrue(position[r] < position[locator.getParent(r)]);
+    }
+}
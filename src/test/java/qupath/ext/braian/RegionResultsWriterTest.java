@@ -0,0 +1,114 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import ij.measure.ResultsTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegionResultsWriterTest {
+    private static final String[] NAMES = {"root", "CTX", "Isocortex", "HPF"};
+    private static final String[] CLASSIFICATIONS = {"Left: root", "Left: CTX", "Left: Isocortex", "Left: HPF"};
+    private static final double[] AREAS = {123456.789, 5000, 0.25, 1e-2};
+    private static final int[] COUNTS = {1500, 1200, 0, 42};
+
+    @Test
+    void sameAsResultsTable(@TempDir Path directory) throws IOException {
+        // PREPARE
+        Path expected = directory.resolve("expected_regions.tsv");
+        ResultsTable table = new ResultsTable();
+        for (int i = 0; i < NAMES.length; i++) {
+            table.incrementCounter();
+            table.addValue("Image Name", "image.czi - Scene #1");
+            table.addValue("Metadata_Animal", "A1");
+            table.addValue("Name", NAMES[i]);
+            table.addValue("Classification", CLASSIFICATIONS[i]);
+            table.addValue("Area um^2", AREAS[i]);
+            table.addValue("Num cFos", COUNTS[i]);
+        }
+        assertTrue(table.save(expected.toString()));
+        Path actual = directory.resolve("actual_regions.tsv");
+        // EXECUTE
+        new RegionResultsWriter(NAMES.length)
+                .addConstantColumn("Image Name", "image.czi - Scene #1")
+                .addConstantColumn("Metadata_Animal", "A1")
+                .addStringColumn("Name", NAMES)
+                .addStringColumn("Classification", CLASSIFICATIONS)
+                .addDoubleColumn("Area um^2", AREAS)
+                .addIntColumn("Num cFos", COUNTS)
+                .write(actual);
+        // CHECK
+        assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void binary(@TempDir Path directory) throws IOException {
+        // PREPARE
+        Path file = directory.resolve("regions" + RegionResultsWriter.BINARY_EXTENSION);
+        String[] hemispheres = {"Left", "Right", "Left", null};
+        // EXECUTE
+        new RegionResultsWriter(NAMES.length)
+                .addConstantColumn("Image Name", "image.czi - Scene #1")
+                .addStringColumn("Hemisphere", hemispheres)
+                .addDoubleColumn("Area um^2", AREAS)
+                .addIntColumn("Num cFos", COUNTS)
+                .writeBinary(file);
+        // CHECK
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[RegionResultsWriter.BINARY_MAGIC.length];
+        buffer.get(magic);
+        assertArrayEquals(RegionResultsWriter.BINARY_MAGIC, magic);
+        assertEquals(RegionResultsWriter.BINARY_VERSION, buffer.getInt());
+        assertEquals(NAMES.length, buffer.getInt());
+        assertEquals(4, buffer.getInt());
+        assertEquals("Image Name", readString(buffer));
+        assertEquals(RegionResultsWriter.TYPE_DICTIONARY, buffer.get());
+        assertEquals("Hemisphere", readString(buffer));
+        assertEquals(RegionResultsWriter.TYPE_DICTIONARY, buffer.get());
+        assertEquals("Area um^2", readString(buffer));
+        assertEquals(RegionResultsWriter.TYPE_FLOAT64, buffer.get());
+        assertEquals("Num cFos", readString(buffer));
+        assertEquals(RegionResultsWriter.TYPE_INT32, buffer.get());
+        // image name
+        assertEquals(1, buffer.getInt());
+        assertEquals("image.czi - Scene #1", readString(buffer));
+        for (int i = 0; i < NAMES.length; i++)
+            assertEquals(0, buffer.getInt());
+        // hemispheres
+        assertEquals(2, buffer.getInt());
+        assertEquals("Left", readString(buffer));
+        assertEquals("Right", readString(buffer));
+        for (int expected : new int[]{0, 1, 0, -1})
+            assertEquals(expected, buffer.getInt());
+        for (double area : AREAS)
+            assertEquals(area, buffer.getDouble());
+        for (int count : COUNTS)
+            assertEquals(count, buffer.getInt());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void wrongColumnLength() {
+        RegionResultsWriter results = new RegionResultsWriter(NAMES.length);
+        Throwable e = assertThrows(IllegalArgumentException.class,
+                () -> results.addIntColumn("Num cFos", new int[NAMES.length + 1]));
+        assertEquals("Column 'Num cFos' must have 4 values. Instead got 5", e.getMessage());
+    }
+}
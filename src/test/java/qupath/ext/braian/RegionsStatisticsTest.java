@@ -0,0 +1,93 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.junit.jupiter.api.Test;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegionsStatisticsTest {
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 100;
+    // the tiles on the right and bottom edges are partial
+    private static final int TILE_SIZE = 64;
+
+    /**
+     * @return an image whose first channel is the x coordinate of each pixel, and the second one is 1000+2y
+     */
+    private static ImageServer<BufferedImage> createGradientServer() {
+        WritableRaster raster = Raster.createBandedRaster(DataBuffer.TYPE_USHORT, WIDTH, HEIGHT, 2, null);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                raster.setSample(x, y, 0, x);
+                raster.setSample(x, y, 1, 1000 + 2 * y);
+            }
+        }
+        List<ImageChannel> channels = ImageChannel.getDefaultChannelList(2);
+        BufferedImage image = new BufferedImage(ColorModelFactory.createColorModel(PixelType.UINT16, channels), raster,
+                false, null);
+        ImageServer<BufferedImage> server = new WrappedBufferedImageServer("gradient", image, channels);
+        server.setMetadata(new ImageServerMetadata.Builder(server.getMetadata())
+                .preferredTileSize(TILE_SIZE, TILE_SIZE)
+                .build());
+        return server;
+    }
+
+    private static PathObject region(PathObject parent, double x, double y, double width, double height) {
+        PathObject region = PathObjects.createAnnotationObject(SyntheticObjects.rectangle(x, y, width, height));
+        if (parent != null)
+            parent.addChildObject(region);
+        return region;
+    }
+
+    /**
+     * @return the mean of the given channel of {@link #createGradientServer()} within a rectangle with integer coordinates
+     */
+    private static double expectedMean(int nChannel, int x, int y, int width, int height) {
+        return nChannel == 0 ? x + (width - 1) / 2.0 : 1000 + 2 * (y + (height - 1) / 2.0);
+    }
+
+    @Test
+    void gradientMeans() throws IOException {
+        // PREPARE
+        ImageServer<BufferedImage> server = createGradientServer();
+        // the pixels outside the brain are not labelled
+        PathObject brain = region(null, 10, 10, 130, 80);
+        PathObject parent = region(brain, 20, 20, 60, 40);
+        PathObject leaf = region(parent, 30, 30, 20, 10);
+        // in the partial tile of the bottom-right corner
+        PathObject edge = region(brain, 130, 70, 10, 20);
+        // contains no pixel centre
+        PathObject subPixel = region(brain, 100.1, 50.1, 0.3, 0.3);
+        PathObject notComputed = region(null, 0, 0, WIDTH, HEIGHT);
+        // EXECUTE
+        RegionsStatistics statistics = RegionsStatistics.compute(server, List.of(brain, parent, leaf, edge, subPixel), 0);
+        // CHECK
+        for (int c = 0; c < 2; c++) {
+            assertEquals(expectedMean(c, 30, 30, 20, 10), statistics.getMean(leaf, c), 1e-9);
+            // the pixels of the parent not covered by its children are added to those of the children
+            assertEquals(expectedMean(c, 20, 20, 60, 40), statistics.getMean(parent, c), 1e-9);
+            assertEquals(expectedMean(c, 10, 10, 130, 80), statistics.getMean(brain, c), 1e-9);
+            assertEquals(expectedMean(c, 130, 70, 10, 20), statistics.getMean(edge, c), 1e-9);
+            assertTrue(Double.isNaN(statistics.getMean(subPixel, c)));
+            assertTrue(Double.isNaN(statistics.getMean(notComputed, c)));
+        }
+    }
+}
@@ -0,0 +1,369 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+/**
+ * Generator of whole-brain workloads, to test and benchmark BraiAn at the scale of a real experiment without any
+ * image. It builds a {@link PathObjectHierarchy} with:
+ * <ul>
+ *     <li>an atlas as imported by ABBA: an annotation named "Root", classified with the atlas name, whose children are
+ *     one "root" region per hemisphere (or a single one, if not split). Each region is nested down to
+ *     {@link #setDepth(int) depth} levels, and classified as {@link AtlasManager#ABBA_LEFT Left} or
+ *     {@link AtlasManager#ABBA_RIGHT Right} when split;</li>
+ *     <li>one container of detections per channel, as child of "Root", that {@link ChannelDetections} can find;</li>
+ *     <li>{@link AtlasManager#EXCLUDE_CLASSIFICATION Exclude} annotations, outside the atlas, each covering a region.</li>
+ * </ul>
+ * The detections are placed on a lattice, with a pitch of twice their size, so that the expected result of
+ * {@link OverlappingDetections} and {@link AtlasManager#getExcludedBrainRegions()} is known exactly.
+ * The same parameters, seed included, always generate the same workload.
+ *
+ * @see #generate()
+ */
+public class SyntheticBrain {
+    /**
+     * The name of the atlas imported in the generated hierarchies
+     */
+    public static final String ATLAS_NAME = "synthetic_mouse_brain";
+
+    private static final int N_CLUSTERS = 64;
+
+    /**
+     * A generated workload, with the expected results of BraiAn's analysis on it.
+     * @param hierarchy the hierarchy with the atlas, the detections and the exclusions
+     * @param atlas the annotation named "Root"
+     * @param expectedOverlaps for each classification of {@link OverlappingDetections} having the first channel as
+     *                         control, the number of detections expected to have it
+     * @param expectedExcludedRegions the regions expected from {@link AtlasManager#getExcludedBrainRegions()}
+     */
+    public record Workload(PathObjectHierarchy hierarchy,
+                           PathAnnotationObject atlas,
+                           Map<String, Integer> expectedOverlaps,
+                           Set<PathObject> expectedExcludedRegions) {
+    }
+
+    private long seed = 42;
+    private double width = 20_000;
+    private double height = 15_000;
+    private double cellSize = 8;
+    private int depth = 5;
+    private int branching = 4;
+    private boolean split = true;
+    private List<String> channels = List.of("cFos", "Arc", "PV");
+    private int detectionsPerChannel = 100_000;
+    private double clustering = .5;
+    private double colocalization = .3;
+    private int nExclusions = 10;
+
+    /**
+     * @param seed the seed of the random generator
+     * @return this generator
+     */
+    public SyntheticBrain setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param width the width of the brain section
+     * @param height the height of the brain section
+     * @return this generator
+     */
+    public SyntheticBrain setSize(double width, double height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("width and height must be >0. Instead got width="+width+", height="+height);
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    /**
+     * @param cellSize the side of each detection
+     * @return this generator
+     */
+    public SyntheticBrain setCellSize(double cellSize) {
+        if (cellSize <= 0)
+            throw new IllegalArgumentException("cellSize must be >0. Instead got cellSize="+cellSize);
+        this.cellSize = cellSize;
+        return this;
+    }
+
+    /**
+     * @param depth the number of levels of regions below each "root"
+     * @return this generator
+     */
+    public SyntheticBrain setDepth(int depth) {
+        if (depth < 1)
+            throw new IllegalArgumentException("depth must be >0. Instead got depth="+depth);
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * @param branching the number of sub-regions of each region
+     * @return this generator
+     */
+    public SyntheticBrain setBranching(int branching) {
+        if (branching < 2)
+            throw new IllegalArgumentException("branching must be >1. Instead got branching="+branching);
+        this.branching = branching;
+        return this;
+    }
+
+    /**
+     * @param split whether the atlas is split between left and right hemispheres
+     * @return this generator
+     */
+    public SyntheticBrain setSplit(boolean split) {
+        this.split = split;
+        return this;
+    }
+
+    /**
+     * @param channels the names of the channels. The first one is the control of the expected overlaps
+     * @return this generator
+     */
+    public SyntheticBrain setChannels(List<String> channels) {
+        if (channels.isEmpty())
+            throw new IllegalArgumentException("channels cannot be empty");
+        this.channels = List.copyOf(channels);
+        return this;
+    }
+
+    /**
+     * @param detectionsPerChannel the number of detections of each channel
+     * @return this generator
+     */
+    public SyntheticBrain setDetectionsPerChannel(int detectionsPerChannel) {
+        if (detectionsPerChannel < 0)
+            throw new IllegalArgumentException("detectionsPerChannel must be >=0. Instead got detectionsPerChannel="+detectionsPerChannel);
+        this.detectionsPerChannel = detectionsPerChannel;
+        return this;
+    }
+
+    /**
+     * @param clustering the fraction of detections gathered around a few centres, shared by all channels.
+     *                   The others are uniformly distributed
+     * @return this generator
+     */
+    public SyntheticBrain setClustering(double clustering) {
+        if (clustering < 0 || clustering > 1)
+            throw new IllegalArgumentException("clustering must be in [0,1]. Instead got clustering="+clustering);
+        this.clustering = clustering;
+        return this;
+    }
+
+    /**
+     * @param colocalization the fraction of detections of each channel, other than the first, that overlap with a
+     *                       detection of the first channel
+     * @return this generator
+     */
+    public SyntheticBrain setColocalization(double colocalization) {
+        if (colocalization < 0 || colocalization > 1)
+            throw new IllegalArgumentException("colocalization must be in [0,1]. Instead got colocalization="+colocalization);
+        this.colocalization = colocalization;
+        return this;
+    }
+
+    /**
+     * @param nExclusions the number of regions covered by an exclusion annotation
+     * @return this generator
+     */
+    public SyntheticBrain setExclusions(int nExclusions) {
+        if (nExclusions < 0)
+            throw new IllegalArgumentException("nExclusions must be >=0. Instead got nExclusions="+nExclusions);
+        this.nExclusions = nExclusions;
+        return this;
+    }
+
+    /**
+     * Generates a new workload with the current parameters.
+     * @return the generated workload
+     * @throws IllegalArgumentException if the brain is too small to fit all the detections without unexpected overlaps
+     */
+    public Workload generate() {
+        SplittableRandom random = new SplittableRandom(this.seed);
+        PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+
+        PathAnnotationObject atlas = (PathAnnotationObject) PathObjects.createAnnotationObject(
+                SyntheticObjects.rectangle(0, 0, this.width, this.height), PathClass.fromString(ATLAS_NAME));
+        atlas.setName("Root");
+        List<PathObject> regions = new ArrayList<>();
+        if (this.split) {
+            double half = this.width / 2;
+            this.addRegions(atlas, AtlasManager.ABBA_LEFT, "root", 0, 0, half, this.height, 0, regions);
+            this.addRegions(atlas, AtlasManager.ABBA_RIGHT, "root", half, 0, half, this.height, 0, regions);
+        } else
+            this.addRegions(atlas, null, "root", 0, 0, this.width, this.height, 0, regions);
+        SyntheticObjects.addTree(hierarchy, atlas);
+
+        Map<String, Integer> expectedOverlaps = this.addDetections(atlas, random);
+        Set<PathObject> expectedExcludedRegions = this.addExclusions(hierarchy, regions, random);
+        hierarchy.fireHierarchyChangedEvent(this);
+        return new Workload(hierarchy, atlas, expectedOverlaps, expectedExcludedRegions);
+    }
+
+    private void addRegions(PathObject parent, PathClass hemisphere, String name,
+                            double x, double y, double width, double height, int level, List<PathObject> regions) {
+        PathClass pathClass = hemisphere == null ? PathClass.fromString(name) : PathClass.getInstance(hemisphere, name, null);
+        PathObject region = PathObjects.createAnnotationObject(SyntheticObjects.rectangle(x, y, width, height), pathClass);
+        region.setName(name);
+        parent.addChildObject(region);
+        regions.add(region);
+        if (level == this.depth)
+            return;
+        // alternate the direction of the strips, so that regions do not get too thin
+        boolean vertical = level % 2 == 0;
+        for (int i = 0; i < this.branching; i++) {
+            String childName = (level == 0 ? "R" : name) + i;
+            if (vertical)
+                this.addRegions(region, hemisphere, childName, x + i * width / this.branching, y,
+                        width / this.branching, height, level + 1, regions);
+            else
+                this.addRegions(region, hemisphere, childName, x, y + i * height / this.branching,
+                        width, height / this.branching, level + 1, regions);
+        }
+    }
+
+    private Map<String, Integer> addDetections(PathAnnotationObject atlas, SplittableRandom random) {
+        double pitch = 2 * this.cellSize;
+        int nColumns = (int) (this.width / pitch);
+        int nRows = (int) (this.height / pitch);
+        int nSlots = nColumns * nRows;
+        int nIndependent = (int) Math.round(this.detectionsPerChannel * (1 - this.colocalization));
+        int nNeeded = this.channels.size() > 1 ? this.detectionsPerChannel + nIndependent : this.detectionsPerChannel;
+        if (nNeeded > nSlots)
+            throw new IllegalArgumentException("The brain is too small for "+this.detectionsPerChannel+" detections per channel. " +
+                    "Increase its size or decrease the cell size");
+        double[] clusters = new double[N_CLUSTERS * 2];
+        for (int c = 0; c < N_CLUSTERS; c++) {
+            clusters[2 * c] = random.nextDouble(this.width);
+            clusters[2 * c + 1] = random.nextDouble(this.height);
+        }
+        double clusterSigma = Math.min(this.width, this.height) / 50;
+
+        // the control's detections each take a different slot
+        BitSet controlSlots = new BitSet(nSlots);
+        int[] controlSlot = new int[this.detectionsPerChannel];
+        for (int i = 0; i < this.detectionsPerChannel; i++)
+            controlSlot[i] = takeFreeSlot(this.sampleSlot(random, clusters, clusterSigma, nColumns, nRows), controlSlots, nSlots);
+        this.addChannel(atlas, this.channels.getFirst(), controlSlot, nColumns, pitch, 0);
+
+        // for each control detection, the bit mask of the other channels overlapping with it
+        long[] combinations = new long[this.detectionsPerChannel];
+        for (int j = 1; j < this.channels.size(); j++) {
+            int nColocalized = this.detectionsPerChannel - nIndependent;
+            int[] slots = new int[this.detectionsPerChannel];
+            // the colocalized detections each overlap a different control detection...
+            BitSet chosen = new BitSet(this.detectionsPerChannel);
+            for (int i = 0; i < nColocalized; i++) {
+                int k = takeFreeSlot(random.nextInt(this.detectionsPerChannel), chosen, this.detectionsPerChannel);
+                combinations[k] |= 1L << (j - 1);
+                slots[i] = controlSlot[k];
+            }
+            // ...while the independent ones are never on a slot of the control
+            BitSet taken = (BitSet) controlSlots.clone();
+            for (int i = nColocalized; i < this.detectionsPerChannel; i++)
+                slots[i] = takeFreeSlot(this.sampleSlot(random, clusters, clusterSigma, nColumns, nRows), taken, nSlots);
+            this.addChannel(atlas, this.channels.get(j), slots, nColumns, pitch, this.cellSize / 4);
+        }
+        return this.countOverlaps(combinations);
+    }
+
+    private int sampleSlot(SplittableRandom random, double[] clusters, double clusterSigma, int nColumns, int nRows) {
+        double x, y;
+        if (random.nextDouble() < this.clustering) {
+            int c = random.nextInt(N_CLUSTERS);
+            x = clusters[2 * c] + SyntheticObjects.gaussian(random) * clusterSigma;
+            y = clusters[2 * c + 1] + SyntheticObjects.gaussian(random) * clusterSigma;
+        } else {
+            x = random.nextDouble(this.width);
+            y = random.nextDouble(this.height);
+        }
+        int column = Math.max(0, Math.min(nColumns - 1, (int) (x / (2 * this.cellSize))));
+        int row = Math.max(0, Math.min(nRows - 1, (int) (y / (2 * this.cellSize))));
+        return row * nColumns + column;
+    }
+
+    /**
+     * @return the first free index starting from {@code index}, wrapping around. The index is then marked as taken
+     */
+    private static int takeFreeSlot(int index, BitSet taken, int nSlots) {
+        int free = taken.nextClearBit(index);
+        if (free >= nSlots)
+            free = taken.nextClearBit(0);
+        taken.set(free);
+        return free;
+    }
+
+    private void addChannel(PathAnnotationObject atlas, String channel, int[] slots, int nColumns,
+                            double pitch, double shift) {
+        PathClass pathClass = ChannelDetections.createClassification(channel);
+        List<PathDetectionObject> detections = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            double x = (slot % nColumns) * pitch + this.cellSize / 2 + shift;
+            double y = (slot / nColumns) * pitch + this.cellSize / 2 + shift;
+            detections.add((PathDetectionObject) PathObjects.createDetectionObject(
+                    SyntheticObjects.rectangle(x, y, this.cellSize, this.cellSize), pathClass));
+        }
+        SyntheticObjects.addContainer(channel, atlas, detections);
+    }
+
+    private Map<String, Integer> countOverlaps(long[] combinations) {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (long combination : combinations)
+            if (combination != 0)
+                counts.merge(combination, 1, Integer::sum);
+        Map<String, Integer> overlaps = new TreeMap<>();
+        counts.forEach((combination, count) -> {
+            StringBuilder name = new StringBuilder(this.channels.getFirst());
+            for (int j = 1; j < this.channels.size(); j++)
+                if ((combination & (1L << (j - 1))) != 0)
+                    name.append(OverlappingDetections.OVERLAP_DELIMITER).append(this.channels.get(j));
+            overlaps.put(name.toString(), count);
+        });
+        return overlaps;
+    }
+
+    private Set<PathObject> addExclusions(PathObjectHierarchy hierarchy, List<PathObject> regions,
+                                          SplittableRandom random) {
+        Set<PathObject> excluded = new HashSet<>();
+        // the "root" regions are never excluded
+        List<PathObject> candidates = regions.stream().filter(r -> !"root".equals(r.getName())).toList();
+        for (int i = 0; i < this.nExclusions && excluded.size() < candidates.size(); i++) {
+            PathObject region;
+            do {
+                region = candidates.get(random.nextInt(candidates.size()));
+            } while (excluded.contains(region));
+            excluded.add(region);
+            var roi = region.getROI();
+            hierarchy.getRootObject().addChildObject(SyntheticObjects.exclusion(
+                    roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight()));
+        }
+        // the regions whose ancestor is excluded too are not reported
+        Set<PathObject> expected = new HashSet<>(excluded);
+        for (PathObject region : excluded)
+            for (PathObject ancestor = region.getParent(); ancestor != null; ancestor = ancestor.getParent())
+                if (excluded.contains(ancestor))
+                    expected.remove(region);
+        return expected;
+    }
+}
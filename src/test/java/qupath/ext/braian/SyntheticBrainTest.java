@@ -0,0 +1,84 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import qupath.lib.objects.PathObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyntheticBrainTest {
+    private static final List<String> CHANNELS = List.of("cFos", "Arc", "PV");
+
+    private static SyntheticBrain smallBrain() {
+        return new SyntheticBrain()
+                .setChannels(CHANNELS)
+                .setDetectionsPerChannel(20_000)
+                .setDepth(3);
+    }
+
+    @Test
+    void deterministic() {
+        // EXECUTE
+        SyntheticBrain.Workload first = smallBrain().generate();
+        SyntheticBrain.Workload second = smallBrain().generate();
+        // CHECK
+        assertEquals(first.expectedOverlaps(), second.expectedOverlaps());
+        List<PathObject> firstDetections = List.copyOf(first.hierarchy().getDetectionObjects());
+        List<PathObject> secondDetections = List.copyOf(second.hierarchy().getDetectionObjects());
+        assertEquals(CHANNELS.size() * 20_000, firstDetections.size());
+        assertEquals(firstDetections.size(), secondDetections.size());
+        for (int i = 0; i < firstDetections.size(); i++)
+            assertEquals(firstDetections.get(i).getROI().getGeometry(), secondDetections.get(i).getROI().getGeometry());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void atlas(boolean split) {
+        // PREPARE
+        SyntheticBrain.Workload brain = smallBrain().setSplit(split).generate();
+        List<AbstractDetections> channels = CHANNELS.stream()
+                .map(channel -> (AbstractDetections) new ChannelDetections(channel, brain.hierarchy()))
+                .toList();
+        // EXECUTE
+        AtlasManager atlas = new AtlasManager(SyntheticBrain.ATLAS_NAME, brain.hierarchy());
+        // CHECK
+        assertSame(brain.atlas(), atlas.getRoot());
+        assertEquals(split, atlas.isSplit());
+        int regionsPerRoot = 1 + 4 + 16 + 64;
+        assertEquals(1 + (split ? 2 : 1) * regionsPerRoot, atlas.flatten(channels).size());
+        assertFalse(brain.expectedExcludedRegions().isEmpty());
+        assertEquals(brain.expectedExcludedRegions(), atlas.getExcludedBrainRegions());
+    }
+
+    @Test
+    void overlaps() {
+        // PREPARE
+        SyntheticBrain.Workload brain = smallBrain().setColocalization(.5).generate();
+        List<ChannelDetections> channels = CHANNELS.stream()
+                .map(channel -> new ChannelDetections(channel, brain.hierarchy()))
+                .toList();
+        // EXECUTE
+        OverlappingDetections overlaps = new OverlappingDetections(channels.getFirst(),
+                List.<AbstractDetections>copyOf(channels.subList(1, channels.size())), true, brain.hierarchy());
+        // CHECK
+        Map<String, Integer> counts = overlaps.toStream()
+                .collect(Collectors.groupingBy(d -> d.getPathClass().toString(), Collectors.summingInt(d -> 1)));
+        assertEquals(brain.expectedOverlaps(), counts);
+        assertTrue(counts.containsKey("cFos~Arc~PV"));
+    }
+
+    @Test
+    void tooManyDetections() {
+        SyntheticBrain generator = new SyntheticBrain().setSize(1_000, 1_000).setDetectionsPerChannel(10_000);
+        assertThrows(IllegalArgumentException.class, generator::generate);
+    }
+}
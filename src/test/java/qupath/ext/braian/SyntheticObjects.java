@@ -0,0 +1,152 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian;
+
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generators of synthetic {@link PathObject}s, to test and benchmark BraiAn without any image.
+ * The same arguments, seed included, always generate the same objects.
+ *
+ * @see SyntheticBrain
+ */
+public final class SyntheticObjects {
+
+    /**
+     * How detections are spread across the image.
+     */
+    public enum Pattern {
+        /**
+         * Uniformly distributed
+         */
+        UNIFORM,
+        /**
+         * Gathered around a few random centres, as cells in dense nuclei
+         */
+        CLUSTERED,
+        /**
+         * On a regular grid, with no two detections overlapping
+         */
+        GRID
+    }
+
+    private static final int N_CLUSTERS = 64;
+
+    private SyntheticObjects() {
+    }
+
+    /**
+     * Generates square detections inside a rectangle.
+     * @param n the number of detections
+     * @param width the width of the rectangle where to place them
+     * @param height the height of the rectangle where to place them
+     * @param size the side of each detection
+     * @param pattern how the detections are spread
+     * @param pathClass the classification of the detections. It may be null
+     * @param seed the seed of the random generator
+     * @return the detections, not in any hierarchy
+     */
+    public static List<PathDetectionObject> detections(int n, double width, double height, double size,
+                                                       Pattern pattern, PathClass pathClass, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double[] clusters = new double[N_CLUSTERS * 2];
+        for (int c = 0; c < N_CLUSTERS; c++) {
+            clusters[2 * c] = random.nextDouble(width);
+            clusters[2 * c + 1] = random.nextDouble(height);
+        }
+        double clusterSigma = Math.min(width, height) / 50;
+        int nColumns = (int) Math.ceil(Math.sqrt(n * width / height));
+        double step = width / nColumns;
+        List<PathDetectionObject> detections = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            double x, y;
+            switch (pattern) {
+                case CLUSTERED -> {
+                    int c = random.nextInt(N_CLUSTERS);
+                    x = clusters[2 * c] + gaussian(random) * clusterSigma;
+                    y = clusters[2 * c + 1] + gaussian(random) * clusterSigma;
+                }
+                case GRID -> {
+                    x = (i % nColumns) * step;
+                    y = (i / nColumns) * step;
+                }
+                default -> {
+                    x = random.nextDouble(width);
+                    y = random.nextDouble(height);
+                }
+            }
+            x = Math.max(0, Math.min(width - size, x));
+            y = Math.max(0, Math.min(height - size, y));
+            detections.add((PathDetectionObject) PathObjects.createDetectionObject(rectangle(x, y, size, size), pathClass));
+        }
+        return detections;
+    }
+
+    /**
+     * @return a sample of a standard normal distribution
+     */
+    static double gaussian(SplittableRandom random) {
+        // Box-Muller: SplittableRandom has no nextGaussian() in Java 17
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    /**
+     * Generates the detections of a channel inside the given annotation, and puts them in a container that
+     * {@link ChannelDetections#ChannelDetections(String, PathObjectHierarchy)} can find.
+     * @param channelName the name of the channel
+     * @param parent the annotation, already in a hierarchy, that contains the detections
+     * @param detections the detections of the channel
+     * @return the container of the detections, as child of {@code parent}
+     */
+    public static PathAnnotationObject addContainer(String channelName, PathAnnotationObject parent,
+                                                    List<? extends PathObject> detections) {
+        PathAnnotationObject container = (PathAnnotationObject) PathObjects.createAnnotationObject(parent.getROI(),
+                PathClass.fromString(channelName));
+        container.setName(channelName + " cells");
+        container.addChildObjects(detections);
+        parent.addChildObject(container);
+        return container;
+    }
+
+    /**
+     * Generates an annotation that excludes, with {@link AtlasManager#getExcludedBrainRegions()}, all the regions
+     * it covers.
+     * @return the exclusion annotation, not in any hierarchy
+     */
+    public static PathAnnotationObject exclusion(double x, double y, double width, double height) {
+        return (PathAnnotationObject) PathObjects.createAnnotationObject(rectangle(x, y, width, height),
+                AtlasManager.EXCLUDE_CLASSIFICATION);
+    }
+
+    /**
+     * Adds a tree of objects to a hierarchy as it is, without looking for the best parent of each object.
+     * @param hierarchy the hierarchy where to add the objects
+     * @param object the root of the tree of objects
+     */
+    public static void addTree(PathObjectHierarchy hierarchy, PathObject object) {
+        hierarchy.getRootObject().addChildObject(object);
+        hierarchy.fireHierarchyChangedEvent(SyntheticObjects.class);
+    }
+
+    /**
+     * @return a rectangular ROI on the default plane
+     */
+    public static ROI rectangle(double x, double y, double width, double height) {
+        return ROIs.createRectangleROI(x, y, width, height, ImagePlane.getDefaultPlane());
+    }
+}
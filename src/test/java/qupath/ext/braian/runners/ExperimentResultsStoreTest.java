@@ -0,0 +1,116 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian.runners;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qupath.ext.braian.RegionResultsWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExperimentResultsStoreTest {
+
+    private static RegionResultsWriter results(String imageName, int... counts) {
+        return new RegionResultsWriter(counts.length)
+                .addConstantColumn("Image Name", imageName)
+                .addIntColumn("Num Detections", counts);
+    }
+
+    @Test
+    void latestPartitions(@TempDir Path directory) throws IOException {
+        // PREPARE
+        ExperimentResultsStore store = ExperimentResultsStore.of(directory);
+        Path expected = directory.resolve("expected" + RegionResultsWriter.BINARY_EXTENSION);
+        results("image B", 4, 5, 6).writeBinary(expected);
+        // EXECUTE
+        store.write("animal1", "1", "image A", results("image A", 1, 2));
+        store.write("animal1", "2", "image B", results("image B", 1));
+        store.write("animal2", "1", "image A", results("image A", 3));
+        store.write("animal1", "2", "image B", results("image B", 4, 5, 6));
+        // CHECK
+        List<ExperimentResultsStore.Partition> partitions = store.getPartitions();
+        assertEquals(List.of("animal1/1", "animal1/2", "animal2/1"), partitions.stream()
+                .map(p -> p.project() + "/" + p.imageId())
+                .toList());
+        ExperimentResultsStore.Partition partition = partitions.get(1);
+        assertEquals("image B", partition.imageName());
+        assertEquals(3, partition.rows());
+        assertEquals(Files.size(expected), partition.bytes());
+        assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(partition.file()));
+        assertTrue(store.contains("animal2", "1"));
+        assertFalse(store.contains("animal2", "2"));
+        // no temporary file is left next to the partitions
+        try (var files = Files.list(partition.file().getParent())) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void deletedPartitions(@TempDir Path directory) throws IOException {
+        // PREPARE
+        ExperimentResultsStore store = ExperimentResultsStore.of(directory);
+        store.write("animal1", "1", "image A", results("image A", 1, 2));
+        store.write("animal1", "2", "image B", results("image B", 1));
+        store.write("animal2", "1", "image A", results("image A", 3));
+        // EXECUTE
+        store.delete("animal1", "1");
+        store.delete("animal1", "3");
+        store.delete("animal2");
+        // CHECK
+        assertEquals(List.of("animal1/2"), store.getPartitions().stream()
+                .map(p -> p.project() + "/" + p.imageId())
+                .toList());
+        assertFalse(store.contains("animal1", "1"));
+        assertFalse(store.contains("animal2", "1"));
+        // an image whose results are written again is back in the store
+        store.write("animal1", "1", "image A", results("image A", 4));
+        assertEquals(List.of("animal1/2", "animal1/1"), store.getPartitions().stream()
+                .map(p -> p.project() + "/" + p.imageId())
+                .toList());
+    }
+
+    @Test
+    void incompleteLine(@TempDir Path directory) throws IOException {
+        // PREPARE
+        ExperimentResultsStore store = ExperimentResultsStore.of(directory);
+        store.write("animal1", "1", "image A", results("image A", 1, 2));
+        // EXECUTE
+        Files.writeString(store.getIndexFile(), "animal1\t2\timage B\tanimal1/2.brc\t1",
+                StandardOpenOption.APPEND);
+        // CHECK
+        assertEquals(1, store.getPartitions().size());
+    }
+
+    @Test
+    void concurrentWrites(@TempDir Path directory) throws Exception {
+        // PREPARE
+        ExperimentResultsStore store = ExperimentResultsStore.of(directory);
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        // EXECUTE
+        try {
+            List<Future<ExperimentResultsStore.Partition>> tasks = IntStream.range(0, 100)
+                    .mapToObj(i -> workers.submit(() -> store.write("animal" + (i % 4), String.valueOf(i),
+                            "image " + i, results("image " + i, i))))
+                    .toList();
+            for (Future<ExperimentResultsStore.Partition> task : tasks)
+                task.get();
+        } finally {
+            workers.shutdownNow();
+        }
+        // CHECK
+        assertEquals(100, store.getPartitions().size());
+        assertEquals(101, Files.readAllLines(store.getIndexFile()).size());
+    }
+}
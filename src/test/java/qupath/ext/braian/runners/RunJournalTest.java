@@ -0,0 +1,139 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian.runners;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qupath.ext.braian.config.ChannelClassifierConfig;
+import qupath.ext.braian.config.ChannelDetectionsConfig;
+import qupath.ext.braian.config.ProjectsConfig;
+import qupath.lib.projects.Project;
+import qupath.lib.projects.ProjectImageEntry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RunJournalTest {
+
+    private static ProjectImageEntry<?> mockEntry(Path projectDirectory) throws IOException {
+        Path entryPath = Files.createDirectories(projectDirectory.resolve("data").resolve("1"));
+        Files.writeString(entryPath.resolve("data.qpdata"), "");
+        ProjectImageEntry<?> entry = mock(ProjectImageEntry.class);
+        when(entry.getID()).thenReturn("1");
+        when(entry.getImageName()).thenReturn("image");
+        when(entry.getEntryPath()).thenReturn(entryPath);
+        return entry;
+    }
+
+    private static Project<?> mockProject(Path projectDirectory) {
+        Project<?> project = mock(Project.class);
+        when(project.getPath()).thenReturn(projectDirectory.resolve("project.qpproj"));
+        return project;
+    }
+
+    @Test
+    void completedPrefix(@TempDir Path directory) throws IOException {
+        // PREPARE
+        ProjectImageEntry<?> entry = mockEntry(directory);
+        RunJournal journal = RunJournal.open(mockProject(directory), new ProjectsConfig());
+        // EXECUTE
+        journal.record(entry, EnumSet.of(RunJournal.Stage.DETECT, RunJournal.Stage.CLASSIFY, RunJournal.Stage.EXPORT));
+        // CHECK
+        assertEquals(EnumSet.of(RunJournal.Stage.DETECT, RunJournal.Stage.CLASSIFY), journal.getCompletedStages(entry));
+    }
+
+    @Test
+    void exportedResults(@TempDir Path directory) throws IOException {
+        // PREPARE
+        ProjectImageEntry<?> entry = mockEntry(directory);
+        Project<?> project = mockProject(directory);
+        RunJournal journal = RunJournal.open(project, new ProjectsConfig());
+        // EXECUTE
+        journal.record(entry, EnumSet.allOf(RunJournal.Stage.class));
+        // CHECK
+        assertFalse(journal.isExported(entry));
+        // EXECUTE
+        journal.record(entry, EnumSet.allOf(RunJournal.Stage.class), true);
+        // CHECK
+        assertTrue(journal.isExported(entry));
+        ProjectsConfig otherConfig = new ProjectsConfig();
+        otherConfig.setAtlasName("other_atlas");
+        assertFalse(RunJournal.open(project, otherConfig).isExported(entry));
+    }
+
+    @Test
+    void invalidatedByChanges(@TempDir Path directory) throws IOException {
+        // PREPARE
+        ProjectImageEntry<?> entry = mockEntry(directory);
+        Project<?> project = mockProject(directory);
+        RunJournal journal = RunJournal.open(project, new ProjectsConfig());
+        journal.record(entry, EnumSet.allOf(RunJournal.Stage.class));
+        ProjectsConfig otherConfig = new ProjectsConfig();
+        otherConfig.setAtlasName("other_atlas");
+        ProjectsConfig parallelConfig = new ProjectsConfig();
+        parallelConfig.setMaxParallelImages(8);
+        parallelConfig.setMaxTileThreads(4);
+        // CHECK
+        assertEquals(EnumSet.allOf(RunJournal.Stage.class), journal.getCompletedStages(entry));
+        assertEquals(EnumSet.allOf(RunJournal.Stage.class), RunJournal.open(project, parallelConfig).getCompletedStages(entry));
+        assertTrue(RunJournal.open(project, otherConfig).getCompletedStages(entry).isEmpty());
+        // EXECUTE
+        Files.setLastModifiedTime(entry.getEntryPath().resolve("data.qpdata"), FileTime.from(Instant.now().plusSeconds(60)));
+        // CHECK
+        assertTrue(journal.getCompletedStages(entry).isEmpty());
+    }
+
+    @Test
+    void invalidatedByClassifierChanges(@TempDir Path directory) throws IOException {
+        // PREPARE
+        ProjectImageEntry<?> entry = mockEntry(directory);
+        Project<?> project = mockProject(directory);
+        ChannelClassifierConfig classifier = new ChannelClassifierConfig();
+        classifier.setName("cfos_classifier");
+        ChannelDetectionsConfig channel = new ChannelDetectionsConfig();
+        channel.setName("cFos");
+        channel.setClassifiers(List.of(classifier));
+        ProjectsConfig config = new ProjectsConfig();
+        config.setChannelDetections(List.of(channel));
+        Files.writeString(directory.resolve("cfos_classifier.json"), "{\"threshold\": 0.5}");
+        RunJournal.open(project, config).record(entry, EnumSet.allOf(RunJournal.Stage.class));
+        // EXECUTE
+        Files.writeString(directory.resolve("cfos_classifier.json"), "{\"threshold\": 0.7}");
+        // CHECK
+        assertTrue(RunJournal.open(project, config).getCompletedStages(entry).isEmpty());
+    }
+
+    @Test
+    void unreadableClassifier(@TempDir Path directory) throws IOException {
+        // PREPARE
+        ProjectImageEntry<?> entry = mockEntry(directory);
+        Project<?> project = mockProject(directory);
+        ChannelClassifierConfig classifier = new ChannelClassifierConfig();
+        classifier.setName("cfos_classifier");
+        ChannelDetectionsConfig channel = new ChannelDetectionsConfig();
+        channel.setName("cFos");
+        channel.setClassifiers(List.of(classifier));
+        ProjectsConfig config = new ProjectsConfig();
+        config.setChannelDetections(List.of(channel));
+        // a directory exists, but cannot be read as a file
+        Files.createDirectory(directory.resolve("cfos_classifier.json"));
+        // EXECUTE
+        RunJournal journal = RunJournal.open(project, config);
+        journal.record(entry, EnumSet.allOf(RunJournal.Stage.class), true);
+        // CHECK
+        assertTrue(journal.getCompletedStages(entry).isEmpty());
+        assertFalse(journal.isExported(entry));
+        assertFalse(Files.exists(directory.resolve(RunJournal.DIRECTORY).resolve("1")));
+    }
+}
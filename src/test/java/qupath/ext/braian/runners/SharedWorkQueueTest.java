@@ -0,0 +1,141 @@
+// SPDX-FileCopyrightText: 2024 Carlo Castoldi <carlo.castoldi@outlook.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package qupath.ext.braian.runners;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedWorkQueueTest {
+
+    @Test
+    void exclusiveClaims(@TempDir Path directory) throws IOException {
+        // PREPARE
+        SharedWorkQueue worker1 = new SharedWorkQueue(directory, "worker1");
+        SharedWorkQueue worker2 = new SharedWorkQueue(directory, "worker2");
+        // EXECUTE & CHECK
+        assertTrue(worker1.tryClaim("unit"));
+        assertFalse(worker2.tryClaim("unit"));
+        worker1.release("unit");
+        assertTrue(worker2.tryClaim("unit"));
+        worker2.complete("unit");
+        assertTrue(worker1.isDone("unit"));
+        assertFalse(worker1.tryClaim("unit"));
+    }
+
+    @Test
+    void reclaimStale(@TempDir Path directory) throws IOException, InterruptedException {
+        // PREPARE
+        SharedWorkQueue dead = new SharedWorkQueue(directory, "dead", Duration.ofMillis(10), Duration.ofMillis(200));
+        SharedWorkQueue alive = new SharedWorkQueue(directory, "alive", Duration.ofMillis(10), Duration.ofMillis(200));
+        assertTrue(dead.tryClaim("unit"));
+        assertFalse(alive.tryClaim("unit")); // first seen now, whatever its modification time
+        // EXECUTE
+        Thread.sleep(300);
+        // CHECK
+        assertTrue(alive.tryClaim("unit"));
+        assertTrue(alive.owns("unit"));
+        assertFalse(dead.owns("unit"));
+        assertFalse(dead.tryClaim("unit"));
+        dead.release("unit"); // it does not own the unit anymore
+        assertFalse(dead.tryClaim("unit"));
+    }
+
+    @Test
+    void refreshedClaimIsNotStale(@TempDir Path directory) throws IOException, InterruptedException {
+        // PREPARE
+        SharedWorkQueue owner = new SharedWorkQueue(directory, "owner", Duration.ofMillis(10), Duration.ofMillis(200));
+        SharedWorkQueue other = new SharedWorkQueue(directory, "other", Duration.ofMillis(10), Duration.ofMillis(200));
+        assertTrue(owner.tryClaim("unit"));
+        // the clock of the owner is way behind
+        Files.setLastModifiedTime(directory.resolve("unit.claim"), FileTime.from(Instant.now().minusSeconds(3600)));
+        assertFalse(other.tryClaim("unit"));
+        Thread.sleep(300);
+        // EXECUTE
+        Files.setLastModifiedTime(directory.resolve("unit.claim"), FileTime.from(Instant.now().minusSeconds(3599)));
+        // CHECK
+        assertFalse(other.tryClaim("unit"));
+        assertTrue(owner.owns("unit"));
+        assertEquals("owner", Files.readString(directory.resolve("unit.claim")));
+    }
+
+    @Test
+    void heartbeatStopsOnceTakenOver(@TempDir Path directory) throws IOException, InterruptedException {
+        // PREPARE
+        SharedWorkQueue previous = new SharedWorkQueue(directory, "previous", Duration.ofMillis(20), Duration.ofMillis(200));
+        assertTrue(previous.tryClaim("unit"));
+        previous.start();
+        // EXECUTE
+        Files.writeString(directory.resolve("unit.claim"), "next");
+        FileTime taken = FileTime.from(Instant.now().minusSeconds(60));
+        Files.setLastModifiedTime(directory.resolve("unit.claim"), taken);
+        Thread.sleep(200);
+        // CHECK
+        assertFalse(previous.owns("unit"));
+        assertEquals(taken, Files.getLastModifiedTime(directory.resolve("unit.claim")));
+        previous.close();
+        assertEquals("next", Files.readString(directory.resolve("unit.claim")));
+    }
+
+    @Test
+    void unitNames() {
+        assertEquals("brain_1.42", SharedWorkQueue.getUnitName("brain 1", "42"));
+    }
+
+    @Test
+    void failingUnitIsCompleted(@TempDir Path directory) throws IOException {
+        // PREPARE
+        SharedWorkQueue worker1 = new SharedWorkQueue(directory, "worker1");
+        SharedWorkQueue worker2 = new SharedWorkQueue(directory, "worker2");
+        // EXECUTE
+        boolean completed = worker1.process("unit", () -> {
+            throw new OutOfMemoryError("large slide");
+        });
+        // CHECK
+        assertTrue(completed);
+        assertTrue(worker2.isDone("unit"));
+        assertFalse(Files.exists(directory.resolve("unit.claim")));
+        assertFalse(worker2.process("unit", () -> fail("completed units are not processed again")));
+    }
+
+    @Test
+    void takenOverUnitIsNotCompleted(@TempDir Path directory) throws IOException {
+        // PREPARE
+        SharedWorkQueue worker = new SharedWorkQueue(directory, "worker");
+        // EXECUTE
+        boolean completed = worker.process("unit", () -> false);
+        // CHECK
+        assertFalse(completed);
+        assertFalse(worker.isDone("unit"));
+        assertTrue(worker.process("unit", () -> true));
+        assertTrue(worker.isDone("unit"));
+    }
+
+    @Test
+    void unclaimableUnitIsGivenUp(@TempDir Path directory) throws IOException {
+        // PREPARE
+        Path queueDirectory = directory.resolve("queue");
+        SharedWorkQueue worker = new SharedWorkQueue(queueDirectory, "worker");
+        // claims cannot be created anymore
+        Files.delete(queueDirectory);
+        Files.writeString(queueDirectory, "");
+        // EXECUTE
+        int attempts = 0;
+        while (!worker.isDone("unit")) {
+            assertFalse(worker.process("unit", () -> fail("unclaimed units are not processed")));
+            attempts++;
+        }
+        // CHECK
+        assertEquals(SharedWorkQueue.MAX_CLAIM_ATTEMPTS, attempts);
+    }
+}